@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls for new rows on a dedicated thread, with an interval adapting to what the polls return:
+ * empty polls multiply the interval up to the max, full batches poll again immediately and partial
+ * batches halve the interval down to the min. Intervals are randomized by the jitter fraction, so
+ * that polls from several nodes do not line up.
+ *
+ * <p>Failing polls, including failures of the handler, are logged and back off like empty polls,
+ * the polling thread keeps running until closed.
+ *
+ * <p>Writers in the same JVM can trigger an immediate poll using {@link #wakeUp()}, typically
+ * registered with {@link JdbcRunner#afterCommit(Runnable)}.
+ */
+public class AdaptivePoller<T> implements AutoCloseable {
+  private static final Logger LOG = LoggerFactory.getLogger(AdaptivePoller.class);
+
+  private final String name;
+  private final Supplier<List<T>> poll;
+  private final Consumer<List<T>> handler;
+  private final int fullBatchSize;
+  private final long minIntervalNanos;
+  private final long maxIntervalNanos;
+  private final double backoffMultiplier;
+  private final double jitter;
+
+  private final Object lock = new Object();
+  private boolean wakeUpRequested;
+  private volatile boolean running;
+  private volatile long currentIntervalNanos;
+  private Thread thread;
+
+  /**
+   * @param poll e.g. a query or a {@link QueueClaimer#claim()}
+   * @param handler receives the rows of every non-empty poll, on the polling thread
+   * @param fullBatchSize polls returning at least this many rows are considered full
+   */
+  public AdaptivePoller(
+      String name, Supplier<List<T>> poll, Consumer<List<T>> handler, int fullBatchSize) {
+    this(
+        name, poll, handler, fullBatchSize, Duration.ofMillis(100), Duration.ofSeconds(10), 2, 0.1);
+  }
+
+  /** Polls by running the query, which should limit its result to <code>fullBatchSize</code>. */
+  public AdaptivePoller(
+      String name,
+      JdbcRunner jdbcRunner,
+      String query,
+      PreparedStatementSetter setParameters,
+      RowMapper<T> rowMapper,
+      Consumer<List<T>> handler,
+      int fullBatchSize) {
+    this(name, () -> jdbcRunner.query(query, setParameters, rowMapper), handler, fullBatchSize);
+  }
+
+  private AdaptivePoller(
+      String name,
+      Supplier<List<T>> poll,
+      Consumer<List<T>> handler,
+      int fullBatchSize,
+      Duration minInterval,
+      Duration maxInterval,
+      double backoffMultiplier,
+      double jitter) {
+    if (minInterval.isNegative()
+        || minInterval.isZero()
+        || minInterval.compareTo(maxInterval) > 0
+        || backoffMultiplier < 1
+        || jitter < 0
+        || jitter >= 1) {
+      throw new IllegalArgumentException(
+          "Requires 0 < minInterval <= maxInterval, backoffMultiplier >= 1 and 0 <= jitter < 1.");
+    }
+    this.name = name;
+    this.poll = poll;
+    this.handler = handler;
+    this.fullBatchSize = fullBatchSize;
+    this.minIntervalNanos = minInterval.toNanos();
+    this.maxIntervalNanos = maxInterval.toNanos();
+    this.backoffMultiplier = backoffMultiplier;
+    this.jitter = jitter;
+    this.currentIntervalNanos = minIntervalNanos;
+  }
+
+  public AdaptivePoller<T> withIntervals(Duration minInterval, Duration maxInterval) {
+    return new AdaptivePoller<>(
+        name, poll, handler, fullBatchSize, minInterval, maxInterval, backoffMultiplier, jitter);
+  }
+
+  public AdaptivePoller<T> withBackoffMultiplier(double backoffMultiplier) {
+    return new AdaptivePoller<>(
+        name,
+        poll,
+        handler,
+        fullBatchSize,
+        Duration.ofNanos(minIntervalNanos),
+        Duration.ofNanos(maxIntervalNanos),
+        backoffMultiplier,
+        jitter);
+  }
+
+  /**
+   * @param jitter fraction the interval is randomly shortened or extended by, e.g. 0.1 for ±10%
+   */
+  public AdaptivePoller<T> withJitter(double jitter) {
+    return new AdaptivePoller<>(
+        name,
+        poll,
+        handler,
+        fullBatchSize,
+        Duration.ofNanos(minIntervalNanos),
+        Duration.ofNanos(maxIntervalNanos),
+        backoffMultiplier,
+        jitter);
+  }
+
+  public synchronized void start() {
+    if (thread != null) {
+      throw new IllegalStateException("Poller already started.");
+    }
+    running = true;
+    thread = new Thread(this::run, name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Triggers a poll as soon as the current one, if any, has finished. */
+  public void wakeUp() {
+    synchronized (lock) {
+      wakeUpRequested = true;
+      lock.notifyAll();
+    }
+  }
+
+  /** Stops polling, waiting for an ongoing poll to finish. */
+  @Override
+  public void close() {
+    final Thread toJoin;
+    synchronized (this) {
+      running = false;
+      toJoin = thread;
+    }
+    wakeUp();
+    if (toJoin != null && toJoin != Thread.currentThread()) {
+      try {
+        toJoin.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /** The interval before the next poll, without jitter. */
+  public Duration getCurrentInterval() {
+    return Duration.ofNanos(currentIntervalNanos);
+  }
+
+  private void run() {
+    while (running) {
+      int rows = 0;
+      try {
+        final List<T> polled = poll.get();
+        rows = polled.size();
+        if (rows > 0) {
+          handler.accept(polled);
+        }
+      } catch (Throwable e) {
+        LOG.warn("Poll failed for poller '{}'. Backing off.", name, e);
+        rows = 0;
+      }
+      currentIntervalNanos = nextInterval(currentIntervalNanos, rows);
+      if (rows >= fullBatchSize) {
+        continue; // more rows are likely waiting
+      }
+      await(jittered(currentIntervalNanos));
+    }
+  }
+
+  long nextInterval(long intervalNanos, int rows) {
+    if (rows == 0) {
+      return Math.min(maxIntervalNanos, (long) (intervalNanos * backoffMultiplier));
+    }
+    if (rows >= fullBatchSize) {
+      return minIntervalNanos;
+    }
+    return Math.max(minIntervalNanos, intervalNanos / 2);
+  }
+
+  private long jittered(long intervalNanos) {
+    if (jitter == 0) {
+      return intervalNanos;
+    }
+    final double factor = 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+    return (long) (intervalNanos * factor);
+  }
+
+  private void await(long nanos) {
+    final long deadline = System.nanoTime() + nanos;
+    synchronized (lock) {
+      try {
+        long remaining = nanos;
+        while (!wakeUpRequested && running && remaining > 0) {
+          lock.wait(Math.max(1, remaining / 1_000_000));
+          remaining = deadline - System.nanoTime();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        running = false;
+      }
+      wakeUpRequested = false;
+    }
+  }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Collects keys requested individually and loads them using few <code>IN</code>-list queries,
+ * turning N+1 lookups into a handful of round trips.
+ *
+ * <p>The query must contain the placeholder {@link #KEYS} where the <code>IN</code>-list should go,
+ * e.g. <code>select * from users where id in (:keys)</code>. To keep prepared-statement caches
+ * warm, lists are always one of a small set of power-of-two arities up to the max batch size,
+ * padded by repeating the last key.
+ *
+ * <p>Keys are queued until {@link #dispatch()} is called, the max batch size is reached or, if
+ * configured, a tick has passed since the first key was queued. Without a tick, fewer keys than the
+ * max batch size stay queued until <code>dispatch()</code> is called, so callers must dispatch
+ * before waiting on the futures. Results are cached for the lifetime of the loader, so a loader is
+ * typically created per request.
+ */
+public class BatchLoader<K, V> {
+  public static final String KEYS = ":keys";
+  private static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+  private final JdbcRunner jdbcRunner;
+  private final String query;
+  private final RowMapper<V> rowMapper;
+  private final Function<V, K> keyExtractor;
+  private final int maxBatchSize;
+  private final ScheduledExecutorService tickScheduler;
+  private final Duration tick;
+  private final int[] arities;
+  private final String[] queries;
+
+  private final Map<K, CompletableFuture<V>> cache = new ConcurrentHashMap<>();
+  private final Map<K, CompletableFuture<V>> queued = new LinkedHashMap<>();
+  private boolean tickScheduled;
+
+  /**
+   * @param query query containing the placeholder {@link #KEYS}
+   * @param keyExtractor extracts the key of a mapped row, used to hand rows back to each caller.
+   *     Must return keys equal to the requested ones, e.g. <code>Long</code> for <code>Long</code>
+   *     keys also when the column is an <code>INT</code>, or the callers get <code>null</code>.
+   */
+  public BatchLoader(
+      JdbcRunner jdbcRunner, String query, RowMapper<V> rowMapper, Function<V, K> keyExtractor) {
+    this(jdbcRunner, query, rowMapper, keyExtractor, DEFAULT_MAX_BATCH_SIZE, null, null);
+  }
+
+  private BatchLoader(
+      JdbcRunner jdbcRunner,
+      String query,
+      RowMapper<V> rowMapper,
+      Function<V, K> keyExtractor,
+      int maxBatchSize,
+      ScheduledExecutorService tickScheduler,
+      Duration tick) {
+    if (!query.contains(KEYS)) {
+      throw new IllegalArgumentException("Query must contain placeholder " + KEYS + ": " + query);
+    }
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive.");
+    }
+    this.jdbcRunner = jdbcRunner;
+    this.query = query;
+    this.rowMapper = rowMapper;
+    this.keyExtractor = keyExtractor;
+    this.maxBatchSize = maxBatchSize;
+    this.tickScheduler = tickScheduler;
+    this.tick = tick;
+    this.arities = arities(maxBatchSize);
+    this.queries = new String[arities.length];
+    for (int i = 0; i < arities.length; i++) {
+      queries[i] = query.replace(KEYS, placeholders(arities[i]));
+    }
+  }
+
+  /** Returns a loader that dispatches whenever this many keys are queued. */
+  public BatchLoader<K, V> withMaxBatchSize(int maxBatchSize) {
+    return new BatchLoader<>(
+        jdbcRunner, query, rowMapper, keyExtractor, maxBatchSize, tickScheduler, tick);
+  }
+
+  /** Returns a loader that dispatches queued keys at most <code>tick</code> after the first. */
+  public BatchLoader<K, V> withTick(Duration tick, ScheduledExecutorService tickScheduler) {
+    return new BatchLoader<>(
+        jdbcRunner, query, rowMapper, keyExtractor, maxBatchSize, tickScheduler, tick);
+  }
+
+  /**
+   * Queues a key for loading. Unless a tick is configured, the future is not completed before the
+   * batch is full or {@link #dispatch()} is called.
+   *
+   * @return future completed with the row for the key, or <code>null</code> if there was none
+   */
+  public CompletableFuture<V> load(K key) {
+    final CompletableFuture<V> cached = cache.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    final CompletableFuture<V> future;
+    final boolean full;
+    final boolean scheduleTick;
+    synchronized (this) {
+      final CompletableFuture<V> existing = cache.putIfAbsent(key, new CompletableFuture<>());
+      if (existing != null) {
+        return existing;
+      }
+      future = cache.get(key);
+      queued.put(key, future);
+      full = queued.size() >= maxBatchSize;
+      scheduleTick = !full && tickScheduler != null && !tickScheduled;
+      if (scheduleTick) {
+        tickScheduled = true;
+      }
+    }
+
+    if (full) {
+      dispatch();
+    } else if (scheduleTick) {
+      tickScheduler.schedule(this::dispatch, tick.toNanos(), TimeUnit.NANOSECONDS);
+    }
+    return future;
+  }
+
+  /** Loads all keys, dispatching immediately, and waits for the result. Missing keys are absent. */
+  public Map<K, V> loadAll(Collection<K> keys) {
+    final Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+    for (K key : keys) {
+      futures.put(key, load(key));
+    }
+    dispatch();
+
+    final Map<K, V> result = new LinkedHashMap<>();
+    for (Map.Entry<K, CompletableFuture<V>> entry : futures.entrySet()) {
+      final V value = join(entry.getValue());
+      if (value != null) {
+        result.put(entry.getKey(), value);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Loads all currently queued keys, in the calling thread. Every dispatched future is completed,
+   * also if loading fails with an <code>Error</code>, which is then rethrown.
+   */
+  public void dispatch() {
+    final List<Map.Entry<K, CompletableFuture<V>>> batch;
+    synchronized (this) {
+      batch = new ArrayList<>(queued.entrySet());
+      queued.clear();
+      tickScheduled = false;
+    }
+
+    int from = 0;
+    try {
+      for (; from < batch.size(); from += maxBatchSize) {
+        loadBatch(batch.subList(from, Math.min(batch.size(), from + maxBatchSize)));
+      }
+    } catch (Throwable e) {
+      // loadBatch handles RuntimeExceptions, never leave the remaining callers waiting
+      fail(batch.subList(from, batch.size()), e);
+      throw e;
+    }
+  }
+
+  /** Removes all cached results. */
+  public void clear() {
+    cache.clear();
+  }
+
+  private void loadBatch(List<Map.Entry<K, CompletableFuture<V>>> batch) {
+    final List<K> keys = new ArrayList<>(batch.size());
+    for (Map.Entry<K, CompletableFuture<V>> entry : batch) {
+      keys.add(entry.getKey());
+    }
+
+    try {
+      final int arityIndex = arityIndexFor(keys.size());
+      final int arity = arities[arityIndex];
+      final List<V> rows =
+          jdbcRunner.query(queries[arityIndex], ps -> bind(ps, keys, arity), rowMapper);
+
+      final Map<K, V> byKey = new HashMap<>();
+      for (V row : rows) {
+        byKey.put(keyExtractor.apply(row), row);
+      }
+      for (Map.Entry<K, CompletableFuture<V>> entry : batch) {
+        entry.getValue().complete(byKey.get(entry.getKey()));
+      }
+    } catch (RuntimeException e) {
+      fail(batch, e);
+    }
+  }
+
+  private void fail(List<Map.Entry<K, CompletableFuture<V>>> batch, Throwable e) {
+    for (Map.Entry<K, CompletableFuture<V>> entry : batch) {
+      cache.remove(entry.getKey(), entry.getValue());
+      entry.getValue().completeExceptionally(e);
+    }
+  }
+
+  private static <K> void bind(PreparedStatement ps, List<K> keys, int arity) throws SQLException {
+    for (int i = 0; i < arity; i++) {
+      ps.setObject(i + 1, keys.get(Math.min(i, keys.size() - 1)));
+    }
+  }
+
+  private int arityIndexFor(int size) {
+    for (int i = 0; i < arities.length; i++) {
+      if (arities[i] >= size) {
+        return i;
+      }
+    }
+    return arities.length - 1;
+  }
+
+  private static int[] arities(int maxBatchSize) {
+    final List<Integer> arities = new ArrayList<>();
+    for (int arity = 1; arity < maxBatchSize; arity *= 2) {
+      arities.add(arity);
+    }
+    arities.add(maxBatchSize);
+    return arities.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  private static String placeholders(int arity) {
+    return String.join(",", Collections.nCopies(arity, "?"));
+  }
+
+  private static <V> V join(CompletableFuture<V> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of concurrently executing statements of one statement-class. See {@link
+ * Bulkheads}.
+ */
+public class Bulkhead {
+
+  private final String name;
+  private final int maxConcurrent;
+  private final long maxWaitNanos;
+  private final Semaphore permits;
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+
+  Bulkhead(String name, int maxConcurrent, Duration maxWait) {
+    this.name = name;
+    this.maxConcurrent = maxConcurrent;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.permits = new Semaphore(maxConcurrent);
+  }
+
+  void acquire() {
+    if (permits.tryAcquire()) {
+      acquired.increment();
+      return;
+    }
+
+    boolean permitted = false;
+    if (maxWaitNanos > 0) {
+      waiting.incrementAndGet();
+      try {
+        permitted = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        waiting.decrementAndGet();
+      }
+    }
+
+    if (!permitted) {
+      rejected.increment();
+      throw new BulkheadFull(this);
+    }
+    acquired.increment();
+  }
+
+  void release() {
+    permits.release();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxConcurrent() {
+    return maxConcurrent;
+  }
+
+  /** Statements of this class currently executing. */
+  public int getActive() {
+    return maxConcurrent - permits.availablePermits();
+  }
+
+  /** Statements of this class currently waiting for a permit. */
+  public int getWaiting() {
+    return waiting.get();
+  }
+
+  public long getAcquiredCount() {
+    return acquired.sum();
+  }
+
+  public long getRejectedCount() {
+    return rejected.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "Bulkhead{"
+        + "name="
+        + name
+        + ", active="
+        + getActive()
+        + "/"
+        + maxConcurrent
+        + ", waiting="
+        + getWaiting()
+        + ", rejected="
+        + getRejectedCount()
+        + '}';
+  }
+
+  /** Thrown when a statement could not get a permit from its {@link Bulkhead} in time. */
+  public static class BulkheadFull extends SQLRuntimeException {
+    private final transient Bulkhead bulkhead;
+
+    BulkheadFull(Bulkhead bulkhead) {
+      super(
+          "Bulkhead '"
+              + bulkhead.getName()
+              + "' is full ("
+              + bulkhead.getMaxConcurrent()
+              + " concurrent statements), rejecting statement.",
+          null,
+          false);
+      this.bulkhead = bulkhead;
+    }
+
+    public Bulkhead getBulkhead() {
+      return bulkhead;
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Bulkheads for statements executed by a {@link JdbcRunner}, enabled using {@link
+ * JdbcRunner#withBulkheads}. Statements are divided into classes, either by tagging them using
+ * {@link JdbcRunner#withStatementClass} or by matching the SQL against patterns. Each class has a
+ * cap on concurrent executions, so that e.g. a flood of expensive report-queries cannot occupy
+ * every pooled connection and starve latency-critical statements. Statements not belonging to a
+ * class are not limited.
+ *
+ * <pre>
+ * Bulkheads bulkheads = new Bulkheads()
+ *     .withClass("reports", 4, Duration.ofMillis(50))
+ *     .withPattern("(?i)^select .* from report_.*", "reports");
+ * </pre>
+ */
+public class Bulkheads {
+  private static final int MAX_CACHED_CLASSIFICATIONS = 1000;
+  private static final Bulkhead UNCLASSIFIED = new Bulkhead("unclassified", 0, Duration.ZERO);
+
+  private final Map<String, Bulkhead> bulkheads;
+  private final List<PatternRule> patterns;
+  private final Map<String, Bulkhead> classifiedSql = new ConcurrentHashMap<>();
+
+  public Bulkheads() {
+    this(Collections.emptyMap(), Collections.emptyList());
+  }
+
+  private Bulkheads(Map<String, Bulkhead> bulkheads, List<PatternRule> patterns) {
+    this.bulkheads = bulkheads;
+    this.patterns = patterns;
+  }
+
+  /**
+   * Adds a statement-class.
+   *
+   * @param maxConcurrent max number of statements of this class executing concurrently
+   * @param maxWait how long to wait for a permit before failing with {@link Bulkhead.BulkheadFull}.
+   *     <code>Duration.ZERO</code> fails fast.
+   */
+  public Bulkheads withClass(String statementClass, int maxConcurrent, Duration maxWait) {
+    Map<String, Bulkhead> newBulkheads = new LinkedHashMap<>(bulkheads);
+    newBulkheads.put(statementClass, new Bulkhead(statementClass, maxConcurrent, maxWait));
+    return new Bulkheads(Collections.unmodifiableMap(newBulkheads), patterns);
+  }
+
+  /**
+   * Statements matching the regular expression belong to the class, unless explicitly tagged.
+   * Patterns are tried in the order they were added.
+   */
+  public Bulkheads withPattern(String sqlRegex, String statementClass) {
+    List<PatternRule> newPatterns = new ArrayList<>(patterns);
+    newPatterns.add(new PatternRule(Pattern.compile(sqlRegex), statementClass));
+    return new Bulkheads(bulkheads, Collections.unmodifiableList(newPatterns));
+  }
+
+  public Collection<Bulkhead> getBulkheads() {
+    return bulkheads.values();
+  }
+
+  public Bulkhead getBulkhead(String statementClass) {
+    return bulkheads.get(statementClass);
+  }
+
+  /**
+   * @return the bulkhead for the statement, or null if not limited
+   */
+  Bulkhead bulkheadFor(String sql, String statementClass) {
+    if (statementClass != null) {
+      return bulkheads.get(statementClass);
+    }
+    if (patterns.isEmpty()) {
+      return null;
+    }
+
+    Bulkhead classified = classifiedSql.get(sql);
+    if (classified == null) {
+      classified = classify(sql);
+      if (classifiedSql.size() < MAX_CACHED_CLASSIFICATIONS) {
+        classifiedSql.put(sql, classified);
+      }
+    }
+    return classified == UNCLASSIFIED ? null : classified;
+  }
+
+  private Bulkhead classify(String sql) {
+    for (PatternRule pattern : patterns) {
+      if (pattern.pattern.matcher(sql).matches()) {
+        Bulkhead bulkhead = bulkheads.get(pattern.statementClass);
+        return bulkhead != null ? bulkhead : UNCLASSIFIED;
+      }
+    }
+    return UNCLASSIFIED;
+  }
+
+  private static class PatternRule {
+    private final Pattern pattern;
+    private final String statementClass;
+
+    PatternRule(Pattern pattern, String statementClass) {
+      this.pattern = pattern;
+      this.statementClass = statementClass;
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handle for cancelling a statement executing on another thread. The statement is captured when its
+ * parameters are set, and can then be cancelled using <code>Statement.cancel()</code>.
+ */
+class CancellableStatement {
+  private static final Logger LOG = LoggerFactory.getLogger(CancellableStatement.class);
+
+  private PreparedStatement running;
+  private boolean cancelled;
+  private boolean done;
+
+  PreparedStatementSetter capture(PreparedStatementSetter setParameters) {
+    return ps -> {
+      started(ps);
+      setParameters.setParameters(ps);
+    };
+  }
+
+  private synchronized void started(PreparedStatement ps) {
+    if (cancelled) {
+      throw new StatementCancelled();
+    }
+    running = ps;
+  }
+
+  /** Must be called when the statement has completed, to not cancel a statement being reused. */
+  synchronized void done() {
+    done = true;
+    running = null;
+  }
+
+  synchronized void cancel() {
+    if (cancelled || done) {
+      return;
+    }
+    cancelled = true;
+    if (running != null) {
+      try {
+        running.cancel();
+      } catch (SQLException | RuntimeException e) {
+        LOG.debug("Failed to cancel statement.", e);
+      }
+    }
+  }
+
+  synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  static class StatementCancelled extends SQLRuntimeException {
+    StatementCancelled() {
+      super("Statement cancelled before execution.", null, false);
+    }
+  }
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decorates a <code>ConnectionSupplier</code> with a circuit breaker, so that during a database
+ * outage callers fail fast with {@link CircuitOpen} instead of blocking in <code>getConnection()
+ * </code> or in statements until they time out.
+ *
+ * <pre>
+ * JdbcRunner jdbcRunner = new JdbcRunner(
+ *     new CircuitBreakingConnectionSupplier(new DataSourceConnectionSupplier(dataSource, false))
+ *         .withFailureRateThreshold(0.5, 20)
+ *         .withSlowCallThreshold(Duration.ofSeconds(2), 0.8)
+ *         .withOpenDuration(Duration.ofSeconds(5)),
+ *     new ThreadLocalTransactionContextProvider());
+ * </pre>
+ *
+ * <p>Calls are acquiring a connection and executing statements on it. Failing to acquire a
+ * connection is always a failure; a failing statement is a failure if the <code>
+ * SQLExceptionTranslator</code> (the same as used by <code>JdbcRunner</code>) translates it to
+ * {@link ConnectionLost} or {@link StatementTimeout}, so e.g. constraint violations do not open the
+ * circuit. Outcomes are counted in a lock-free sliding window of buckets. The circuit opens when,
+ * with at least <code>minCalls</code> calls in the window, the rate of failures or of slow calls
+ * reaches its threshold.
+ *
+ * <p>When open, connections are refused for the open duration. Then the circuit is half-open and
+ * hands out a limited number of probe connections: if they are all closed without failure the
+ * circuit closes, the first failure opens it again. If the probes have not all completed within the
+ * open duration, e.g. because a probe connection was leaked or is held for long, a new set of
+ * probes is granted, and the outstanding probes no longer count.
+ *
+ * <p>Configure using the <code>with</code>-methods before use, they return a new supplier with a
+ * closed circuit.
+ */
+public class CircuitBreakingConnectionSupplier implements ConnectionSupplier {
+  private static final Logger LOG =
+      LoggerFactory.getLogger(CircuitBreakingConnectionSupplier.class);
+
+  public enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final ConnectionSupplier delegate;
+  private double failureRateThreshold = 0.5;
+  private int minCalls = 20;
+  private long slowCallNanos = 0;
+  private double slowCallRateThreshold = 1.0;
+  private long windowNanos = TimeUnit.SECONDS.toNanos(10);
+  private int windowBuckets = 10;
+  private long openNanos = TimeUnit.SECONDS.toNanos(5);
+  private int probes = 3;
+  private SQLExceptionTranslator exceptionTranslator = SQLExceptionTranslator.DEFAULT;
+
+  private SlidingWindow window;
+  private final AtomicReference<Circuit> circuit =
+      new AtomicReference<>(new Circuit(State.CLOSED, 0, 0));
+  private final AtomicLong rejected = new AtomicLong();
+
+  public CircuitBreakingConnectionSupplier(ConnectionSupplier delegate) {
+    this.delegate = delegate;
+    this.window = new SlidingWindow(windowNanos, windowBuckets);
+  }
+
+  private CircuitBreakingConnectionSupplier copy() {
+    CircuitBreakingConnectionSupplier copy = new CircuitBreakingConnectionSupplier(delegate);
+    copy.failureRateThreshold = failureRateThreshold;
+    copy.minCalls = minCalls;
+    copy.slowCallNanos = slowCallNanos;
+    copy.slowCallRateThreshold = slowCallRateThreshold;
+    copy.windowNanos = windowNanos;
+    copy.windowBuckets = windowBuckets;
+    copy.openNanos = openNanos;
+    copy.probes = probes;
+    copy.exceptionTranslator = exceptionTranslator;
+    copy.window = new SlidingWindow(windowNanos, windowBuckets);
+    return copy;
+  }
+
+  /** Open when this rate of calls fail, given at least <code>minCalls</code> in the window. */
+  public CircuitBreakingConnectionSupplier withFailureRateThreshold(double rate, int minCalls) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.failureRateThreshold = rate;
+    copy.minCalls = minCalls;
+    return copy;
+  }
+
+  /** Open when this rate of calls take longer than <code>slowCall</code>. Disabled by default. */
+  public CircuitBreakingConnectionSupplier withSlowCallThreshold(Duration slowCall, double rate) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.slowCallNanos = slowCall.toNanos();
+    copy.slowCallRateThreshold = rate;
+    return copy;
+  }
+
+  /** Length of the sliding window, and its number of buckets. Defaults to 10s and 10. */
+  public CircuitBreakingConnectionSupplier withWindow(Duration window, int buckets) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.windowNanos = window.toNanos();
+    copy.windowBuckets = buckets;
+    copy.window = new SlidingWindow(copy.windowNanos, buckets);
+    return copy;
+  }
+
+  /** How long to refuse connections before probing. Defaults to 5s. */
+  public CircuitBreakingConnectionSupplier withOpenDuration(Duration openDuration) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.openNanos = openDuration.toNanos();
+    return copy;
+  }
+
+  /** Number of successful probe connections required to close the circuit. Defaults to 3. */
+  public CircuitBreakingConnectionSupplier withProbes(int probes) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.probes = probes;
+    return copy;
+  }
+
+  /** Should be the translator of the <code>JdbcRunner</code>, if customized. */
+  public CircuitBreakingConnectionSupplier withExceptionTranslator(
+      SQLExceptionTranslator exceptionTranslator) {
+    CircuitBreakingConnectionSupplier copy = copy();
+    copy.exceptionTranslator = exceptionTranslator;
+    return copy;
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    final Circuit probeOf = acquirePermission();
+    final long started = System.nanoTime();
+    final Connection connection;
+    try {
+      connection = delegate.getConnection();
+    } catch (SQLException | RuntimeException e) {
+      onOutcome(true, System.nanoTime() - started);
+      throw e;
+    }
+    onOutcome(false, System.nanoTime() - started);
+    return (Connection)
+        Proxy.newProxyInstance(
+            CircuitBreakingConnectionSupplier.class.getClassLoader(),
+            new Class<?>[] {Connection.class},
+            new ObservedConnection(connection, probeOf));
+  }
+
+  @Override
+  public boolean commitWhenAutocommitDisabled() {
+    return delegate.commitWhenAutocommitDisabled();
+  }
+
+  @Override
+  public boolean isExternallyManagedConnection() {
+    return delegate.isExternallyManagedConnection();
+  }
+
+  public State getState() {
+    final Circuit current = circuit.get();
+    if (current.state == State.OPEN && System.nanoTime() - current.sinceNanos >= openNanos) {
+      return State.HALF_OPEN;
+    }
+    return current.state;
+  }
+
+  /** Number of connections refused because the circuit was open. */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+  /**
+   * @return the half-open circuit the connection is a probe of, or null if not a probe
+   */
+  private Circuit acquirePermission() {
+    while (true) {
+      final Circuit current = circuit.get();
+      switch (current.state) {
+        case CLOSED:
+          return null;
+        case OPEN:
+          final long openFor = System.nanoTime() - current.sinceNanos;
+          if (openFor < openNanos) {
+            rejected.incrementAndGet();
+            throw new CircuitOpen(
+                "Circuit open, failing fast for another "
+                    + TimeUnit.NANOSECONDS.toMillis(openNanos - openFor)
+                    + "ms.");
+          }
+          transition(current, new Circuit(State.HALF_OPEN, System.nanoTime(), probes));
+          break; // retry with the new state
+        case HALF_OPEN:
+          if (current.permits.getAndDecrement() > 0) {
+            return current;
+          }
+          if (System.nanoTime() - current.sinceNanos >= openNanos) {
+            // probes not completed in time, grant new ones
+            transition(current, new Circuit(State.HALF_OPEN, System.nanoTime(), probes));
+            break; // retry with the new state
+          }
+          rejected.incrementAndGet();
+          throw new CircuitOpen("Circuit half-open, waiting for probes to complete.");
+        default:
+          throw new IllegalStateException("Unknown state " + current.state);
+      }
+    }
+  }
+
+  private void onOutcome(boolean failure, long nanos) {
+    final Circuit current = circuit.get();
+    if (current.state == State.HALF_OPEN) {
+      if (failure) {
+        transition(current, new Circuit(State.OPEN, System.nanoTime(), 0));
+      }
+      return;
+    }
+    if (current.state != State.CLOSED) {
+      return; // e.g. connections handed out before the circuit opened
+    }
+
+    final boolean slow = slowCallNanos > 0 && nanos >= slowCallNanos;
+    final long[] totals = window.record(failure, slow);
+    final long calls = totals[0];
+    if (calls >= minCalls
+        && (totals[1] >= failureRateThreshold * calls
+            || (slowCallNanos > 0 && totals[2] >= slowCallRateThreshold * calls))) {
+      transition(current, new Circuit(State.OPEN, System.nanoTime(), 0));
+    }
+  }
+
+  private void onProbeCompleted(Circuit probeOf, boolean failed) {
+    final Circuit current = circuit.get();
+    if (current != probeOf || failed) {
+      return; // failures have already reopened the circuit, or the probe was replaced
+    }
+    if (current.successes.incrementAndGet() >= probes) {
+      window.reset();
+      transition(current, new Circuit(State.CLOSED, System.nanoTime(), 0));
+    }
+  }
+
+  private void transition(Circuit from, Circuit to) {
+    if (circuit.compareAndSet(from, to)) {
+      LOG.warn("Circuit {} -> {}", from.state, to.state);
+    }
+  }
+
+  private boolean isFailure(SQLException e) {
+    final SQLRuntimeException translated = exceptionTranslator.translate(e);
+    return translated instanceof ConnectionLost || translated instanceof StatementTimeout;
+  }
+
+  /** Immutable state, replaced on transitions. Permits and successes are for half-open only. */
+  private static class Circuit {
+    private final State state;
+    private final long sinceNanos;
+    private final AtomicInteger permits;
+    private final AtomicInteger successes = new AtomicInteger();
+
+    Circuit(State state, long sinceNanos, int permits) {
+      this.state = state;
+      this.sinceNanos = sinceNanos;
+      this.permits = new AtomicInteger(permits);
+    }
+  }
+
+  /**
+   * Ring of buckets, each covering <code>window / buckets</code> of time. A bucket is reset by the
+   * first call after its time slot has passed. Counts are approximate when calls race with that
+   * reset, which is acceptable for rates.
+   */
+  private static class SlidingWindow {
+    private final long origin = System.nanoTime();
+    private final long bucketNanos;
+    private final int buckets;
+    private final AtomicLongArray epochs;
+    private final AtomicLongArray calls;
+    private final AtomicLongArray failures;
+    private final AtomicLongArray slow;
+
+    SlidingWindow(long windowNanos, int buckets) {
+      this.bucketNanos = Math.max(1, windowNanos / buckets);
+      this.buckets = buckets;
+      this.epochs = new AtomicLongArray(buckets);
+      this.calls = new AtomicLongArray(buckets);
+      this.failures = new AtomicLongArray(buckets);
+      this.slow = new AtomicLongArray(buckets);
+      reset();
+    }
+
+    /**
+     * @return totals of the window: calls, failures and slow calls
+     */
+    long[] record(boolean failure, boolean isSlow) {
+      final long epoch = (System.nanoTime() - origin) / bucketNanos;
+      final int slot = (int) (epoch % buckets);
+      final long slotEpoch = epochs.get(slot);
+      if (slotEpoch != epoch && epochs.compareAndSet(slot, slotEpoch, epoch)) {
+        calls.set(slot, 0);
+        failures.set(slot, 0);
+        slow.set(slot, 0);
+      }
+      calls.incrementAndGet(slot);
+      if (failure) {
+        failures.incrementAndGet(slot);
+      }
+      if (isSlow) {
+        slow.incrementAndGet(slot);
+      }
+
+      final long[] totals = new long[3];
+      for (int i = 0; i < buckets; i++) {
+        if (epoch - epochs.get(i) < buckets) {
+          totals[0] += calls.get(i);
+          totals[1] += failures.get(i);
+          totals[2] += slow.get(i);
+        }
+      }
+      return totals;
+    }
+
+    void reset() {
+      for (int i = 0; i < buckets; i++) {
+        epochs.set(i, Long.MIN_VALUE / 2);
+      }
+    }
+  }
+
+  /** Observes statements executed on the connection, and completes probes on close. */
+  private class ObservedConnection implements InvocationHandler {
+    private final Connection connection;
+    private final Circuit probeOf;
+    private volatile boolean failed;
+    private boolean closed;
+
+    ObservedConnection(Connection connection, Circuit probeOf) {
+      this.connection = connection;
+      this.probeOf = probeOf;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "toString":
+          return "CircuitBreakingConnection[" + connection + "]";
+        case "close":
+          if (probeOf != null && !closed) {
+            closed = true;
+            onProbeCompleted(probeOf, failed);
+          }
+          break;
+        default:
+          break;
+      }
+
+      final Object result = invokeObserved(connection, method, args);
+      if (result instanceof Statement) {
+        return Proxy.newProxyInstance(
+            CircuitBreakingConnectionSupplier.class.getClassLoader(),
+            new Class<?>[] {method.getReturnType()},
+            (statementProxy, statementMethod, statementArgs) -> {
+              if (statementMethod.getName().startsWith("execute")) {
+                return invokeObserved(result, statementMethod, statementArgs);
+              }
+              if (statementMethod.getName().equals("getConnection")) {
+                return proxy;
+              }
+              return invokeTarget(result, statementMethod, statementArgs);
+            });
+      }
+      return result;
+    }
+
+    private Object invokeObserved(Object target, Method method, Object[] args) throws Throwable {
+      final boolean execution = method.getName().startsWith("execute");
+      final long started = System.nanoTime();
+      try {
+        final Object result = invokeTarget(target, method, args);
+        if (execution) {
+          onOutcome(false, System.nanoTime() - started);
+        }
+        return result;
+      } catch (SQLException e) {
+        if (isFailure(e)) {
+          failed = true;
+          onOutcome(true, System.nanoTime() - started);
+        } else if (execution) {
+          onOutcome(false, System.nanoTime() - started);
+        }
+        throw e;
+      }
+    }
+
+    private Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent identical queries, so that threads issuing the same query (same SQL,
+ * parameters and mapper) at the same time share a single execution and its result. Removes
+ * duplicate database work when many threads miss on the same hot key simultaneously.
+ *
+ * <p>Optionally combined with a small bounded local cache, where entries older than <code>
+ * fresh</code> but within <code>staleWhileRevalidate</code> are returned immediately while being
+ * refreshed in the background.
+ *
+ * <p>Since results are shared, they should be treated as immutable. Mappers are part of the key by
+ * identity, so use shared instances (e.g. {@link Mappers#SINGLE_INT}) rather than lambdas created
+ * per call. The <code>JdbcRunner</code> should not be a transactional runner, as executions are
+ * shared between threads. Threads that joined a failing execution get a {@link SQLRuntimeException}
+ * of their own, with the failure as cause.
+ */
+public class CoalescingQueryRunner {
+  private static final Logger LOG = LoggerFactory.getLogger(CoalescingQueryRunner.class);
+
+  private final JdbcRunner jdbcRunner;
+  private final Cache cache;
+  private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder executions = new LongAdder();
+  private final LongAdder coalesced = new LongAdder();
+  private final LongAdder cacheHits = new LongAdder();
+
+  public CoalescingQueryRunner(JdbcRunner jdbcRunner) {
+    this(jdbcRunner, null);
+  }
+
+  private CoalescingQueryRunner(JdbcRunner jdbcRunner, Cache cache) {
+    this.jdbcRunner = jdbcRunner;
+    this.cache = cache;
+  }
+
+  /**
+   * Returns a runner also caching results locally.
+   *
+   * @param maxEntries max number of cached results, least recently used are evicted
+   * @param fresh results younger than this are returned without querying
+   * @param staleWhileRevalidate results older than <code>fresh</code>, but within this additional
+   *     duration, are returned while being refreshed in the background using the executor
+   */
+  public CoalescingQueryRunner withCache(
+      int maxEntries, Duration fresh, Duration staleWhileRevalidate, Executor refreshExecutor) {
+    return new CoalescingQueryRunner(
+        jdbcRunner,
+        new Cache(maxEntries, fresh.toNanos(), staleWhileRevalidate.toNanos(), refreshExecutor));
+  }
+
+  public <T> T query(String query, List<?> parameters, ResultSetMapper<T> resultSetMapper) {
+    final Key key =
+        new Key(query, Collections.unmodifiableList(new ArrayList<>(parameters)), resultSetMapper);
+
+    if (cache != null) {
+      final CacheEntry cached = cache.get(key);
+      if (cached != null) {
+        final long age = System.nanoTime() - cached.loadedAtNanos;
+        if (age <= cache.freshNanos) {
+          cacheHits.increment();
+          return cast(cached.value);
+        }
+        if (age <= cache.freshNanos + cache.staleNanos) {
+          cacheHits.increment();
+          refreshInBackground(key);
+          return cast(cached.value);
+        }
+      }
+    }
+
+    return cast(load(key));
+  }
+
+  private Object load(Key key) {
+    final CompletableFuture<Object> execution = new CompletableFuture<>();
+    final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, execution);
+    if (existing != null) {
+      coalesced.increment();
+      return await(existing);
+    }
+    return execute(key, execution);
+  }
+
+  /** Executes the query on behalf of all callers joining the <code>execution</code>. */
+  private Object execute(Key key, CompletableFuture<Object> execution) {
+    try {
+      executions.increment();
+      final Object result = jdbcRunner.query(key.sql, key::setParameters, key.resultSetMapper);
+      if (cache != null) {
+        cache.put(key, new CacheEntry(result, System.nanoTime()));
+      }
+      execution.complete(result);
+      return result;
+    } catch (Throwable e) {
+      // also Errors, joined callers must never be left waiting
+      execution.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, execution);
+    }
+  }
+
+  private void refreshInBackground(Key key) {
+    // claim the key before submitting, so that concurrent stale hits submit a single refresh
+    final CompletableFuture<Object> execution = new CompletableFuture<>();
+    if (inFlight.putIfAbsent(key, execution) != null) {
+      return;
+    }
+    try {
+      cache.refreshExecutor.execute(
+          () -> {
+            try {
+              execute(key, execution);
+            } catch (RuntimeException e) {
+              LOG.debug("Background refresh failed, keeping stale result.", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      LOG.debug("Background refresh rejected, keeping stale result.", e);
+      inFlight.remove(key, execution);
+      // release callers that joined the refresh meanwhile
+      execution.completeExceptionally(
+          new SQLRuntimeException("Background refresh rejected.", e, true));
+    } catch (Throwable e) {
+      inFlight.remove(key, execution);
+      execution.completeExceptionally(e);
+      throw e;
+    }
+  }
+
+  private static Object await(CompletableFuture<Object> execution) {
+    try {
+      return execution.get();
+    } catch (ExecutionException e) {
+      // the failure is shared by all joined callers, give each an exception of its own
+      final Throwable cause = e.getCause();
+      throw new SQLRuntimeException("Coalesced query failed: " + cause.getMessage(), cause, true);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLRuntimeException("Interrupted while waiting for coalesced query.", e, true);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(Object value) {
+    return (T) value;
+  }
+
+  /** Number of queries actually executed. */
+  public long getExecutionCount() {
+    return executions.sum();
+  }
+
+  /** Number of queries that joined an already executing identical query. */
+  public long getCoalescedCount() {
+    return coalesced.sum();
+  }
+
+  public long getCacheHitCount() {
+    return cacheHits.sum();
+  }
+
+  private static final class Key {
+    private final String sql;
+    private final List<Object> parameters;
+    private final ResultSetMapper<?> resultSetMapper;
+    private final int hash;
+
+    Key(String sql, List<Object> parameters, ResultSetMapper<?> resultSetMapper) {
+      this.sql = sql;
+      this.parameters = parameters;
+      this.resultSetMapper = resultSetMapper;
+      this.hash = Objects.hash(sql, parameters, System.identityHashCode(resultSetMapper));
+    }
+
+    void setParameters(PreparedStatement ps) throws SQLException {
+      for (int i = 0; i < parameters.size(); i++) {
+        ps.setObject(i + 1, parameters.get(i));
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Key other = (Key) o;
+      return hash == other.hash
+          && resultSetMapper == other.resultSetMapper
+          && sql.equals(other.sql)
+          && parameters.equals(other.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class CacheEntry {
+    private final Object value;
+    private final long loadedAtNanos;
+
+    CacheEntry(Object value, long loadedAtNanos) {
+      this.value = value;
+      this.loadedAtNanos = loadedAtNanos;
+    }
+  }
+
+  private static final class Cache {
+    private final long freshNanos;
+    private final long staleNanos;
+    private final Executor refreshExecutor;
+    private final Map<Key, CacheEntry> entries;
+
+    Cache(int maxEntries, long freshNanos, long staleNanos, Executor refreshExecutor) {
+      this.freshNanos = freshNanos;
+      this.staleNanos = staleNanos;
+      this.refreshExecutor = refreshExecutor;
+      this.entries =
+          new LinkedHashMap<Key, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+              return size() > maxEntries;
+            }
+          };
+    }
+
+    synchronized CacheEntry get(Key key) {
+      return entries.get(key);
+    }
+
+    synchronized void put(Key key, CacheEntry entry) {
+      entries.put(key, entry);
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+/**
+ * Thrown when a write deferred using {@link JdbcRunner#executeDeferred(String,
+ * PreparedStatementSetter)} fails when flushed. The message names the SQL and the number of the
+ * write in the transaction, the cause is the failure of the flush. With debug logging enabled for
+ * <code>DeferredWrites</code>, the stack trace is the one of the <code>executeDeferred(..)</code>
+ * call.
+ */
+public class DeferredWriteFailed extends SQLRuntimeException {
+
+  private final String sql;
+
+  public DeferredWriteFailed(String sql, String message, Throwable cause) {
+    super(message, cause, true);
+    this.sql = sql;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes queued in a transaction by {@link JdbcRunner#executeDeferred(String,
+ * PreparedStatementSetter)}. Consecutive writes with the same SQL are executed as one JDBC batch,
+ * writes are never reordered.
+ *
+ * <p>Once a flush has failed, the writes queued after the failing one are discarded and every later
+ * flush, including the one before commit, fails as well. The transaction is effectively
+ * rollback-only, also if the application catches the failure and continues.
+ *
+ * <p>The stack of the queuing call is only captured when debug logging is enabled for this class,
+ * otherwise failures identify the write by its SQL and its number in the transaction.
+ */
+class DeferredWrites {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeferredWrites.class);
+
+  private List<DeferredWrite> queued = new ArrayList<>();
+  private int queuedCount;
+  private DeferredWriteFailed failure;
+
+  void add(JdbcRunner jdbcRunner, String sql, PreparedStatementSetter setParameters) {
+    final CallSite callSite = LOG.isDebugEnabled() ? new CallSite() : null;
+    queued.add(new DeferredWrite(jdbcRunner, sql, setParameters, ++queuedCount, callSite));
+  }
+
+  void flush() {
+    if (failure != null) {
+      queued.clear();
+      throw new DeferredWriteFailed(
+          failure.getSql(),
+          "Transaction is rollback-only, an earlier deferred write failed: " + failure.getSql(),
+          failure);
+    }
+    if (queued.isEmpty()) {
+      return;
+    }
+    // swap first, flushing executes statements which would otherwise flush recursively
+    final List<DeferredWrite> toFlush = queued;
+    queued = new ArrayList<>();
+
+    int from = 0;
+    while (from < toFlush.size()) {
+      final DeferredWrite first = toFlush.get(from);
+      int to = from + 1;
+      while (to < toFlush.size()
+          && toFlush.get(to).sql.equals(first.sql)
+          && toFlush.get(to).jdbcRunner == first.jdbcRunner) {
+        to++;
+      }
+      final List<DeferredWrite> batch = toFlush.subList(from, to);
+      try {
+        if (batch.size() == 1) {
+          first.jdbcRunner.execute(first.sql, first.setParameters);
+        } else {
+          first.jdbcRunner.executeBatch(
+              first.sql, batch, (write, ps) -> write.setParameters.setParameters(ps));
+        }
+      } catch (RuntimeException e) {
+        failure = failed(batch, e);
+        throw failure;
+      }
+      from = to;
+    }
+  }
+
+  private static DeferredWriteFailed failed(List<DeferredWrite> batch, RuntimeException e) {
+    final int index = failedIndex(batch.size(), e);
+    final DeferredWrite write = batch.get(index);
+    final DeferredWriteFailed failed =
+        new DeferredWriteFailed(
+            write.sql,
+            "Deferred write #"
+                + write.number
+                + " failed: "
+                + write.sql
+                + " ("
+                + e.getMessage()
+                + ")",
+            e);
+    if (write.callSite != null) {
+      // point at where the write was queued rather than where it was flushed
+      failed.setStackTrace(callerFrames(write.callSite.getStackTrace()));
+    }
+    return failed;
+  }
+
+  private static StackTraceElement[] callerFrames(StackTraceElement[] stackTrace) {
+    int first = 0;
+    while (first < stackTrace.length - 1
+        && (stackTrace[first].getClassName().equals(DeferredWrites.class.getName())
+            || stackTrace[first].getClassName().equals(JdbcRunner.class.getName()))) {
+      first++;
+    }
+    return Arrays.copyOfRange(stackTrace, first, stackTrace.length);
+  }
+
+  private static int failedIndex(int batchSize, Throwable e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof BatchUpdateException) {
+        final int[] updateCounts = ((BatchUpdateException) cause).getUpdateCounts();
+        if (updateCounts == null) {
+          return 0;
+        }
+        for (int i = 0; i < updateCounts.length; i++) {
+          if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+            return i;
+          }
+        }
+        // drivers stopping at the first failure only report counts for the preceding statements
+        return Math.min(updateCounts.length, batchSize - 1);
+      }
+    }
+    return 0;
+  }
+
+  private static class DeferredWrite {
+    private final JdbcRunner jdbcRunner;
+    private final String sql;
+    private final PreparedStatementSetter setParameters;
+    private final int number;
+    private final CallSite callSite;
+
+    DeferredWrite(
+        JdbcRunner jdbcRunner,
+        String sql,
+        PreparedStatementSetter setParameters,
+        int number,
+        CallSite callSite) {
+      this.jdbcRunner = jdbcRunner;
+      this.sql = sql;
+      this.setParameters = setParameters;
+      this.number = number;
+      this.callSite = callSite;
+    }
+  }
+
+  /** Captures the stack of the call queuing a write, used when reporting its failure. */
+  private static class CallSite extends Throwable {
+    CallSite() {
+      super(null, null, false, true);
+    }
+  }
+}
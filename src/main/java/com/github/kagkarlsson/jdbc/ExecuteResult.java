@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.SQLException;
+
+/**
+ * Outcome of {@link JdbcRunner#tryExecute(String, PreparedStatementSetter)}, letting callers handle
+ * expected failures such as duplicate keys without exceptions being thrown.
+ */
+public final class ExecuteResult {
+
+  private final int updateCount;
+  private final SQLErrorCategory errorCategory;
+  private final SQLException cause;
+
+  private ExecuteResult(int updateCount, SQLErrorCategory errorCategory, SQLException cause) {
+    this.updateCount = updateCount;
+    this.errorCategory = errorCategory;
+    this.cause = cause;
+  }
+
+  static ExecuteResult success(int updateCount) {
+    return new ExecuteResult(updateCount, null, null);
+  }
+
+  static ExecuteResult failure(SQLErrorCategory errorCategory, SQLException cause) {
+    return new ExecuteResult(-1, errorCategory, cause);
+  }
+
+  public boolean isSuccess() {
+    return errorCategory == null;
+  }
+
+  public boolean is(SQLErrorCategory category) {
+    return errorCategory == category;
+  }
+
+  /**
+   * @return the update count, or -1 if the statement failed
+   */
+  public int getUpdateCount() {
+    return updateCount;
+  }
+
+  /**
+   * @return the category of the failure, or null if the statement succeeded
+   */
+  public SQLErrorCategory getErrorCategory() {
+    return errorCategory;
+  }
+
+  /**
+   * @return the exception from the driver, or null if the statement succeeded
+   */
+  public SQLException getCause() {
+    return cause;
+  }
+
+  @Override
+  public String toString() {
+    return isSuccess()
+        ? "ExecuteResult{updateCount=" + updateCount + "}"
+        : "ExecuteResult{" + errorCategory + ", " + cause + "}";
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.util.Map;
+
+/**
+ * Bookkeeping for a single statement executed by {@link JdbcRunner}. Tracks when each phase
+ * finished, so that observers (e.g. {@link SlowQueryLog}) can report where the time went.
+ */
+class Execution {
+  // timestamps are System.nanoTime(), 0 means the phase has not been reached (or is not timed)
+
+  private final String sql;
+  private final boolean timed;
+  private final long startedNanos;
+  private long connectedNanos;
+  private long preparedNanos;
+  private long boundNanos;
+  private long executedNanos;
+  private long mappedNanos;
+  private long finishedNanos;
+  private long rows = -1;
+  private int maxRows;
+  private long allocatedAtStart = -1;
+  private Map<Integer, Object> parameters;
+  private RuntimeException failure;
+  private Tracer.Span span;
+
+  /**
+   * @param timed false to skip taking timestamps when no feature consumes them
+   */
+  Execution(String sql, boolean timed) {
+    this.sql = sql;
+    this.timed = timed;
+    this.startedNanos = now();
+  }
+
+  void connected() {
+    connectedNanos = now();
+  }
+
+  void prepared() {
+    preparedNanos = now();
+  }
+
+  void bound() {
+    boundNanos = now();
+  }
+
+  void executed() {
+    executedNanos = now();
+  }
+
+  /** The result has been mapped (or update counts read). Commit and release follow. */
+  void mapped() {
+    mappedNanos = now();
+  }
+
+  void finished() {
+    finishedNanos = now();
+  }
+
+  private long now() {
+    return timed ? System.nanoTime() : 0;
+  }
+
+  void failed(RuntimeException failure) {
+    this.failure = failure;
+  }
+
+  void setRows(long rows) {
+    this.rows = rows;
+  }
+
+  void allocationStart(long allocatedBytes) {
+    this.allocatedAtStart = allocatedBytes;
+  }
+
+  void limitRows(int maxRows) {
+    this.maxRows = maxRows;
+  }
+
+  void traced(Tracer.Span span) {
+    this.span = span;
+  }
+
+  void recordParameters(Map<Integer, Object> parameters) {
+    this.parameters = parameters;
+  }
+
+  long getStartedNanos() {
+    return startedNanos;
+  }
+
+  String getSql() {
+    return sql;
+  }
+
+  long getAllocatedAtStart() {
+    return allocatedAtStart;
+  }
+
+  int getMaxRows() {
+    return maxRows;
+  }
+
+  long getRows() {
+    return rows;
+  }
+
+  Map<Integer, Object> getParameters() {
+    return parameters;
+  }
+
+  RuntimeException getFailure() {
+    return failure;
+  }
+
+  Tracer.Span getSpan() {
+    return span;
+  }
+
+  long getTotalNanos() {
+    return finishedNanos - startedNanos;
+  }
+
+  long getAcquireNanos() {
+    return phase(startedNanos, connectedNanos);
+  }
+
+  long getPrepareNanos() {
+    return phase(connectedNanos, preparedNanos);
+  }
+
+  long getBindNanos() {
+    return phase(preparedNanos, boundNanos);
+  }
+
+  long getExecuteNanos() {
+    return phase(boundNanos, executedNanos);
+  }
+
+  long getMapNanos() {
+    return phase(executedNanos, mappedNanos);
+  }
+
+  /** Committing (when not in a transaction) and closing statement and connection. */
+  long getReleaseNanos() {
+    return phase(mappedNanos, finishedNanos);
+  }
+
+  private static long phase(long from, long to) {
+    // a phase that was never reached (e.g. because of an earlier failure) has no duration
+    return from == 0 || to == 0 ? 0 : to - from;
+  }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the fetch size of each query executed by a {@link JdbcRunner}, enabled using {@link
+ * JdbcRunner#withFetchSizeTuner}. Tracks, per SQL, the approximate width of a row (estimated from
+ * the column types, like {@link ResultLimits}) and how many rows executions return, and sets a
+ * fetch size targeting a number of bytes per round trip: large enough to avoid many round trips for
+ * big results, small enough not to buffer too much at once, and never larger than what the
+ * statement usually returns.
+ *
+ * <p>The expected row count follows the largest recent result, decaying when results shrink. Row
+ * counts are known for queries mapped by a <code>RowMapper</code>; for queries mapped by a <code>
+ * ResultSetMapper</code> only the row width is used.
+ *
+ * <p>Statements are tracked in an LRU-table, so memory is bounded by the capacity. Statements not
+ * yet seen (and statements not returning results) run with the driver's default fetch size.
+ */
+public class FetchSizeTuner {
+  private static final double DECAY = 0.75;
+
+  private final int capacity;
+  private final long targetBytesPerFetch;
+  private final int minFetchSize;
+  private final int maxFetchSize;
+  private final Map<String, Stats> tracked;
+
+  /**
+   * @param capacity max number of distinct statements tracked
+   * @param targetBytesPerFetch approximate size of the rows fetched in one round trip
+   */
+  public FetchSizeTuner(int capacity, long targetBytesPerFetch) {
+    this(capacity, targetBytesPerFetch, 10, 10_000);
+  }
+
+  private FetchSizeTuner(
+      int capacity, long targetBytesPerFetch, int minFetchSize, int maxFetchSize) {
+    if (capacity < 1 || targetBytesPerFetch <= 0) {
+      throw new IllegalArgumentException("capacity and targetBytesPerFetch must be positive.");
+    }
+    if (minFetchSize < 1 || minFetchSize > maxFetchSize) {
+      throw new IllegalArgumentException("Requires 0 < minFetchSize <= maxFetchSize.");
+    }
+    this.capacity = capacity;
+    this.targetBytesPerFetch = targetBytesPerFetch;
+    this.minFetchSize = minFetchSize;
+    this.maxFetchSize = maxFetchSize;
+    this.tracked =
+        new LinkedHashMap<String, Stats>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, Stats> eldest) {
+            return size() > FetchSizeTuner.this.capacity;
+          }
+        };
+  }
+
+  /** Bounds of the chosen fetch sizes. Defaults to 10 and 10 000. */
+  public FetchSizeTuner withBounds(int minFetchSize, int maxFetchSize) {
+    return new FetchSizeTuner(capacity, targetBytesPerFetch, minFetchSize, maxFetchSize);
+  }
+
+  /**
+   * @return the fetch size to use, or 0 to keep the driver's default
+   */
+  int fetchSizeFor(Execution execution) {
+    final int fetchSize;
+    synchronized (tracked) {
+      final Stats stats = tracked.get(execution.getSql());
+      if (stats == null || stats.rowBytes <= 0) {
+        return 0;
+      }
+      fetchSize = stats.fetchSize;
+    }
+    return execution.getMaxRows() > 0 ? Math.min(fetchSize, execution.getMaxRows()) : fetchSize;
+  }
+
+  /** Called when the ResultSet of the execution is opened. */
+  void onResultSet(Execution execution, ResultSet rs) throws SQLException {
+    synchronized (tracked) {
+      final Stats stats = tracked.get(execution.getSql());
+      if (stats != null && stats.rowBytes > 0) {
+        return;
+      }
+    }
+    // outside the lock, metadata might be fetched from the database
+    final long rowBytes = ResultLimits.estimateFromColumns(rs.getMetaData());
+    synchronized (tracked) {
+      stats(execution.getSql()).rowBytes = rowBytes;
+    }
+  }
+
+  /** Called when the execution has finished. */
+  void record(Execution execution) {
+    if (execution.getFailure() != null) {
+      return;
+    }
+    synchronized (tracked) {
+      final Stats stats = tracked.get(execution.getSql());
+      if (stats == null || stats.rowBytes <= 0) {
+        return; // not a query
+      }
+      stats.executions++;
+      if (execution.getRows() >= 0) {
+        stats.expectedRows = Math.max(execution.getRows(), (long) (stats.expectedRows * DECAY));
+      }
+      stats.fetchSize = choose(stats);
+    }
+  }
+
+  private Stats stats(String sql) {
+    Stats stats = tracked.get(sql);
+    if (stats == null) {
+      stats = new Stats(sql);
+      tracked.put(sql, stats);
+    }
+    return stats;
+  }
+
+  private int choose(Stats stats) {
+    long fetchSize = Math.max(1, targetBytesPerFetch / stats.rowBytes);
+    if (stats.expectedRows >= 0) {
+      // one more than expected, so that the end of the result is seen in the same round trip
+      fetchSize = Math.min(fetchSize, stats.expectedRows + 1);
+    }
+    return (int) Math.max(minFetchSize, Math.min(maxFetchSize, fetchSize));
+  }
+
+  /** Tracked statements, most recently used first. */
+  public List<Tuning> getTunings() {
+    final List<Tuning> tunings = new ArrayList<>();
+    synchronized (tracked) {
+      for (Stats stats : tracked.values()) {
+        tunings.add(
+            0,
+            new Tuning(
+                stats.sql, stats.executions, stats.expectedRows, stats.rowBytes, stats.fetchSize));
+      }
+    }
+    return tunings;
+  }
+
+  public void reset() {
+    synchronized (tracked) {
+      tracked.clear();
+    }
+  }
+
+  private static class Stats {
+    private final String sql;
+    private long executions;
+    private long expectedRows = -1;
+    private long rowBytes;
+    private int fetchSize;
+
+    Stats(String sql) {
+      this.sql = sql;
+    }
+  }
+
+  /** The fetch size chosen for one SQL statement, and what it was based on. */
+  public static class Tuning {
+    private final String sql;
+    private final long executions;
+    private final long expectedRows;
+    private final long rowBytes;
+    private final int fetchSize;
+
+    Tuning(String sql, long executions, long expectedRows, long rowBytes, int fetchSize) {
+      this.sql = sql;
+      this.executions = executions;
+      this.expectedRows = expectedRows;
+      this.rowBytes = rowBytes;
+      this.fetchSize = fetchSize;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public long getExecutions() {
+      return executions;
+    }
+
+    /** Decaying max of rows returned, or -1 if unknown. */
+    public long getExpectedRows() {
+      return expectedRows;
+    }
+
+    /** Estimated bytes per row. */
+    public long getRowBytes() {
+      return rowBytes;
+    }
+
+    /** Fetch size used for the next execution. */
+    public int getFetchSize() {
+      return fetchSize;
+    }
+
+    @Override
+    public String toString() {
+      return "fetchSize="
+          + fetchSize
+          + " rowBytes="
+          + rowBytes
+          + " expectedRows="
+          + expectedRows
+          + " executions="
+          + executions
+          + " sql="
+          + sql;
+    }
+  }
+}
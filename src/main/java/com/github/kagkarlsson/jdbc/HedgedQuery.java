@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs read-only queries with a hedge: if the query has not completed on the primary within a
+ * delay, the same query is issued on the secondary (e.g. another replica), the first result is
+ * returned and the slower statement is cancelled using <code>Statement.cancel()</code>. Cuts tail
+ * latency caused by a single stalled database. The slower attempt's thread is not interrupted,
+ * since drivers may react by closing the connection; an attempt not yet executing fails before
+ * execution.
+ *
+ * <pre>
+ * HedgedQuery hedged = new HedgedQuery(replica1Runner, replica2Runner, executor)
+ *     .withHedgeDelay(0.95, Duration.ofMillis(2), Duration.ofMillis(500))
+ *     .withHedgeBudget(0.05, 10);
+ * List&lt;Row&gt; rows = hedged.query("select * from accounts where owner = ?", setter, rowMapper);
+ * </pre>
+ *
+ * <p>The delay is the configured percentile of recent latencies of the SQL, as tracked in a per-SQL
+ * latency histogram (bounded to <code>capacity</code> statements, least recently used evicted).
+ * Until enough latencies are known, the max delay is used. The latency recorded is the one of the
+ * winning attempt, measured from its own start, so that the hedge delay does not feed back into the
+ * delay. Cancelled attempts are censored, their latency is unknown and not recorded. Hedges are
+ * limited by a token bucket: each query earns <code>ratio</code> tokens, each hedge costs one, so
+ * hedges are at most roughly <code>ratio</code> of the queries plus the burst.
+ *
+ * <p>Only use for idempotent reads. The runners must not be transactional runners, since the
+ * attempts run on separate connections and threads from the executor.
+ */
+public class HedgedQuery {
+  private static final int MIN_SAMPLES = 20;
+
+  private final JdbcRunner primary;
+  private final JdbcRunner secondary;
+  private final ExecutorService executor;
+  private final double percentile;
+  private final long minDelayNanos;
+  private final long maxDelayNanos;
+  private final HedgeBudget budget;
+  private final int capacity;
+  private final Map<String, LatencyHistogram> histograms;
+  private final AtomicLong queries = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+  private final AtomicLong hedgeWins = new AtomicLong();
+
+  public HedgedQuery(JdbcRunner primary, JdbcRunner secondary, ExecutorService executor) {
+    this(
+        primary,
+        secondary,
+        executor,
+        0.95,
+        TimeUnit.MILLISECONDS.toNanos(1),
+        TimeUnit.SECONDS.toNanos(1),
+        0.05,
+        10,
+        1000);
+  }
+
+  private HedgedQuery(
+      JdbcRunner primary,
+      JdbcRunner secondary,
+      ExecutorService executor,
+      double percentile,
+      long minDelayNanos,
+      long maxDelayNanos,
+      double budgetRatio,
+      int budgetBurst,
+      int capacity) {
+    this.primary = primary;
+    this.secondary = secondary;
+    this.executor = executor;
+    this.percentile = percentile;
+    this.minDelayNanos = minDelayNanos;
+    this.maxDelayNanos = maxDelayNanos;
+    this.budget = new HedgeBudget(budgetRatio, budgetBurst);
+    this.capacity = capacity;
+    this.histograms =
+        new LinkedHashMap<String, LatencyHistogram>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, LatencyHistogram> eldest) {
+            return size() > capacity;
+          }
+        };
+  }
+
+  /**
+   * Hedge after the <code>percentile</code> (e.g. 0.95) latency of the SQL, bounded by <code>
+   * minDelay</code> and <code>maxDelay</code>. Defaults to 0.95, 1ms and 1s.
+   */
+  public HedgedQuery withHedgeDelay(double percentile, Duration minDelay, Duration maxDelay) {
+    return new HedgedQuery(
+        primary,
+        secondary,
+        executor,
+        percentile,
+        minDelay.toNanos(),
+        maxDelay.toNanos(),
+        budget.ratio,
+        budget.burst,
+        capacity);
+  }
+
+  /**
+   * Allow hedging at most <code>ratio</code> (e.g. 0.05) of the queries, with bursts of at most
+   * <code>burst</code> hedges. Defaults to 0.05 and 10.
+   */
+  public HedgedQuery withHedgeBudget(double ratio, int burst) {
+    return new HedgedQuery(
+        primary,
+        secondary,
+        executor,
+        percentile,
+        minDelayNanos,
+        maxDelayNanos,
+        ratio,
+        burst,
+        capacity);
+  }
+
+  /** Max number of distinct SQL statements with tracked latencies. Defaults to 1000. */
+  public HedgedQuery withCapacity(int capacity) {
+    return new HedgedQuery(
+        primary,
+        secondary,
+        executor,
+        percentile,
+        minDelayNanos,
+        maxDelayNanos,
+        budget.ratio,
+        budget.burst,
+        capacity);
+  }
+
+  public <T> List<T> query(
+      String query, PreparedStatementSetter setParameters, RowMapper<T> rowMapper) {
+    return hedged(query, setParameters, (runner, setter) -> runner.query(query, setter, rowMapper));
+  }
+
+  public <T> T query(
+      String query, PreparedStatementSetter setParameters, ResultSetMapper<T> resultSetMapper) {
+    return hedged(
+        query, setParameters, (runner, setter) -> runner.query(query, setter, resultSetMapper));
+  }
+
+  private <T> T hedged(String query, PreparedStatementSetter setParameters, Attempt<T> attempt) {
+    queries.incrementAndGet();
+    budget.earn();
+    final CompletionService<T> completion = new ExecutorCompletionService<>(executor);
+    final CancellableStatement[] statements = new CancellableStatement[2];
+    // written by the attempts, visible here once their future has completed
+    final long[] attemptNanos = new long[2];
+    final List<Future<T>> futures = new ArrayList<>(2);
+
+    try {
+      futures.add(submit(completion, primary, setParameters, attempt, statements, attemptNanos, 0));
+      Future<T> done = completion.poll(hedgeDelayNanos(query), TimeUnit.NANOSECONDS);
+      if (done == null && budget.trySpend()) {
+        hedges.incrementAndGet();
+        futures.add(
+            submit(completion, secondary, setParameters, attempt, statements, attemptNanos, 1));
+      }
+      if (done == null) {
+        done = completion.take();
+      }
+
+      T result;
+      try {
+        result = done.get();
+      } catch (ExecutionException e) {
+        if (futures.size() < 2) {
+          throw e;
+        }
+        // one attempt failed, the other might still succeed
+        try {
+          done = completion.take();
+          result = done.get();
+        } catch (ExecutionException second) {
+          e.getCause().addSuppressed(second.getCause());
+          throw e;
+        }
+      }
+
+      final int winner = futures.indexOf(done);
+      if (winner == 1) {
+        hedgeWins.incrementAndGet();
+      }
+      record(query, attemptNanos[winner]);
+      return result;
+
+    } catch (ExecutionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SQLRuntimeException("Query failed.", cause, true);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLRuntimeException("Interrupted while waiting for query.", e, true);
+    } finally {
+      cancelAll(statements, futures);
+    }
+  }
+
+  private <T> Future<T> submit(
+      CompletionService<T> completion,
+      JdbcRunner runner,
+      PreparedStatementSetter setParameters,
+      Attempt<T> attempt,
+      CancellableStatement[] statements,
+      long[] attemptNanos,
+      int index) {
+    final CancellableStatement statement = new CancellableStatement();
+    statements[index] = statement;
+    return completion.submit(
+        () -> {
+          final long startedNanos = System.nanoTime();
+          try {
+            final T result = attempt.run(runner, statement.capture(setParameters));
+            attemptNanos[index] = System.nanoTime() - startedNanos;
+            return result;
+          } finally {
+            statement.done();
+          }
+        });
+  }
+
+  private static void cancelAll(
+      CancellableStatement[] statements, List<? extends Future<?>> futures) {
+    // no-op for completed attempts
+    for (CancellableStatement statement : statements) {
+      if (statement != null) {
+        statement.cancel();
+      }
+    }
+    for (Future<?> future : futures) {
+      // not interrupting, a driver interrupted mid-IO may mark the connection broken
+      future.cancel(false);
+    }
+  }
+
+  private long hedgeDelayNanos(String query) {
+    final long latency;
+    synchronized (histograms) {
+      final LatencyHistogram histogram = histograms.get(query);
+      if (histogram == null || histogram.count() < MIN_SAMPLES) {
+        return maxDelayNanos;
+      }
+      latency = histogram.percentile(percentile);
+    }
+    return Math.max(minDelayNanos, Math.min(maxDelayNanos, latency));
+  }
+
+  private void record(String query, long latencyNanos) {
+    synchronized (histograms) {
+      histograms.computeIfAbsent(query, q -> new LatencyHistogram()).record(latencyNanos);
+    }
+  }
+
+  public long getQueryCount() {
+    return queries.get();
+  }
+
+  /** Number of queries issued on the secondary as well. */
+  public long getHedgeCount() {
+    return hedges.get();
+  }
+
+  /** Number of hedged queries where the secondary answered first. */
+  public long getHedgeWinCount() {
+    return hedgeWins.get();
+  }
+
+  private interface Attempt<T> {
+    T run(JdbcRunner runner, PreparedStatementSetter setParameters);
+  }
+
+  /** Token bucket limiting the extra load caused by hedging. */
+  private static class HedgeBudget {
+    private final double ratio;
+    private final int burst;
+    private double tokens;
+
+    HedgeBudget(double ratio, int burst) {
+      this.ratio = ratio;
+      this.burst = burst;
+      this.tokens = burst;
+    }
+
+    synchronized void earn() {
+      tokens = Math.min(burst, tokens + ratio);
+    }
+
+    synchronized boolean trySpend() {
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+
+  /**
+   * Log-scale histogram with 4 buckets per doubling, from 1µs to ~1h. Counts are halved
+   * periodically, so that percentiles follow recent latencies.
+   */
+  static class LatencyHistogram {
+    private static final int BUCKETS_PER_DOUBLING = 4;
+    private static final int BUCKETS = 32 * BUCKETS_PER_DOUBLING;
+    private static final long DECAY_AFTER = 1000;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+
+    void record(long nanos) {
+      counts[bucket(nanos)]++;
+      if (++count >= DECAY_AFTER) {
+        count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+          counts[i] /= 2;
+          count += counts[i];
+        }
+      }
+    }
+
+    long count() {
+      return count;
+    }
+
+    /**
+     * @return upper bound of the bucket holding the percentile
+     */
+    long percentile(double percentile) {
+      final long rank = (long) Math.ceil(percentile * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank && seen > 0) {
+          return upperBoundNanos(i);
+        }
+      }
+      return upperBoundNanos(BUCKETS - 1);
+    }
+
+    private static int bucket(long nanos) {
+      final double micros = Math.max(1, nanos / 1000.0);
+      final int bucket = (int) (Math.log(micros) / Math.log(2) * BUCKETS_PER_DOUBLING);
+      return Math.min(BUCKETS - 1, bucket);
+    }
+
+    private static long upperBoundNanos(int bucket) {
+      return (long) (Math.pow(2, (bucket + 1) / (double) BUCKETS_PER_DOUBLING) * 1000);
+    }
+  }
+}
@@ -19,4 +19,8 @@ public class IntegrityConstraintViolation extends SQLRuntimeException {
   public IntegrityConstraintViolation(SQLException ex) {
     super(ex);
   }
+
+  protected IntegrityConstraintViolation(SQLException ex, boolean writableStackTrace) {
+    super(String.valueOf(ex), ex, writableStackTrace);
+  }
 }
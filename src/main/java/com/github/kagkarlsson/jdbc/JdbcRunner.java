@@ -16,6 +16,8 @@ package com.github.kagkarlsson.jdbc;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
 import java.util.function.Function;
 import javax.sql.DataSource;
 import org.slf4j.Logger;
@@ -25,6 +27,7 @@ public class JdbcRunner {
   private static final Logger LOG = LoggerFactory.getLogger(JdbcRunner.class);
   private final ConnectionSupplier connectionSupplier;
   private final TransactionContextProvider transactionContextProvider;
+  private final RunnerSettings settings;
 
   public JdbcRunner(DataSource dataSource) {
     this(dataSource, false);
@@ -48,8 +51,125 @@ public class JdbcRunner {
   public JdbcRunner(
       ConnectionSupplier connectionSupplier,
       TransactionContextProvider transactionContextProvider) {
+    this(connectionSupplier, transactionContextProvider, RunnerSettings.DEFAULTS);
+  }
+
+  private JdbcRunner(
+      ConnectionSupplier connectionSupplier,
+      TransactionContextProvider transactionContextProvider,
+      RunnerSettings settings) {
     this.connectionSupplier = connectionSupplier;
     this.transactionContextProvider = transactionContextProvider;
+    this.settings = settings;
+  }
+
+  /**
+   * Returns a JdbcRunner logging statements slower than the threshold of the <code>SlowQueryLog
+   * </code>. This runner is not modified.
+   */
+  public JdbcRunner withSlowQueryLog(SlowQueryLog slowQueryLog) {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withSlowQueryLog(slowQueryLog));
+  }
+
+  /**
+   * Returns a JdbcRunner where <code>inTransaction(..)</code> acquires the connection on first use
+   * instead of up front. Transactions not touching the database will neither occupy a pooled
+   * connection nor commit. This runner is not modified.
+   */
+  public JdbcRunner withLazyTransactions() {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withLazyTransactions(true));
+  }
+
+  /**
+   * Returns a JdbcRunner that does not capture stack traces for exceptions signalling expected
+   * outcomes, such as {@link Mappers.SingleResultExpected} from <code>queryForObject(..)</code> or
+   * a {@link Mappers.SingleResultMapper}, and integrity constraint violations. This runner is not
+   * modified.
+   */
+  public JdbcRunner withLightweightExceptions() {
+    return new JdbcRunner(
+        connectionSupplier,
+        transactionContextProvider,
+        settings
+            .withLightweightExceptions(true)
+            .withExceptionTranslator(
+                settings
+                    .getExceptionTranslator()
+                    .withLightweight(
+                        SQLErrorCategory.DUPLICATE_KEY,
+                        SQLErrorCategory.FOREIGN_KEY_VIOLATION,
+                        SQLErrorCategory.INTEGRITY_CONSTRAINT)));
+  }
+
+  /**
+   * Returns a JdbcRunner translating <code>SQLException</code> using the given translator. This
+   * runner is not modified.
+   */
+  public JdbcRunner withExceptionTranslator(SQLExceptionTranslator exceptionTranslator) {
+    return new JdbcRunner(
+        connectionSupplier,
+        transactionContextProvider,
+        settings.withExceptionTranslator(exceptionTranslator));
+  }
+
+  /**
+   * Returns a JdbcRunner limiting concurrent executions per statement-class, as configured by the
+   * <code>Bulkheads</code>. This runner is not modified.
+   */
+  public JdbcRunner withBulkheads(Bulkheads bulkheads) {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withBulkheads(bulkheads));
+  }
+
+  /**
+   * Returns a JdbcRunner tagging all its statements with the statement-class, overriding any
+   * pattern-based classification of {@link Bulkheads}. This runner is not modified.
+   */
+  public JdbcRunner withStatementClass(String statementClass) {
+    return new JdbcRunner(
+        connectionSupplier,
+        transactionContextProvider,
+        settings.withStatementClass(statementClass));
+  }
+
+  /**
+   * Returns a JdbcRunner enforcing the <code>ResultLimits</code> when reading query results. This
+   * runner is not modified.
+   */
+  public JdbcRunner withResultLimits(ResultLimits resultLimits) {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withResultLimits(resultLimits));
+  }
+
+  /**
+   * Returns a JdbcRunner recording the cost of each statement in the <code>StatementProfiler
+   * </code>. This runner is not modified.
+   */
+  public JdbcRunner withProfiler(StatementProfiler profiler) {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withProfiler(profiler));
+  }
+
+  /**
+   * Returns a JdbcRunner letting the <code>FetchSizeTuner</code> pick the fetch size of each query
+   * from the rows and row widths previously observed for it. This runner is not modified.
+   */
+  public JdbcRunner withFetchSizeTuner(FetchSizeTuner fetchSizeTuner) {
+    return new JdbcRunner(
+        connectionSupplier,
+        transactionContextProvider,
+        settings.withFetchSizeTuner(fetchSizeTuner));
+  }
+
+  /**
+   * Returns a JdbcRunner opening spans for transactions and statements. Statement spans report the
+   * SQL with literals removed, row count and time spent in each phase. This runner is not modified.
+   */
+  public JdbcRunner withTracer(Tracer tracer) {
+    return new JdbcRunner(
+        connectionSupplier, transactionContextProvider, settings.withTracer(tracer));
   }
 
   /**
@@ -63,15 +183,82 @@ public class JdbcRunner {
    * @param <T>
    */
   public <T> T inTransaction(Function<JdbcRunner, T> doInTransaction) {
-    return new TransactionManager(connectionSupplier, transactionContextProvider)
+    return inTransaction(TransactionOptions.DEFAULT, doInTransaction);
+  }
+
+  /**
+   * Like {@link #inTransaction(Function)}, with read-only mode, isolation level, timeout and label
+   * as given by the options.
+   */
+  public <T> T inTransaction(TransactionOptions options, Function<JdbcRunner, T> doInTransaction) {
+    return new TransactionManager(
+            connectionSupplier,
+            transactionContextProvider,
+            settings.isLazyTransactions(),
+            settings.getTracer() != null ? settings.getTracer() : Tracer.NOOP)
         .inTransaction(
+            options,
             c -> {
               final JdbcRunner jdbc =
-                  new JdbcRunner(new ExternallyManagedConnection(c), transactionContextProvider);
+                  new JdbcRunner(
+                      new ExternallyManagedConnection(c), transactionContextProvider, settings);
               return doInTransaction.apply(jdbc);
             });
   }
 
+  /**
+   * Runs the block with a JdbcRunner using a single connection for all its statements, saving the
+   * pool checkout per statement. Unlike {@link #inTransaction(Function)}, statements keep the
+   * auto-commit semantics of this runner. Prepared statements are reused for repeated SQL within
+   * the session. The session runner must only be used by the calling thread, and not after the
+   * block returns.
+   */
+  public <T> T inSession(Function<JdbcRunner, T> doInSession) {
+    if (connectionSupplier.isExternallyManagedConnection()) {
+      // already using a single connection
+      return doInSession.apply(this);
+    }
+    final SessionConnectionSupplier session =
+        new SessionConnectionSupplier(connectionSupplier, openConnection());
+    try {
+      return doInSession.apply(new JdbcRunner(session, transactionContextProvider, settings));
+    } finally {
+      session.close();
+    }
+  }
+
+  /**
+   * Runs the callback after the current transaction commits, or immediately if there is no ongoing
+   * transaction (i.e. statements are auto-committed). Useful for notifying e.g. an {@link
+   * AdaptivePoller} in the same JVM about new rows.
+   */
+  public void afterCommit(Runnable callback) {
+    final TransactionContext transactionContext = transactionContextProvider.getCurrent();
+    if (transactionContext != null) {
+      transactionContext.afterCommit(callback);
+    } else {
+      callback.run();
+    }
+  }
+
+  /**
+   * Queues the statement, when in a transaction, to be executed right before commit or before the
+   * next other statement in the transaction, whichever comes first. Consecutive deferred statements
+   * with the same SQL are executed as one JDBC batch, reducing round trips for write-heavy
+   * transactions. Failures are thrown as {@link DeferredWriteFailed}, identifying the failing
+   * write, and pointing at the originating call when debug logging is enabled. After a failure the
+   * transaction can only roll back, later statements and the commit fail too. Outside transactions,
+   * the statement is executed immediately.
+   */
+  public void executeDeferred(String query, PreparedStatementSetter setParameters) {
+    final TransactionContext transactionContext = currentManagedTransaction();
+    if (transactionContext != null) {
+      transactionContext.deferredWrites().add(this, query, setParameters);
+    } else {
+      execute(query, setParameters);
+    }
+  }
+
   public int execute(String query, PreparedStatementSetter setParameters) {
     return execute(
         query,
@@ -80,13 +267,46 @@ public class JdbcRunner {
         new AfterExecution.ReturnStatementUpdateCount<>());
   }
 
+  /**
+   * Like <code>execute(..)</code>, but failures with a known {@link SQLErrorCategory} (e.g.
+   * duplicate key) are returned as a result instead of thrown. Failures of category <code>OTHER
+   * </code> are still thrown.
+   */
+  public ExecuteResult tryExecute(String query, PreparedStatementSetter setParameters) {
+    return execute(
+        query,
+        setParameters,
+        ps -> {
+          try {
+            ps.execute();
+            return ExecuteResult.success(ps.getUpdateCount());
+          } catch (SQLException e) {
+            final SQLErrorCategory category = SQLErrorCategory.classify(e);
+            if (category == SQLErrorCategory.OTHER) {
+              throw e;
+            }
+            return ExecuteResult.failure(category, e);
+          }
+        },
+        (ps, result, execution) -> {
+          if (result.isSuccess()) {
+            execution.setRows(result.getUpdateCount());
+          }
+          return result;
+        });
+  }
+
   public <T> List<T> query(
       String query, PreparedStatementSetter setParameters, RowMapper<T> rowMapper) {
+    final Execution execution = newExecution(query);
+    if (settings.getResultLimits() != null) {
+      execution.limitRows(settings.getResultLimits().statementMaxRows());
+    }
     return execute(
-        query,
         setParameters,
         PreparedStatementExecutor.EXECUTE,
-        (p, executeResult) -> mapResultSet(p, rowMapper));
+        (p, executeResult, e) -> mapResultSet(p, rowMapper, e),
+        execution);
   }
 
   public <T> T query(
@@ -95,7 +315,32 @@ public class JdbcRunner {
         query,
         setParameters,
         PreparedStatementExecutor.EXECUTE,
-        (p, executeResult) -> mapResultSet(p, resultSetMapper));
+        (p, executeResult, execution) -> mapResultSet(p, resultSetMapper, execution));
+  }
+
+  /**
+   * Query for at most one row, e.g. a primary-key lookup. Cheaper than <code>query(..)</code> with
+   * a {@link Mappers.SingleResultMapper}: no intermediate list is created and no exception is
+   * thrown when there is no matching row.
+   *
+   * @return the mapped row, or empty if there was no row (or the row mapped to null)
+   * @throws Mappers.SingleResultExpected if there was more than one row
+   */
+  public <T> Optional<T> queryForOptional(
+      String query, PreparedStatementSetter setParameters, RowMapper<T> rowMapper) {
+    return Optional.ofNullable(queryForObject(query, setParameters, rowMapper));
+  }
+
+  /**
+   * Same as {@link #queryForOptional}, but returns <code>null</code> when there was no row.
+   *
+   * @throws Mappers.SingleResultExpected if there was more than one row
+   */
+  public <T> T queryForObject(
+      String query, PreparedStatementSetter setParameters, RowMapper<T> rowMapper) {
+    // the only per-call allocation, both bookkeeping and mapping
+    final SingleRow<T> singleRow = new SingleRow<>(query, rowMapper);
+    return execute(setParameters, PreparedStatementExecutor.EXECUTE, singleRow, singleRow);
   }
 
   public <T> T execute(
@@ -120,7 +365,33 @@ public class JdbcRunner {
         query,
         setAllBatches,
         PreparedStatementExecutor.EXECUTE_BATCH,
-        (executedPreparedStatement, executeResult) -> executeResult);
+        (executedPreparedStatement, executeResult, execution) -> {
+          long rows = 0;
+          for (int updated : executeResult) {
+            rows += Math.max(updated, 0);
+          }
+          execution.setRows(rows);
+          return executeResult;
+        });
+  }
+
+  /**
+   * Prepares the statements of the warm-up on connections from this runner's <code>
+   * ConnectionSupplier</code>, holding the configured number of connections concurrently so that
+   * they are distinct pool connections.
+   */
+  public StatementWarmup.WarmupReport warmUp(StatementWarmup warmup) {
+    final List<Connection> connections = new ArrayList<>();
+    try {
+      for (int i = 0; i < warmup.getConnections(); i++) {
+        connections.add(openConnection());
+      }
+      final StatementWarmup.WarmupReport report = warmup.run(connections);
+      connections.forEach(this::commitIfNecessary);
+      return report;
+    } finally {
+      connections.forEach(this::closeIfNecessary);
+    }
   }
 
   private <T, U> T execute(
@@ -128,39 +399,247 @@ public class JdbcRunner {
       PreparedStatementSetter setParameters,
       PreparedStatementExecutor<U> executePreparedStatement,
       AfterExecution<T, U> afterExecution) {
-    return withConnection(
-        c -> {
-          PreparedStatement preparedStatement = null;
-          try {
+    return execute(setParameters, executePreparedStatement, afterExecution, newExecution(query));
+  }
 
-            try {
-              preparedStatement = c.prepareStatement(query);
-            } catch (SQLException e) {
-              throw new SQLRuntimeException("Error when preparing statement.", e);
-            }
+  /**
+   * Executes the query, leaving the ResultSet open for reading beyond this call, as by {@link
+   * QueryPublisher}. Applies the same settings as <code>query(..)</code>, except the fetch-size
+   * tuner's fetch-size, since the caller sizes fetches itself. The cursor must be closed.
+   */
+  Cursor openCursor(String query, PreparedStatementSetter setParameters, int fetchSize) {
+    final Execution execution = newExecution(query);
+    if (settings.getResultLimits() != null) {
+      execution.limitRows(settings.getResultLimits().statementMaxRows());
+    }
+    final TransactionContext transactionContext = currentManagedTransaction();
+    if (transactionContext != null) {
+      transactionContext.flushDeferredWrites();
+    }
+    if (settings.getProfiler() != null) {
+      settings.getProfiler().start(execution);
+    }
+    if (settings.getTracer() != null) {
+      execution.traced(settings.getTracer().startSpan("jdbc.execute", parentSpan()));
+    }
+    final Cursor cursor = new Cursor(execution);
+    try {
+      cursor.open(setParameters, fetchSize);
+      return cursor;
+    } catch (RuntimeException e) {
+      throw cursor.close(e);
+    }
+  }
 
-            try {
-              LOG.trace("Setting parameters of prepared statement.");
-              setParameters.setParameters(preparedStatement);
-            } catch (SQLException e) {
-              throw new SQLRuntimeException(e);
-            }
+  private <T, U> T execute(
+      PreparedStatementSetter setParameters,
+      PreparedStatementExecutor<U> executePreparedStatement,
+      AfterExecution<T, U> afterExecution,
+      Execution execution) {
+    final TransactionContext transactionContext = currentManagedTransaction();
+    if (transactionContext != null) {
+      transactionContext.flushDeferredWrites();
+    }
+    if (settings.getProfiler() != null) {
+      settings.getProfiler().start(execution);
+    }
+    if (settings.getTracer() != null) {
+      execution.traced(settings.getTracer().startSpan("jdbc.execute", parentSpan()));
+    }
+    final Bulkhead bulkhead = settings.bulkheadFor(execution.getSql());
+    boolean acquired = false;
 
-            try {
-              LOG.trace("Executing prepared statement");
-              U executeResult = executePreparedStatement.execute(preparedStatement);
-              return afterExecution.doAfterExecution(preparedStatement, executeResult);
-            } catch (SQLException e) {
-              throw translateException(e);
-            }
+    try {
+      // inside the try, so that a rejection is recorded and the span ended like other failures
+      if (bulkhead != null) {
+        bulkhead.acquire();
+        acquired = true;
+      }
+      // not using a Function, to not allocate a capturing lambda per statement
+      final Connection c = openConnection();
+      try {
+        final T result =
+            execute(c, setParameters, executePreparedStatement, afterExecution, execution);
+        commitIfNecessary(c);
+        return result;
+      } catch (RuntimeException e) {
+        throw rollbackIfNecessary(c, e);
+      } finally {
+        closeIfNecessary(c);
+      }
+    } catch (RuntimeException e) {
+      execution.failed(e);
+      throw e;
+    } finally {
+      if (acquired) {
+        bulkhead.release();
+      }
+      execution.finished();
+      afterExecution(execution);
+    }
+  }
 
-          } finally {
-            nonThrowingClose(preparedStatement);
+  private <T, U> T execute(
+      Connection c,
+      PreparedStatementSetter setParameters,
+      PreparedStatementExecutor<U> executePreparedStatement,
+      AfterExecution<T, U> afterExecution,
+      Execution execution) {
+    execution.connected();
+    PreparedStatement preparedStatement = null;
+    ResultLimits.Watchdog watchdog = null;
+    try {
+
+      try {
+        preparedStatement = c.prepareStatement(execution.getSql());
+        if (execution.getMaxRows() > 0) {
+          preparedStatement.setMaxRows(execution.getMaxRows());
+        }
+        if (settings.getFetchSizeTuner() != null) {
+          final int fetchSize = settings.getFetchSizeTuner().fetchSizeFor(execution);
+          if (fetchSize > 0) {
+            preparedStatement.setFetchSize(fetchSize);
           }
-        });
+        }
+        applyTransactionTimeout(preparedStatement);
+      } catch (SQLException e) {
+        throw new SQLRuntimeException("Error when preparing statement.", e);
+      }
+      execution.prepared();
+
+      if (settings.getResultLimits() != null) {
+        watchdog = settings.getResultLimits().watch(preparedStatement, execution);
+      }
+
+      try {
+        LOG.trace("Setting parameters of prepared statement.");
+        setParameters.setParameters(parameterTarget(preparedStatement, execution));
+      } catch (SQLException e) {
+        throw new SQLRuntimeException(e);
+      }
+      execution.bound();
+
+      try {
+        LOG.trace("Executing prepared statement");
+        U executeResult = executePreparedStatement.execute(preparedStatement);
+        execution.executed();
+        final T result =
+            afterExecution.doAfterExecution(preparedStatement, executeResult, execution);
+        execution.mapped();
+        return result;
+      } catch (SQLException e) {
+        throw translateException(e);
+      }
+
+    } catch (RuntimeException e) {
+      if (watchdog != null && watchdog.stop() && !(e instanceof ResultLimitExceeded)) {
+        throw settings.getResultLimits().timeExceeded(e);
+      }
+      throw e;
+    } finally {
+      if (watchdog != null) {
+        watchdog.stop();
+      }
+      nonThrowingClose(preparedStatement);
+    }
+  }
+
+  private Execution newExecution(String query) {
+    return new Execution(query, settings.isTimed());
+  }
+
+  private void applyTransactionTimeout(PreparedStatement preparedStatement) throws SQLException {
+    final TransactionContext transactionContext = currentManagedTransaction();
+    if (transactionContext == null || !transactionContext.hasTimeout()) {
+      return;
+    }
+    final long remainingNanos = transactionContext.remainingNanos();
+    if (remainingNanos <= 0) {
+      throw new StatementTimeout(
+          new SQLTimeoutException(
+              "Transaction timeout of "
+                  + transactionContext.getOptions().getTimeout()
+                  + " exceeded."));
+    }
+    // query timeout has second resolution, round up so that it is never 0 (no timeout)
+    preparedStatement.setQueryTimeout(
+        (int) Math.min(Integer.MAX_VALUE, (remainingNanos + 999_999_999L) / 1_000_000_000L));
+  }
+
+  private PreparedStatement parameterTarget(
+      PreparedStatement preparedStatement, Execution execution) {
+    final SlowQueryLog slowQueryLog = settings.getSlowQueryLog();
+    if (slowQueryLog != null && slowQueryLog.shouldRecordParameters()) {
+      final TreeMap<Integer, Object> parameters = new TreeMap<>();
+      execution.recordParameters(parameters);
+      return RecordingPreparedStatement.wrap(preparedStatement, parameters);
+    }
+    return preparedStatement;
+  }
+
+  private void afterExecution(Execution execution) {
+    final SlowQueryLog slowQueryLog = settings.getSlowQueryLog();
+    if (slowQueryLog != null) {
+      try {
+        slowQueryLog.onExecution(execution);
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to log slow statement.", e);
+      }
+    }
+    if (settings.getProfiler() != null) {
+      settings.getProfiler().record(execution);
+    }
+    if (settings.getFetchSizeTuner() != null) {
+      settings.getFetchSizeTuner().record(execution);
+    }
+    if (execution.getSpan() != null) {
+      endSpan(execution);
+    }
+  }
+
+  /** Whether all statements share one connection, as in transactional and session runners. */
+  boolean usesSingleConnection() {
+    return connectionSupplier.isExternallyManagedConnection()
+        || connectionSupplier instanceof SessionConnectionSupplier;
+  }
+
+  /**
+   * @return the context of the transaction this runner executes in, or null if not created by
+   *     <code>inTransaction(..)</code>
+   */
+  private TransactionContext currentManagedTransaction() {
+    return connectionSupplier.isExternallyManagedConnection()
+        ? transactionContextProvider.getCurrent()
+        : null;
+  }
+
+  private Tracer.Span parentSpan() {
+    final TransactionContext transactionContext = transactionContextProvider.getCurrent();
+    return transactionContext != null ? transactionContext.getSpan() : null;
+  }
+
+  private static void endSpan(Execution execution) {
+    final Tracer.Span span = execution.getSpan();
+    try {
+      span.setAttribute("db.statement", SqlNormalizer.normalize(execution.getSql()));
+      if (execution.getRows() >= 0) {
+        span.setAttribute("db.rows", execution.getRows());
+      }
+      span.setAttribute("db.acquire_nanos", execution.getAcquireNanos());
+      span.setAttribute("db.prepare_nanos", execution.getPrepareNanos());
+      span.setAttribute("db.bind_nanos", execution.getBindNanos());
+      span.setAttribute("db.execute_nanos", execution.getExecuteNanos());
+      span.setAttribute("db.map_nanos", execution.getMapNanos());
+      span.setAttribute("db.release_nanos", execution.getReleaseNanos());
+      if (execution.getFailure() != null) {
+        span.recordException(execution.getFailure());
+      }
+    } finally {
+      span.end();
+    }
   }
 
-  private void commitIfNecessary(Connection c) {
+  void commitIfNecessary(Connection c) {
     try {
       if (shouldManageTransaction(c)) {
         c.commit();
@@ -170,7 +649,7 @@ public class JdbcRunner {
     }
   }
 
-  private RuntimeException rollbackIfNecessary(Connection c, RuntimeException originalException) {
+  RuntimeException rollbackIfNecessary(Connection c, RuntimeException originalException) {
     try {
       if (shouldManageTransaction(c)) {
         c.rollback();
@@ -211,61 +690,77 @@ public class JdbcRunner {
     }
   }
 
-  private SQLRuntimeException translateException(SQLException ex) {
-    if (ex instanceof SQLIntegrityConstraintViolationException) {
-      return new IntegrityConstraintViolation(ex);
-    } else {
-      return new SQLRuntimeException(ex);
-    }
+  SQLRuntimeException translateException(SQLException ex) {
+    return settings.getExceptionTranslator().translate(ex);
   }
 
-  private <T> T withConnection(Function<Connection, T> doWithConnection) {
-    Connection c;
+  Connection openConnection() {
     try {
       LOG.trace("Getting connection from datasource");
-      c = connectionSupplier.getConnection();
+      return connectionSupplier.getConnection();
     } catch (SQLException e) {
       throw new SQLRuntimeException("Unable to open connection", e);
     }
+  }
 
-    try {
-      final T result = doWithConnection.apply(c);
-      commitIfNecessary(c);
-      return result;
-    } catch (RuntimeException e) {
-      throw rollbackIfNecessary(c, e);
-    } finally {
-      // Do not close when connection is managed by TransactionManager
-      if (!connectionSupplier.isExternallyManagedConnection()) {
-        nonThrowingClose(c);
-      }
+  void closeIfNecessary(Connection c) {
+    // Do not close when connection is managed by TransactionManager
+    if (!connectionSupplier.isExternallyManagedConnection()) {
+      nonThrowingClose(c);
     }
   }
 
   private <T> List<T> mapResultSet(
-      PreparedStatement executedPreparedStatement, RowMapper<T> rowMapper) {
+      PreparedStatement executedPreparedStatement, RowMapper<T> rowMapper, Execution execution) {
     return withResultSet(
         executedPreparedStatement,
+        execution,
         (ResultSet rs) -> {
+          final ResultLimits.Budget budget =
+              settings.getResultLimits() != null
+                  ? settings.getResultLimits().budget(execution)
+                  : null;
           List<T> results = new ArrayList<>();
           while (rs.next()) {
+            if (budget != null) {
+              budget.onRow(rs);
+            }
             results.add(rowMapper.map(rs));
           }
+          execution.setRows(results.size());
           return results;
         });
   }
 
   private <T> T mapResultSet(
-      PreparedStatement executedPreparedStatement, ResultSetMapper<T> resultSetMapper) {
-    return withResultSet(executedPreparedStatement, (ResultSet rs) -> resultSetMapper.map(rs));
+      PreparedStatement executedPreparedStatement,
+      ResultSetMapper<T> resultSetMapper,
+      Execution execution) {
+    if (resultSetMapper instanceof Mappers.SingleResultMapper) {
+      // the same exception as from queryForObject(..), which the mapper has no settings for
+      final Mappers.SingleResultMapper<T> singleResultMapper =
+          (Mappers.SingleResultMapper<T>) resultSetMapper;
+      final boolean writableStackTrace = !settings.isLightweightExceptions();
+      return withResultSet(
+          executedPreparedStatement,
+          execution,
+          (ResultSet rs) -> singleResultMapper.map(rs, writableStackTrace));
+    }
+    return withResultSet(
+        executedPreparedStatement, execution, (ResultSet rs) -> resultSetMapper.map(rs));
   }
 
   private <T> T withResultSet(
-      PreparedStatement executedPreparedStatement, DoWithResultSet<T> doWithResultSet) {
+      PreparedStatement executedPreparedStatement,
+      Execution execution,
+      DoWithResultSet<T> doWithResultSet) {
     ResultSet rs = null;
     try {
       try {
         rs = executedPreparedStatement.getResultSet();
+        if (settings.getFetchSizeTuner() != null) {
+          settings.getFetchSizeTuner().onResultSet(execution, rs);
+        }
       } catch (SQLException e) {
         throw new SQLRuntimeException(e);
       }
@@ -281,7 +776,7 @@ public class JdbcRunner {
     }
   }
 
-  private void nonThrowingClose(AutoCloseable toClose) {
+  static void nonThrowingClose(AutoCloseable toClose) {
     if (toClose == null) {
       return;
     }
@@ -294,16 +789,189 @@ public class JdbcRunner {
   }
 
   interface AfterExecution<T, U> {
-    T doAfterExecution(PreparedStatement executedPreparedStatement, U executeResult)
+    T doAfterExecution(
+        PreparedStatement executedPreparedStatement, U executeResult, Execution execution)
         throws SQLException;
 
     class ReturnStatementUpdateCount<U> implements AfterExecution<Integer, U> {
 
       @Override
-      public Integer doAfterExecution(PreparedStatement executedPreparedStatement, U executeResult)
+      public Integer doAfterExecution(
+          PreparedStatement executedPreparedStatement, U executeResult, Execution execution)
           throws SQLException {
-        return executedPreparedStatement.getUpdateCount();
+        final int updateCount = executedPreparedStatement.getUpdateCount();
+        execution.setRows(updateCount);
+        return updateCount;
+      }
+    }
+  }
+
+  /**
+   * Execution and mapping of a single-row query in one object, bypassing {@link #withResultSet}, so
+   * that {@link #queryForObject} allocates nothing else per call when no optional features are on.
+   */
+  private final class SingleRow<T> extends Execution implements AfterExecution<T, Boolean> {
+    private final RowMapper<T> rowMapper;
+
+    SingleRow(String sql, RowMapper<T> rowMapper) {
+      super(sql, settings.isTimed());
+      this.rowMapper = rowMapper;
+      // a second row is only needed to detect that there was more than one
+      limitRows(2);
+    }
+
+    @Override
+    public T doAfterExecution(
+        PreparedStatement executedPreparedStatement, Boolean executeResult, Execution execution)
+        throws SQLException {
+      try (ResultSet rs = executedPreparedStatement.getResultSet()) {
+        if (settings.getFetchSizeTuner() != null) {
+          settings.getFetchSizeTuner().onResultSet(this, rs);
+        }
+        if (!rs.next()) {
+          setRows(0);
+          return null;
+        }
+        if (settings.getResultLimits() != null) {
+          settings.getResultLimits().budget(this).onRow(rs);
+        }
+        final T result = rowMapper.map(rs);
+        if (rs.next()) {
+          throw new Mappers.SingleResultExpected(
+              "Expected single result in resultset, but had more than 1.",
+              !settings.isLightweightExceptions());
+        }
+        setRows(1);
+        return result;
+      }
+    }
+  }
+
+  /**
+   * An executed query with its ResultSet still open, see {@link #openCursor}. Not thread-safe, but
+   * may be handed between threads.
+   */
+  final class Cursor {
+    private final Execution execution;
+    private final Bulkhead bulkhead;
+    private boolean acquired;
+    private Connection connection;
+    private PreparedStatement statement;
+    private ResultLimits.Watchdog watchdog;
+    private ResultLimits.Budget budget;
+    private ResultSet rs;
+    private long rows;
+
+    private Cursor(Execution execution) {
+      this.execution = execution;
+      this.bulkhead = settings.bulkheadFor(execution.getSql());
+    }
+
+    private void open(PreparedStatementSetter setParameters, int fetchSize) {
+      if (bulkhead != null) {
+        bulkhead.acquire();
+        acquired = true;
+      }
+      connection = openConnection();
+      execution.connected();
+      try {
+        statement = connection.prepareStatement(execution.getSql());
+        if (execution.getMaxRows() > 0) {
+          statement.setMaxRows(execution.getMaxRows());
+        }
+        statement.setFetchSize(fetchSize);
+        applyTransactionTimeout(statement);
+      } catch (SQLException e) {
+        throw new SQLRuntimeException("Error when preparing statement.", e);
+      }
+      execution.prepared();
+
+      if (settings.getResultLimits() != null) {
+        watchdog = settings.getResultLimits().watch(statement, execution);
+        budget = settings.getResultLimits().budget(execution);
+      }
+
+      try {
+        setParameters.setParameters(parameterTarget(statement, execution));
+      } catch (SQLException e) {
+        throw new SQLRuntimeException(e);
+      }
+      execution.bound();
+
+      try {
+        rs = statement.executeQuery();
+      } catch (SQLException e) {
+        throw translateException(e);
+      }
+      execution.executed();
+    }
+
+    /** The open ResultSet, positioned by {@link #next()}. */
+    ResultSet getResultSet() {
+      return rs;
+    }
+
+    /** Moves to the next row, counting it against the result limits. */
+    boolean next() throws SQLException {
+      if (!rs.next()) {
+        return false;
+      }
+      if (budget != null) {
+        budget.onRow(rs);
+      }
+      rows++;
+      return true;
+    }
+
+    /**
+     * Commits, or rolls back on failure, and releases the ResultSet, statement, connection and
+     * bulkhead permit. Completes the execution for the slow-query log, profiler and tracer.
+     *
+     * @param failure the failure ending the cursor, or null if it completed or was cancelled
+     * @return the failure to report, null if none
+     */
+    RuntimeException close(RuntimeException failure) {
+      if (rs != null) {
+        execution.setRows(rows);
+        execution.mapped();
+      }
+      if (watchdog != null
+          && watchdog.stop()
+          && failure != null
+          && !(failure instanceof ResultLimitExceeded)) {
+        failure = settings.getResultLimits().timeExceeded(failure);
+      }
+      nonThrowingClose(rs);
+      nonThrowingClose(statement);
+      rs = null;
+      statement = null;
+      try {
+        if (connection != null) {
+          try {
+            if (failure != null) {
+              failure = rollbackIfNecessary(connection, failure);
+            } else {
+              commitIfNecessary(connection);
+            }
+          } catch (RuntimeException e) {
+            failure = e;
+          } finally {
+            closeIfNecessary(connection);
+            connection = null;
+          }
+        }
+      } finally {
+        if (acquired) {
+          bulkhead.release();
+          acquired = false;
+        }
+        if (failure != null) {
+          execution.failed(failure);
+        }
+        execution.finished();
+        afterExecution(execution);
       }
+      return failure;
     }
   }
 
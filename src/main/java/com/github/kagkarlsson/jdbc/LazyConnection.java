@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connection-proxy used by lazy transactions. The physical connection is acquired, and the
+ * transaction started by disabling auto-commit, on first use. Closing the proxy is a no-op, the
+ * physical connection is released by the {@link TransactionManager}.
+ */
+class LazyConnection implements InvocationHandler {
+  private static final Logger LOG = LoggerFactory.getLogger(LazyConnection.class);
+
+  private final ConnectionSupplier connectionSupplier;
+  private final TransactionOptions options;
+  private final Connection proxy;
+  private Connection physical;
+  private boolean restoreAutocommit;
+  private TransactionOptions.Applied appliedOptions = TransactionOptions.Applied.NOTHING;
+
+  LazyConnection(ConnectionSupplier connectionSupplier, TransactionOptions options) {
+    this.connectionSupplier = connectionSupplier;
+    this.options = options;
+    this.proxy =
+        (Connection)
+            Proxy.newProxyInstance(
+                LazyConnection.class.getClassLoader(), new Class<?>[] {Connection.class}, this);
+  }
+
+  Connection asConnection() {
+    return proxy;
+  }
+
+  boolean isAcquired() {
+    return physical != null;
+  }
+
+  Connection getPhysical() {
+    return physical;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "LazyConnection[" + (physical != null ? physical : "not acquired") + "]";
+      case "close":
+        return null;
+      case "isClosed":
+        if (physical == null) {
+          return false;
+        }
+        break;
+      default:
+        break;
+    }
+
+    try {
+      return method.invoke(acquire(), args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private Connection acquire() throws SQLException {
+    if (physical == null) {
+      LOG.trace("First use of lazy transaction, acquiring connection.");
+      final Connection connection = connectionSupplier.getConnection();
+      try {
+        appliedOptions = options.apply(connection);
+        if (connection.getAutoCommit()) {
+          connection.setAutoCommit(false);
+          restoreAutocommit = true;
+        }
+      } catch (SQLException | RuntimeException e) {
+        appliedOptions.restore(connection);
+        appliedOptions = TransactionOptions.Applied.NOTHING;
+        JdbcRunner.nonThrowingClose(connection);
+        throw e;
+      }
+      physical = connection;
+    }
+    return physical;
+  }
+
+  boolean shouldRestoreAutocommit() {
+    return restoreAutocommit;
+  }
+
+  TransactionOptions.Applied getAppliedOptions() {
+    return appliedOptions;
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Helpers for streaming BLOB/CLOB columns, so large payloads never have to be fully materialized in
+ * the heap (as with <code>rs.getBytes(..)</code>).
+ *
+ * <p>Reading copies from <code>ResultSet.getBinaryStream</code>/<code>getCharacterStream</code>
+ * into the target through a reusable per-thread buffer. A heap buffer is used rather than a direct
+ * one, since JDBC-drivers only expose LOBs as <code>InputStream</code>/<code>Reader</code>, and
+ * reading those into a direct buffer would add a copy.
+ *
+ * <p>Binding from a file memory-maps it, letting the driver stream it without extra copies in the
+ * heap.
+ */
+public class Lobs {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MAX_MAPPED_SEGMENT = 1L << 30;
+
+  private static final ThreadLocal<byte[]> BYTE_BUFFERS =
+      ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+  private static final ThreadLocal<char[]> CHAR_BUFFERS =
+      ThreadLocal.withInitial(() -> new char[BUFFER_SIZE / 2]);
+
+  /**
+   * Copies a binary column of the current row into the channel.
+   *
+   * @return number of bytes copied, or -1 if the column was null
+   */
+  public static long copyBinary(ResultSet rs, String columnLabel, WritableByteChannel target)
+      throws SQLException {
+    try (InputStream in = rs.getBinaryStream(columnLabel)) {
+      return in == null ? -1 : copy(in, target);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to copy column " + columnLabel, e);
+    }
+  }
+
+  /**
+   * Copies a binary column of the current row into the stream. The stream is not closed.
+   *
+   * @return number of bytes copied, or -1 if the column was null
+   */
+  public static long copyBinary(ResultSet rs, String columnLabel, OutputStream target)
+      throws SQLException {
+    try (InputStream in = rs.getBinaryStream(columnLabel)) {
+      return in == null ? -1 : copy(in, target);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to copy column " + columnLabel, e);
+    }
+  }
+
+  /**
+   * Copies a character column of the current row into the writer. The writer is not closed.
+   *
+   * @return number of characters copied, or -1 if the column was null
+   */
+  public static long copyCharacters(ResultSet rs, String columnLabel, Writer target)
+      throws SQLException {
+    try (Reader in = rs.getCharacterStream(columnLabel)) {
+      if (in == null) {
+        return -1;
+      }
+      final char[] buffer = CHAR_BUFFERS.get();
+      long copied = 0;
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        target.write(buffer, 0, read);
+        copied += read;
+      }
+      return copied;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to copy column " + columnLabel, e);
+    }
+  }
+
+  /**
+   * RowMapper streaming a binary column into the channel, for use when querying a single row. Maps
+   * to the number of bytes copied, or -1 if the column was null.
+   */
+  public static RowMapper<Long> binaryTo(String columnLabel, WritableByteChannel target) {
+    return rs -> copyBinary(rs, columnLabel, target);
+  }
+
+  /**
+   * RowMapper streaming a binary column into the stream, for use when querying a single row. Maps
+   * to the number of bytes copied, or -1 if the column was null.
+   */
+  public static RowMapper<Long> binaryTo(String columnLabel, OutputStream target) {
+    return rs -> copyBinary(rs, columnLabel, target);
+  }
+
+  /**
+   * Binds the content of the file to a binary parameter, for use in a {@link
+   * PreparedStatementSetter}. The file is memory-mapped and must not be modified until the
+   * statement is executed.
+   */
+  public static void setBinary(PreparedStatement ps, int parameterIndex, Path file)
+      throws SQLException {
+    final MappedByteBuffer[] segments;
+    final long size;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      size = channel.size();
+      segments = new MappedByteBuffer[(int) ((size + MAX_MAPPED_SEGMENT - 1) / MAX_MAPPED_SEGMENT)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * MAX_MAPPED_SEGMENT;
+        segments[i] =
+            channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                Math.min(MAX_MAPPED_SEGMENT, size - position));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map file " + file, e);
+    }
+    ps.setBinaryStream(parameterIndex, new ByteBufferInputStream(segments), size);
+  }
+
+  /**
+   * Binds <code>length</code> bytes from the channel to a binary parameter, for use in a {@link
+   * PreparedStatementSetter}. The channel is read when the statement is executed, and is not
+   * closed.
+   */
+  public static void setBinary(
+      PreparedStatement ps, int parameterIndex, ReadableByteChannel source, long length)
+      throws SQLException {
+    ps.setBinaryStream(parameterIndex, Channels.newInputStream(source), length);
+  }
+
+  private static long copy(InputStream in, WritableByteChannel target) throws IOException {
+    final byte[] buffer = BYTE_BUFFERS.get();
+    final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    long copied = 0;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      // through Buffer, since the covariant ByteBuffer overrides do not exist on Java 8
+      ((Buffer) wrapped).clear().limit(read);
+      while (wrapped.hasRemaining()) {
+        target.write(wrapped);
+      }
+      copied += read;
+    }
+    return copied;
+  }
+
+  private static long copy(InputStream in, OutputStream target) throws IOException {
+    final byte[] buffer = BYTE_BUFFERS.get();
+    long copied = 0;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      target.write(buffer, 0, read);
+      copied += read;
+    }
+    return copied;
+  }
+
+  /** InputStream over a sequence of buffers, e.g. the memory-mapped segments of a file. */
+  static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer[] buffers;
+    private int current;
+
+    ByteBufferInputStream(ByteBuffer... buffers) {
+      this.buffers = buffers;
+    }
+
+    @Override
+    public int read() {
+      final ByteBuffer buffer = nextNonEmpty();
+      return buffer == null ? -1 : buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      final ByteBuffer buffer = nextNonEmpty();
+      if (buffer == null) {
+        return -1;
+      }
+      final int toRead = Math.min(len, buffer.remaining());
+      buffer.get(b, off, toRead);
+      return toRead;
+    }
+
+    @Override
+    public int available() {
+      final ByteBuffer buffer = nextNonEmpty();
+      return buffer == null ? 0 : buffer.remaining();
+    }
+
+    private ByteBuffer nextNonEmpty() {
+      while (current < buffers.length && !buffers[current].hasRemaining()) {
+        current++;
+      }
+      return current < buffers.length ? buffers[current] : null;
+    }
+  }
+}
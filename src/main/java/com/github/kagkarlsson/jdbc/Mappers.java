@@ -39,14 +39,21 @@ public class Mappers {
 
     @Override
     public T map(ResultSet rs) throws SQLException {
+      return map(rs, true);
+    }
+
+    /** Used by {@link JdbcRunner}, to skip the stack trace when exceptions are lightweight. */
+    T map(ResultSet rs, boolean writableStackTrace) throws SQLException {
       boolean first = rs.next();
       if (!first) {
-        throw new SingleResultExpected("Expected single result in resultset, but had none.");
+        throw new SingleResultExpected(
+            "Expected single result in resultset, but had none.", writableStackTrace);
       }
       final T result = rowMapper.map(rs);
       boolean second = rs.next();
       if (second) {
-        throw new SingleResultExpected("Expected single result in resultset, but had more than 1.");
+        throw new SingleResultExpected(
+            "Expected single result in resultset, but had more than 1.", writableStackTrace);
       }
       return result;
     }
@@ -57,6 +64,10 @@ public class Mappers {
     public SingleResultExpected(String message) {
       super(message);
     }
+
+    public SingleResultExpected(String message, boolean writableStackTrace) {
+      super(message, null, writableStackTrace);
+    }
   }
 
   private static class NonEmptyResultMapper implements ResultSetMapper<Boolean> {
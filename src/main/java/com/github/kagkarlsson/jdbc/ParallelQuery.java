@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Runs a query partitioned by e.g. key-range or hash, with the partitions executing concurrently on
+ * separate pooled connections. Useful for turning large single-connection scans into
+ * multi-connection throughput.
+ *
+ * <pre>
+ * List&lt;Row&gt; rows = new ParallelQuery(jdbcRunner, executor)
+ *     .query(
+ *         "select * from events where mod(id, ?) = ? order by id",
+ *         ParallelQuery.Partitioner.modulo(8),
+ *         rowMapper,
+ *         ParallelQuery.mergeSorted(Comparator.comparing(Row::getId)));
+ * </pre>
+ *
+ * <p>Concurrency is bounded by the executor, which could for example be a <code>ForkJoinPool
+ * </code> or a virtual-thread executor, and the connection pool. If one partition fails, the others
+ * are cancelled (using <code>Statement.cancel()</code> and interrupts) and the failure is thrown.
+ * The <code>JdbcRunner</code> must not be a transactional or session runner, since partitions need
+ * separate connections.
+ */
+public class ParallelQuery {
+
+  private final JdbcRunner jdbcRunner;
+  private final ExecutorService executor;
+
+  public ParallelQuery(JdbcRunner jdbcRunner, ExecutorService executor) {
+    if (jdbcRunner.usesSingleConnection()) {
+      throw new IllegalArgumentException(
+          "ParallelQuery requires a runner checking out a connection per statement, not a"
+              + " transactional or session runner.");
+    }
+    this.jdbcRunner = jdbcRunner;
+    this.executor = executor;
+  }
+
+  /**
+   * Every partition is read fully into a list before <code>merge</code> is called, so all rows of
+   * the query are held in memory at once, as for <code>JdbcRunner.query(..)</code>.
+   *
+   * @param merge merges the mapped rows of each partition, given in partition order
+   */
+  public <T, R> R query(
+      String query,
+      Partitioner partitioner,
+      RowMapper<T> rowMapper,
+      Function<List<List<T>>, R> merge) {
+    final int partitions = partitioner.partitions();
+    final CancellableStatement[] statements = new CancellableStatement[partitions];
+    final List<Future<List<T>>> futures = new ArrayList<>(partitions);
+    final CompletionService<List<T>> completion = new ExecutorCompletionService<>(executor);
+
+    final List<List<T>> results = new ArrayList<>(partitions);
+    try {
+      for (int i = 0; i < partitions; i++) {
+        final int partition = i;
+        final CancellableStatement statement = new CancellableStatement();
+        statements[i] = statement;
+        futures.add(
+            completion.submit(
+                () -> {
+                  try {
+                    return jdbcRunner.query(
+                        query,
+                        statement.capture(ps -> partitioner.setParameters(partition, ps)),
+                        rowMapper);
+                  } finally {
+                    statement.done();
+                  }
+                }));
+        results.add(null);
+      }
+
+      for (int completed = 0; completed < partitions; completed++) {
+        final Future<List<T>> done = completion.take();
+        results.set(futures.indexOf(done), done.get());
+      }
+    } catch (ExecutionException e) {
+      cancelAll(statements, futures);
+      final Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new SQLRuntimeException("Partition failed.", cause, true);
+    } catch (InterruptedException e) {
+      cancelAll(statements, futures);
+      Thread.currentThread().interrupt();
+      throw new SQLRuntimeException("Interrupted while waiting for partitions.", e, true);
+    } catch (RuntimeException e) {
+      cancelAll(statements, futures);
+      throw e;
+    }
+
+    return merge.apply(results);
+  }
+
+  private static void cancelAll(
+      CancellableStatement[] statements, List<? extends Future<?>> futures) {
+    for (CancellableStatement statement : statements) {
+      if (statement != null) {
+        statement.cancel();
+      }
+    }
+    for (Future<?> future : futures) {
+      future.cancel(true);
+    }
+  }
+
+  /** Merge concatenating the partitions in partition order. */
+  public static <T> Function<List<List<T>>, List<T>> concat() {
+    return partitions -> {
+      final List<T> merged = new ArrayList<>(totalSize(partitions));
+      for (List<T> partition : partitions) {
+        merged.addAll(partition);
+      }
+      return merged;
+    };
+  }
+
+  /**
+   * K-way merge of partitions individually sorted by <code>order</code> (e.g. using <code>
+   * ORDER BY</code> in the query), giving a sorted result.
+   *
+   * <p>Not incremental: the merge starts once every partition has been fully materialized, and the
+   * merged list is allocated next to the partition lists, so peak memory is twice the references to
+   * all rows, plus the rows. Costs O(n log k) comparisons for n rows in k partitions. For results
+   * too large for that, order a single query instead.
+   */
+  public static <T> Function<List<List<T>>, List<T>> mergeSorted(Comparator<? super T> order) {
+    return partitions -> {
+      final List<T> merged = new ArrayList<>(totalSize(partitions));
+      final PriorityQueue<Cursor<T>> heads =
+          new PriorityQueue<>(
+              Math.max(1, partitions.size()), (a, b) -> order.compare(a.head(), b.head()));
+      for (List<T> partition : partitions) {
+        if (!partition.isEmpty()) {
+          heads.add(new Cursor<>(partition));
+        }
+      }
+
+      while (!heads.isEmpty()) {
+        final Cursor<T> cursor = heads.poll();
+        merged.add(cursor.head());
+        if (cursor.advance()) {
+          heads.add(cursor);
+        }
+      }
+      return merged;
+    };
+  }
+
+  private static int totalSize(List<? extends List<?>> partitions) {
+    int size = 0;
+    for (List<?> partition : partitions) {
+      size += partition.size();
+    }
+    return size;
+  }
+
+  private static class Cursor<T> {
+    private final List<T> rows;
+    private int position;
+
+    Cursor(List<T> rows) {
+      this.rows = rows;
+    }
+
+    T head() {
+      return rows.get(position);
+    }
+
+    boolean advance() {
+      return ++position < rows.size();
+    }
+  }
+
+  /** Divides a query into partitions, by setting the parameters identifying each partition. */
+  public interface Partitioner {
+
+    int partitions();
+
+    void setParameters(int partition, PreparedStatement preparedStatement) throws SQLException;
+
+    /**
+     * Hash-partitioning for queries on the form <code>... WHERE MOD(id, ?) = ?</code>, binding the
+     * number of partitions to the first parameter and the partition to the second.
+     */
+    static Partitioner modulo(int partitions) {
+      return new Partitioner() {
+        @Override
+        public int partitions() {
+          return partitions;
+        }
+
+        @Override
+        public void setParameters(int partition, PreparedStatement preparedStatement)
+            throws SQLException {
+          preparedStatement.setInt(1, partitions);
+          preparedStatement.setInt(2, partition);
+        }
+      };
+    }
+
+    /**
+     * Range-partitioning for queries on the form <code>... WHERE id &gt;= ? AND id &lt; ?</code>,
+     * splitting <code>[fromInclusive, toExclusive)</code> into equally sized ranges.
+     */
+    static Partitioner ranges(long fromInclusive, long toExclusive, int partitions) {
+      final long[] bounds = new long[partitions + 1];
+      final long span = toExclusive - fromInclusive;
+      for (int i = 0; i <= partitions; i++) {
+        // spread the remainder over the first partitions, avoiding overflow of span * i
+        bounds[i] = fromInclusive + (span / partitions) * i + Math.min(i, span % partitions);
+      }
+      return new Partitioner() {
+        @Override
+        public int partitions() {
+          return partitions;
+        }
+
+        @Override
+        public void setParameters(int partition, PreparedStatement preparedStatement)
+            throws SQLException {
+          preparedStatement.setLong(1, bounds[partition]);
+          preparedStatement.setLong(2, bounds[partition + 1]);
+        }
+      };
+    }
+  }
+}
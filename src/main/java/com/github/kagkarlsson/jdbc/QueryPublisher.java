@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reactive Streams <code>Publisher</code> for the rows of a query, for streaming results into
+ * asynchronous consumers without buffering them as a <code>List</code>. Requires <code>
+ * org.reactivestreams:reactive-streams</code> on the classpath.
+ *
+ * <p>The query is executed once per subscriber, when demand is first signalled. Rows are only read
+ * (<code>rs.next()</code>) as <code>request(n)</code>-demand arrives, and the fetch-size is sized
+ * after the outstanding demand. All JDBC-work is done on the supplied executor, which should be
+ * dedicated to blocking IO. The statement and connection are released when the ResultSet is
+ * exhausted, on failure, or when the subscription is cancelled.
+ *
+ * <p>The query is executed with the settings of the runner, as by <code>query(..)</code>: result
+ * limits, bulkheads, tracing, profiling and the slow-query log apply, the latter three covering the
+ * time until the subscription ends. The fetch-size tuner only records the executions, fetches are
+ * sized after the demand. Since the JDBC-work runs on the executor, deferred writes and the timeout
+ * of a transaction the runner is used in are not seen, use a runner outside transactions.
+ */
+public final class QueryPublisher<T> implements Publisher<T> {
+  private static final Logger LOG = LoggerFactory.getLogger(QueryPublisher.class);
+  private static final int MAX_FETCH_SIZE = 1000;
+
+  private final JdbcRunner jdbcRunner;
+  private final String query;
+  private final PreparedStatementSetter setParameters;
+  private final RowMapper<T> rowMapper;
+  private final Executor executor;
+
+  public QueryPublisher(
+      JdbcRunner jdbcRunner,
+      String query,
+      PreparedStatementSetter setParameters,
+      RowMapper<T> rowMapper,
+      Executor executor) {
+    this.jdbcRunner = jdbcRunner;
+    this.query = query;
+    this.setParameters = setParameters;
+    this.rowMapper = rowMapper;
+    this.executor = executor;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super T> subscriber) {
+    if (subscriber == null) {
+      throw new NullPointerException("Subscriber must not be null");
+    }
+    final QuerySubscription subscription = new QuerySubscription(subscriber);
+    subscriber.onSubscribe(subscription);
+    subscription.start();
+  }
+
+  private class QuerySubscription implements Subscription, Runnable {
+    private final Subscriber<? super T> subscriber;
+    private final AtomicLong demand = new AtomicLong();
+    // work-in-progress, ensures a single drain at a time. Starts at 1 to hold off draining
+    // until onSubscribe(..) has returned.
+    private final AtomicInteger wip = new AtomicInteger(1);
+    private volatile boolean cancelled;
+    private volatile IllegalArgumentException invalidRequest;
+
+    // only accessed while draining
+    private boolean done;
+    private JdbcRunner.Cursor cursor;
+
+    QuerySubscription(Subscriber<? super T> subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        invalidRequest =
+            new IllegalArgumentException("Requested number of rows must be positive (rule 3.9)");
+      } else {
+        long current;
+        do {
+          current = demand.get();
+        } while (!demand.compareAndSet(current, addCap(current, n)));
+      }
+      schedule();
+    }
+
+    @Override
+    public void cancel() {
+      cancelled = true;
+      schedule();
+    }
+
+    void start() {
+      if (wip.decrementAndGet() != 0) {
+        submit();
+      }
+    }
+
+    private void schedule() {
+      if (wip.getAndIncrement() == 0) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        cancelled = true;
+        subscriber.onError(release(e));
+      }
+    }
+
+    @Override
+    public void run() {
+      int missed = 1;
+      do {
+        drain();
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    private void drain() {
+      if (done) {
+        return;
+      }
+      if (cancelled) {
+        done = true;
+        final RuntimeException failure = release(null);
+        if (failure != null) {
+          LOG.warn("Failed to release query after cancellation.", failure);
+        }
+        return;
+      }
+      if (invalidRequest != null) {
+        fail(invalidRequest);
+        return;
+      }
+
+      final long requested = demand.get();
+      if (requested == 0) {
+        return;
+      }
+
+      long emitted = 0;
+      try {
+        if (cursor == null) {
+          LOG.trace("First demand for rows, executing query.");
+          cursor = jdbcRunner.openCursor(query, setParameters, fetchSize(requested));
+        } else {
+          cursor.getResultSet().setFetchSize(fetchSize(requested));
+        }
+
+        while (emitted < requested && !cancelled) {
+          if (!cursor.next()) {
+            done = true;
+            final RuntimeException failure = release(null);
+            if (failure != null) {
+              subscriber.onError(failure);
+            } else {
+              subscriber.onComplete();
+            }
+            return;
+          }
+          subscriber.onNext(rowMapper.map(cursor.getResultSet()));
+          emitted++;
+        }
+      } catch (SQLException e) {
+        fail(jdbcRunner.translateException(e));
+        return;
+      } catch (RuntimeException e) {
+        fail(e);
+        return;
+      }
+
+      if (requested != Long.MAX_VALUE) {
+        demand.addAndGet(-emitted);
+      }
+    }
+
+    private void fail(RuntimeException failure) {
+      done = true;
+      subscriber.onError(release(failure));
+    }
+
+    /**
+     * @return the failure to report, after translation by the cursor, or null if none
+     */
+    private RuntimeException release(RuntimeException failure) {
+      if (cursor == null) {
+        return failure;
+      }
+      final JdbcRunner.Cursor toClose = cursor;
+      cursor = null;
+      return toClose.close(failure);
+    }
+  }
+
+  private static int fetchSize(long outstandingDemand) {
+    return (int) Math.max(1, Math.min(outstandingDemand, MAX_FETCH_SIZE));
+  }
+
+  private static long addCap(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+}
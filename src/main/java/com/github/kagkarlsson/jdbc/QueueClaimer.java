@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Claims rows of a database-backed work queue, in a single transaction, such that concurrent
+ * claimers on many nodes do not contend for the same rows.
+ *
+ * <ul>
+ *   <li>{@link Dialect#POSTGRESQL}: one statement, <code>UPDATE .. WHERE id IN (SELECT .. FOR
+ *       UPDATE SKIP LOCKED) RETURNING *</code>. Mapped rows reflect the claim.
+ *   <li>{@link Dialect#MYSQL}: <code>SELECT .. FOR UPDATE SKIP LOCKED</code> followed by an <code>
+ *       UPDATE</code> of the selected ids.
+ *   <li>{@link Dialect#OPTIMISTIC}: for databases without <code>SKIP LOCKED</code>. Candidates are
+ *       selected without locks and claimed using a batched <code>UPDATE .. WHERE id = ? AND version
+ *       = ?</code>, rows updated by someone else in between are skipped. Requires a version column
+ *       and a driver reporting per-statement batch update counts. Drivers answering <code>
+ *       SUCCESS_NO_INFO</code> fail the claim, and roll it back, rather than claiming rows without
+ *       knowing which were actually updated.
+ * </ul>
+ *
+ * For the two latter, mapped rows reflect the state before the claim. The batch size adapts to how
+ * many rows were actually claimed: it doubles while full batches are claimed and halves when less
+ * than half of the requested rows could be claimed. Concurrent claims using the same instance share
+ * the batch size, an outcome is ignored if the batch size was adapted by another claim meanwhile.
+ */
+public class QueueClaimer<T> {
+
+  public enum Dialect {
+    POSTGRESQL,
+    MYSQL,
+    OPTIMISTIC
+  }
+
+  private final JdbcRunner jdbcRunner;
+  private final Dialect dialect;
+  private final String table;
+  private final String idColumn;
+  private final RowMapper<T> rowMapper;
+  private final String availableCondition;
+  private final String claimAssignments;
+  private final String orderBy;
+  private final String versionColumn;
+  private final int minBatchSize;
+  private final int maxBatchSize;
+  private final AtomicInteger batchSize;
+
+  /**
+   * @param availableCondition SQL condition selecting unclaimed rows, e.g. <code>
+   *     status = 'NEW'</code>
+   * @param claimAssignments SQL assignments marking rows as claimed, e.g. <code>
+   *     status = 'CLAIMED', claimed_at = CURRENT_TIMESTAMP</code>
+   */
+  public QueueClaimer(
+      JdbcRunner jdbcRunner,
+      Dialect dialect,
+      String table,
+      String idColumn,
+      String availableCondition,
+      String claimAssignments,
+      RowMapper<T> rowMapper) {
+    this(
+        jdbcRunner,
+        dialect,
+        table,
+        idColumn,
+        rowMapper,
+        availableCondition,
+        claimAssignments,
+        idColumn,
+        null,
+        1,
+        100,
+        10);
+  }
+
+  private QueueClaimer(
+      JdbcRunner jdbcRunner,
+      Dialect dialect,
+      String table,
+      String idColumn,
+      RowMapper<T> rowMapper,
+      String availableCondition,
+      String claimAssignments,
+      String orderBy,
+      String versionColumn,
+      int minBatchSize,
+      int maxBatchSize,
+      int initialBatchSize) {
+    if (minBatchSize < 1 || maxBatchSize < minBatchSize) {
+      throw new IllegalArgumentException(
+          "Batch sizes must satisfy 1 <= min <= max, was min="
+              + minBatchSize
+              + " max="
+              + maxBatchSize);
+    }
+    this.jdbcRunner = jdbcRunner;
+    this.dialect = dialect;
+    this.table = table;
+    this.idColumn = idColumn;
+    this.rowMapper = rowMapper;
+    this.availableCondition = availableCondition;
+    this.claimAssignments = claimAssignments;
+    this.orderBy = orderBy;
+    this.versionColumn = versionColumn;
+    this.minBatchSize = minBatchSize;
+    this.maxBatchSize = maxBatchSize;
+    this.batchSize =
+        new AtomicInteger(Math.max(minBatchSize, Math.min(maxBatchSize, initialBatchSize)));
+  }
+
+  /** Order in which available rows are claimed, e.g. <code>priority desc, id</code>. */
+  public QueueClaimer<T> withOrderBy(String orderBy) {
+    return new QueueClaimer<>(
+        jdbcRunner,
+        dialect,
+        table,
+        idColumn,
+        rowMapper,
+        availableCondition,
+        claimAssignments,
+        orderBy,
+        versionColumn,
+        minBatchSize,
+        maxBatchSize,
+        batchSize.get());
+  }
+
+  /** Numeric column incremented on every claim, required by {@link Dialect#OPTIMISTIC}. */
+  public QueueClaimer<T> withVersionColumn(String versionColumn) {
+    return new QueueClaimer<>(
+        jdbcRunner,
+        dialect,
+        table,
+        idColumn,
+        rowMapper,
+        availableCondition,
+        claimAssignments,
+        orderBy,
+        versionColumn,
+        minBatchSize,
+        maxBatchSize,
+        batchSize.get());
+  }
+
+  public QueueClaimer<T> withBatchSize(int min, int initial, int max) {
+    return new QueueClaimer<>(
+        jdbcRunner,
+        dialect,
+        table,
+        idColumn,
+        rowMapper,
+        availableCondition,
+        claimAssignments,
+        orderBy,
+        versionColumn,
+        min,
+        max,
+        initial);
+  }
+
+  /** Claims up to the current batch size of rows and commits. */
+  public List<T> claim() {
+    final int requested = batchSize.get();
+    final List<T> claimed = jdbcRunner.inTransaction(tx -> claim(tx, requested));
+    adapt(requested, claimed.size());
+    return claimed;
+  }
+
+  public int getBatchSize() {
+    return batchSize.get();
+  }
+
+  private List<T> claim(JdbcRunner tx, int requested) {
+    switch (dialect) {
+      case POSTGRESQL:
+        return tx.query(updateReturningSql(), ps -> ps.setInt(1, requested), rowMapper);
+      case MYSQL:
+        return claimSelected(tx, requested);
+      case OPTIMISTIC:
+        return claimOptimistic(tx, requested);
+      default:
+        throw new IllegalStateException("Unknown dialect " + dialect);
+    }
+  }
+
+  private List<T> claimSelected(JdbcRunner tx, int requested) {
+    final List<Claimable<T>> locked =
+        tx.query(
+            "SELECT * FROM "
+                + table
+                + " WHERE "
+                + availableCondition
+                + " ORDER BY "
+                + orderBy
+                + " LIMIT ? FOR UPDATE SKIP LOCKED",
+            ps -> ps.setInt(1, requested),
+            claimableMapper());
+    if (locked.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final String inList =
+        locked.stream().map(claimable -> "?").collect(Collectors.joining(",", "(", ")"));
+    tx.execute(
+        "UPDATE " + table + " SET " + claimAssignments + " WHERE " + idColumn + " IN " + inList,
+        ps -> {
+          for (int i = 0; i < locked.size(); i++) {
+            ps.setObject(i + 1, locked.get(i).id);
+          }
+        });
+    return locked.stream().map(claimable -> claimable.row).collect(Collectors.toList());
+  }
+
+  private List<T> claimOptimistic(JdbcRunner tx, int requested) {
+    if (versionColumn == null) {
+      throw new IllegalStateException("Dialect OPTIMISTIC requires a version column.");
+    }
+    final List<Claimable<T>> candidates =
+        tx.query(
+            "SELECT * FROM "
+                + table
+                + " WHERE "
+                + availableCondition
+                + " ORDER BY "
+                + orderBy
+                + " FETCH FIRST "
+                + requested
+                + " ROWS ONLY",
+            PreparedStatementSetter.NOOP,
+            claimableMapper());
+    if (candidates.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    final int[] updated =
+        tx.executeBatch(
+            "UPDATE "
+                + table
+                + " SET "
+                + claimAssignments
+                + ", "
+                + versionColumn
+                + " = "
+                + versionColumn
+                + " + 1 WHERE "
+                + idColumn
+                + " = ? AND "
+                + versionColumn
+                + " = ?",
+            candidates,
+            (candidate, ps) -> {
+              ps.setObject(1, candidate.id);
+              ps.setLong(2, candidate.version);
+            });
+
+    final List<T> claimed = new ArrayList<>(candidates.size());
+    for (int i = 0; i < candidates.size(); i++) {
+      if (updated[i] == Statement.SUCCESS_NO_INFO) {
+        // re-reading is no alternative, the new version might as well have been set by a
+        // competing claimer
+        throw new IllegalStateException(
+            "Dialect OPTIMISTIC requires per-statement batch update counts, but the driver"
+                + " returned SUCCESS_NO_INFO. Configure the driver to report update counts, or"
+                + " use another dialect.");
+      }
+      if (updated[i] == 1) {
+        claimed.add(candidates.get(i).row);
+      }
+    }
+    return claimed;
+  }
+
+  String updateReturningSql() {
+    return "UPDATE "
+        + table
+        + " SET "
+        + claimAssignments
+        + " WHERE "
+        + idColumn
+        + " IN (SELECT "
+        + idColumn
+        + " FROM "
+        + table
+        + " WHERE "
+        + availableCondition
+        + " ORDER BY "
+        + orderBy
+        + " LIMIT ? FOR UPDATE SKIP LOCKED) RETURNING *";
+  }
+
+  private void adapt(int requested, int claimed) {
+    if (claimed >= requested) {
+      batchSize.compareAndSet(requested, Math.min(maxBatchSize, requested * 2));
+    } else if (claimed < requested / 2) {
+      batchSize.compareAndSet(requested, Math.max(minBatchSize, requested / 2));
+    }
+  }
+
+  private RowMapper<Claimable<T>> claimableMapper() {
+    return rs ->
+        new Claimable<>(
+            rs.getObject(idColumn),
+            versionColumn != null ? rs.getLong(versionColumn) : 0,
+            rowMapper.map(rs));
+  }
+
+  private static class Claimable<T> {
+    private final Object id;
+    private final long version;
+    private final T row;
+
+    Claimable(Object id, long version, T row) {
+      this.id = id;
+      this.version = version;
+      this.row = row;
+    }
+  }
+}
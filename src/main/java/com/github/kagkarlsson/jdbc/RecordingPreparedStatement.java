@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.util.Map;
+
+/**
+ * Wraps a {@link PreparedStatement} and records the values bound through the <code>setXxx(int
+ * parameterIndex, value, ...)</code>-methods, while delegating everything to the real statement.
+ */
+class RecordingPreparedStatement implements InvocationHandler {
+
+  private final PreparedStatement delegate;
+  private final Map<Integer, Object> recordedParameters;
+
+  private RecordingPreparedStatement(
+      PreparedStatement delegate, Map<Integer, Object> recordedParameters) {
+    this.delegate = delegate;
+    this.recordedParameters = recordedParameters;
+  }
+
+  static PreparedStatement wrap(
+      PreparedStatement delegate, Map<Integer, Object> recordedParameters) {
+    return (PreparedStatement)
+        Proxy.newProxyInstance(
+            RecordingPreparedStatement.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class},
+            new RecordingPreparedStatement(delegate, recordedParameters));
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    if (isParameterSetter(method, args)) {
+      // setNull(index, sqlType) binds null, not the type-code
+      Object value = method.getName().equals("setNull") ? null : args[1];
+      recordedParameters.put((Integer) args[0], value);
+    }
+
+    try {
+      return method.invoke(delegate, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private static boolean isParameterSetter(Method method, Object[] args) {
+    // Statement-level setters (setFetchSize, setMaxRows, ..) all take a single argument
+    return args != null
+        && args.length >= 2
+        && method.getName().startsWith("set")
+        && method.getParameterTypes()[0] == int.class;
+  }
+}
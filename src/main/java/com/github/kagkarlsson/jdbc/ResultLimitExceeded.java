@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+/** Thrown when a query exceeds one of the {@link ResultLimits} of the {@link JdbcRunner}. */
+public class ResultLimitExceeded extends SQLRuntimeException {
+
+  public enum Limit {
+    ROWS,
+    BYTES,
+    TIME
+  }
+
+  private final Limit limit;
+
+  public ResultLimitExceeded(Limit limit, String message) {
+    super(message);
+    this.limit = limit;
+  }
+
+  public ResultLimitExceeded(Limit limit, String message, Throwable cause) {
+    super(message, cause, true);
+    this.limit = limit;
+  }
+
+  public Limit getLimit() {
+    return limit;
+  }
+}
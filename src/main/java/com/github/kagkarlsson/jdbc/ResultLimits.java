@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Guard rails for reading results, enabled using {@link JdbcRunner#withResultLimits}. Protects the
+ * heap from accidental unbounded reads by failing with a {@link ResultLimitExceeded} as soon as a
+ * query returns too many rows, too many (estimated) bytes or runs past its deadline.
+ *
+ * <p>Row and byte limits are enforced while mapping rows using a {@link RowMapper}. The time limit
+ * also covers execution, and statements still running at the deadline are cancelled using <code>
+ * Statement.cancel()</code> from the watchdog-executor.
+ */
+public class ResultLimits {
+  private static final Logger LOG = LoggerFactory.getLogger(ResultLimits.class);
+  private static final int MAX_ESTIMATED_COLUMN_BYTES = 4096;
+  private static final int ROW_OVERHEAD_BYTES = 16;
+  private static final int COLUMN_OVERHEAD_BYTES = 16;
+
+  private final long maxRows;
+  private final long maxBytes;
+  private final RowSizeEstimator rowSizeEstimator;
+  private final long timeoutNanos;
+  private final ScheduledExecutorService watchdog;
+
+  public ResultLimits() {
+    this(0, 0, null, 0, null);
+  }
+
+  private ResultLimits(
+      long maxRows,
+      long maxBytes,
+      RowSizeEstimator rowSizeEstimator,
+      long timeoutNanos,
+      ScheduledExecutorService watchdog) {
+    this.maxRows = maxRows;
+    this.maxBytes = maxBytes;
+    this.rowSizeEstimator = rowSizeEstimator;
+    this.timeoutNanos = timeoutNanos;
+    this.watchdog = watchdog;
+  }
+
+  public ResultLimits withMaxRows(long maxRows) {
+    return new ResultLimits(maxRows, maxBytes, rowSizeEstimator, timeoutNanos, watchdog);
+  }
+
+  /**
+   * Limit the estimated size of the rows read. Row-size is estimated from the types and sizes of
+   * the columns in the ResultSetMetaData.
+   */
+  public ResultLimits withMaxBytes(long maxBytes) {
+    return new ResultLimits(maxRows, maxBytes, null, timeoutNanos, watchdog);
+  }
+
+  /** Limit the size of the rows read, as estimated per row by the <code>RowSizeEstimator</code>. */
+  public ResultLimits withMaxBytes(long maxBytes, RowSizeEstimator rowSizeEstimator) {
+    return new ResultLimits(maxRows, maxBytes, rowSizeEstimator, timeoutNanos, watchdog);
+  }
+
+  /**
+   * Limit the time from start of execution until all rows are mapped. Statements are cancelled by a
+   * task scheduled on the <code>watchdog</code>.
+   */
+  public ResultLimits withTimeout(Duration timeout, ScheduledExecutorService watchdog) {
+    return new ResultLimits(maxRows, maxBytes, rowSizeEstimator, timeout.toNanos(), watchdog);
+  }
+
+  /**
+   * Max-rows for the statement, letting the database stop sending rows after the first row
+   * exceeding the limit.
+   */
+  int statementMaxRows() {
+    return maxRows > 0 && maxRows < Integer.MAX_VALUE ? (int) maxRows + 1 : 0;
+  }
+
+  Watchdog watch(Statement statement, Execution execution) {
+    if (timeoutNanos <= 0) {
+      return null;
+    }
+    final long remaining = execution.getStartedNanos() + timeoutNanos - System.nanoTime();
+    return new Watchdog(statement, watchdog, Math.max(remaining, 0));
+  }
+
+  Budget budget(Execution execution) {
+    return new Budget(timeoutNanos > 0 ? execution.getStartedNanos() + timeoutNanos : 0);
+  }
+
+  ResultLimitExceeded timeExceeded(Throwable cause) {
+    return new ResultLimitExceeded(
+        ResultLimitExceeded.Limit.TIME,
+        "Statement cancelled, exceeded time limit of "
+            + TimeUnit.NANOSECONDS.toMillis(timeoutNanos)
+            + " ms.",
+        cause);
+  }
+
+  /** Tracks the rows read from a single ResultSet. */
+  class Budget {
+    private final long deadlineNanos;
+    private long rows;
+    private long bytes;
+    private long fixedRowBytes = -1;
+
+    private Budget(long deadlineNanos) {
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    /** Must be called for each row, before it is mapped. */
+    void onRow(ResultSet rs) throws SQLException {
+      rows++;
+      if (maxRows > 0 && rows > maxRows) {
+        throw new ResultLimitExceeded(
+            ResultLimitExceeded.Limit.ROWS, "Query returned more than " + maxRows + " rows.");
+      }
+
+      if (maxBytes > 0) {
+        bytes += estimateBytes(rs);
+        if (bytes > maxBytes) {
+          throw new ResultLimitExceeded(
+              ResultLimitExceeded.Limit.BYTES,
+              "Query result exceeded estimated size of "
+                  + maxBytes
+                  + " bytes after "
+                  + rows
+                  + " rows.");
+        }
+      }
+
+      if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+        throw timeExceeded(null);
+      }
+    }
+
+    private long estimateBytes(ResultSet rs) throws SQLException {
+      if (rowSizeEstimator != null) {
+        return rowSizeEstimator.estimateBytes(rs);
+      }
+      if (fixedRowBytes < 0) {
+        fixedRowBytes = estimateFromColumns(rs.getMetaData());
+      }
+      return fixedRowBytes;
+    }
+  }
+
+  static long estimateFromColumns(ResultSetMetaData metaData) throws SQLException {
+    long estimate = ROW_OVERHEAD_BYTES;
+    for (int i = 1; i <= metaData.getColumnCount(); i++) {
+      estimate += COLUMN_OVERHEAD_BYTES + estimateColumnBytes(metaData, i);
+    }
+    return estimate;
+  }
+
+  private static long estimateColumnBytes(ResultSetMetaData metaData, int column)
+      throws SQLException {
+    switch (metaData.getColumnType(column)) {
+      case Types.BIT:
+      case Types.BOOLEAN:
+      case Types.TINYINT:
+        return 1;
+      case Types.SMALLINT:
+        return 2;
+      case Types.INTEGER:
+      case Types.REAL:
+        return 4;
+      case Types.BIGINT:
+      case Types.DOUBLE:
+      case Types.FLOAT:
+      case Types.DATE:
+        return 8;
+      case Types.TIME:
+      case Types.TIMESTAMP:
+      case Types.TIME_WITH_TIMEZONE:
+      case Types.TIMESTAMP_WITH_TIMEZONE:
+        return 16;
+      case Types.CHAR:
+      case Types.VARCHAR:
+      case Types.LONGVARCHAR:
+      case Types.NCHAR:
+      case Types.NVARCHAR:
+      case Types.LONGNVARCHAR:
+      case Types.CLOB:
+      case Types.NCLOB:
+        // UTF-16 in the heap
+        return 2L * cappedSize(metaData.getColumnDisplaySize(column));
+      default:
+        return cappedSize(Math.max(metaData.getPrecision(column), 8));
+    }
+  }
+
+  private static int cappedSize(int size) {
+    return size <= 0 ? MAX_ESTIMATED_COLUMN_BYTES : Math.min(size, MAX_ESTIMATED_COLUMN_BYTES);
+  }
+
+  /**
+   * Cancels a statement still running at the deadline. Firing and stopping are mutually exclusive,
+   * so that a statement is never cancelled after {@link #stop()} has returned, when it may already
+   * be closed or reused by a statement cache.
+   */
+  static class Watchdog implements Runnable {
+    private final Statement statement;
+    private final ScheduledFuture<?> scheduled;
+    private boolean fired;
+    private boolean stopped;
+
+    private Watchdog(Statement statement, ScheduledExecutorService executor, long delayNanos) {
+      this.statement = statement;
+      this.scheduled = executor.schedule(this, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void run() {
+      if (stopped) {
+        return;
+      }
+      fired = true;
+      try {
+        LOG.debug("Cancelling statement, exceeded time limit.");
+        statement.cancel();
+      } catch (SQLException | RuntimeException e) {
+        LOG.debug("Failed to cancel statement.", e);
+      }
+    }
+
+    /**
+     * Stops the watchdog, waiting for a cancel in progress to complete.
+     *
+     * @return true if the statement was cancelled
+     */
+    synchronized boolean stop() {
+      if (!stopped) {
+        stopped = true;
+        scheduled.cancel(false);
+      }
+      return fired;
+    }
+  }
+}
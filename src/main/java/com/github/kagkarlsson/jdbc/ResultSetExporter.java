@@ -0,0 +1,636 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams a <code>ResultSet</code> straight into a channel (typically a <code>FileChannel</code>)
+ * as CSV, TSV or a compact binary format, returning the number of exported rows. Use as the <code>
+ * ResultSetMapper</code> of a query, preferably with a fetch size so the driver streams as well.
+ *
+ * <p>Cells are encoded by type-specialized encoders into reusable direct buffers; integers,
+ * booleans and strings are written without creating intermediate <code>String</code>s or <code>
+ * byte[]</code>s. Optionally, compression and writing run on a separate thread, with the encoder
+ * filling one buffer while the other is being written.
+ *
+ * <p>Binary format: the bytes <code>MJX1</code>, column count (short), and per column name
+ * (length-prefixed UTF-8) and <code>java.sql.Types</code> code (int). Then per row the byte 1
+ * followed by the cells, and finally the byte 0. A cell starts with a null flag (byte 1 = null) and
+ * is otherwise a long, a double, a boolean byte or length-prefixed (int) bytes, depending on the
+ * column type. Strings are UTF-8.
+ *
+ * <p>The channel is not closed.
+ */
+public final class ResultSetExporter implements ResultSetMapper<Long> {
+
+  public enum Format {
+    CSV,
+    TSV,
+    BINARY
+  }
+
+  private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+  private static final byte[] MAGIC = {'M', 'J', 'X', '1'};
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TSV_NULL = "\\N".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] LONG_MIN =
+      Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+  private final WritableByteChannel channel;
+  private final Format format;
+  private final boolean header;
+  private final int bufferSize;
+  private final boolean gzip;
+  private final Executor writerExecutor;
+
+  private ResultSetExporter(
+      WritableByteChannel channel,
+      Format format,
+      boolean header,
+      int bufferSize,
+      boolean gzip,
+      Executor writerExecutor) {
+    this.channel = channel;
+    this.format = format;
+    this.header = header;
+    this.bufferSize = bufferSize;
+    this.gzip = gzip;
+    this.writerExecutor = writerExecutor;
+  }
+
+  /**
+   * Comma-separated, quoting values containing commas, quotes or line breaks. Null is written as
+   * nothing and the empty string as <code>""</code>, as e.g. PostgreSQL <code>COPY</code> expects.
+   */
+  public static ResultSetExporter csv(WritableByteChannel channel) {
+    return new ResultSetExporter(channel, Format.CSV, true, DEFAULT_BUFFER_SIZE, false, null);
+  }
+
+  /** Tab-separated, with tabs, line breaks and backslashes escaped and null as <code>\N</code>. */
+  public static ResultSetExporter tsv(WritableByteChannel channel) {
+    return new ResultSetExporter(channel, Format.TSV, true, DEFAULT_BUFFER_SIZE, false, null);
+  }
+
+  public static ResultSetExporter binary(WritableByteChannel channel) {
+    return new ResultSetExporter(channel, Format.BINARY, true, DEFAULT_BUFFER_SIZE, false, null);
+  }
+
+  /** Whether to write column names as the first line. Ignored for the binary format. */
+  public ResultSetExporter withHeader(boolean header) {
+    return new ResultSetExporter(channel, format, header, bufferSize, gzip, writerExecutor);
+  }
+
+  public ResultSetExporter withBufferSize(int bufferSize) {
+    return new ResultSetExporter(channel, format, header, bufferSize, gzip, writerExecutor);
+  }
+
+  public ResultSetExporter withGzip(boolean gzip) {
+    return new ResultSetExporter(channel, format, header, bufferSize, gzip, writerExecutor);
+  }
+
+  /**
+   * Compress and write on a thread of the executor, while the next buffer is encoded. The task
+   * occupies a thread for the whole export.
+   */
+  public ResultSetExporter withAsyncWriter(Executor writerExecutor) {
+    return new ResultSetExporter(channel, format, header, bufferSize, gzip, writerExecutor);
+  }
+
+  @Override
+  public Long map(ResultSet rs) throws SQLException {
+    Sink sink = gzip ? new GzipSink(channel, bufferSize) : new ChannelSink(channel);
+    boolean completed = false;
+    try {
+      final Output out;
+      if (writerExecutor != null) {
+        final AsyncSink async = new AsyncSink(sink, bufferSize);
+        writerExecutor.execute(async);
+        sink = async;
+        out = new Output(async, async.take());
+      } else {
+        out = new Output(sink, ByteBuffer.allocateDirect(bufferSize));
+      }
+
+      final long rows = export(rs, out);
+      out.flush();
+      sink.finish();
+      completed = true;
+      return rows;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      if (!completed) {
+        sink.abort();
+      }
+    }
+  }
+
+  private long export(ResultSet rs, Output out) throws SQLException, IOException {
+    final ResultSetMetaData metaData = rs.getMetaData();
+    final int columns = metaData.getColumnCount();
+    final int[] types = new int[columns + 1];
+    for (int i = 1; i <= columns; i++) {
+      types[i] = metaData.getColumnType(i);
+    }
+
+    if (format == Format.BINARY) {
+      out.bytes(MAGIC);
+      out.ensure(2);
+      out.buffer.putShort((short) columns);
+      for (int i = 1; i <= columns; i++) {
+        out.lengthPrefixedUtf8(metaData.getColumnLabel(i));
+        out.ensure(4);
+        out.buffer.putInt(types[i]);
+      }
+    } else if (header) {
+      for (int i = 1; i <= columns; i++) {
+        if (i > 1) {
+          out.ascii(delimiter());
+        }
+        text(out, metaData.getColumnLabel(i));
+      }
+      out.ascii('\n');
+    }
+
+    long rows = 0;
+    while (rs.next()) {
+      if (format == Format.BINARY) {
+        out.ensure(1);
+        out.buffer.put((byte) 1);
+        for (int i = 1; i <= columns; i++) {
+          binaryCell(rs, i, types[i], out);
+        }
+      } else {
+        for (int i = 1; i <= columns; i++) {
+          if (i > 1) {
+            out.ascii(delimiter());
+          }
+          textCell(rs, i, types[i], out);
+        }
+        out.ascii('\n');
+      }
+      rows++;
+    }
+    if (format == Format.BINARY) {
+      out.ensure(1);
+      out.buffer.put((byte) 0);
+    }
+    return rows;
+  }
+
+  private char delimiter() {
+    return format == Format.TSV ? '\t' : ',';
+  }
+
+  private void textCell(ResultSet rs, int column, int type, Output out)
+      throws SQLException, IOException {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        final long longValue = rs.getLong(column);
+        if (rs.wasNull()) {
+          textNull(out);
+        } else {
+          out.decimal(longValue);
+        }
+        return;
+      case Types.BOOLEAN:
+      case Types.BIT:
+        final boolean booleanValue = rs.getBoolean(column);
+        if (rs.wasNull()) {
+          textNull(out);
+        } else {
+          out.bytes(booleanValue ? TRUE : FALSE);
+        }
+        return;
+      default:
+        final String value = rs.getString(column);
+        if (value == null) {
+          textNull(out);
+        } else {
+          text(out, value);
+        }
+    }
+  }
+
+  private void textNull(Output out) throws IOException {
+    if (format == Format.TSV) {
+      out.bytes(TSV_NULL);
+    }
+  }
+
+  private void text(Output out, String value) throws IOException {
+    if (format == Format.TSV) {
+      out.utf8(value, Escape.TSV);
+    } else if (needsQuoting(value)) {
+      out.ascii('"');
+      out.utf8(value, Escape.CSV);
+      out.ascii('"');
+    } else {
+      out.utf8(value, Escape.NONE);
+    }
+  }
+
+  private static boolean needsQuoting(String value) {
+    if (value.isEmpty()) {
+      return true; // distinguishes it from null
+    }
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == ',' || c == '"' || c == '\n' || c == '\r') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void binaryCell(ResultSet rs, int column, int type, Output out)
+      throws SQLException, IOException {
+    switch (type) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        final long longValue = rs.getLong(column);
+        if (!binaryNull(rs, out)) {
+          out.ensure(8);
+          out.buffer.putLong(longValue);
+        }
+        return;
+      case Types.REAL:
+      case Types.FLOAT:
+      case Types.DOUBLE:
+        final double doubleValue = rs.getDouble(column);
+        if (!binaryNull(rs, out)) {
+          out.ensure(8);
+          out.buffer.putDouble(doubleValue);
+        }
+        return;
+      case Types.BOOLEAN:
+      case Types.BIT:
+        final boolean booleanValue = rs.getBoolean(column);
+        if (!binaryNull(rs, out)) {
+          out.ensure(1);
+          out.buffer.put((byte) (booleanValue ? 1 : 0));
+        }
+        return;
+      case Types.BINARY:
+      case Types.VARBINARY:
+      case Types.LONGVARBINARY:
+        final byte[] bytes = rs.getBytes(column);
+        if (!binaryNull(rs, out)) {
+          out.ensure(4);
+          out.buffer.putInt(bytes.length);
+          out.bytes(bytes);
+        }
+        return;
+      default:
+        final String value = rs.getString(column);
+        if (!binaryNull(rs, out)) {
+          out.lengthPrefixedUtf8(value);
+        }
+    }
+  }
+
+  private static boolean binaryNull(ResultSet rs, Output out) throws SQLException, IOException {
+    final boolean isNull = rs.wasNull();
+    out.ensure(1);
+    out.buffer.put((byte) (isNull ? 1 : 0));
+    return isNull;
+  }
+
+  private enum Escape {
+    NONE,
+    /** Double quotes, for quoted CSV fields. */
+    CSV,
+    /** Backslash-escape tab, line breaks and backslash. */
+    TSV
+  }
+
+  /** Encodes into the current buffer, handing it to the sink when full. */
+  private static final class Output {
+    private final Sink sink;
+    private ByteBuffer buffer;
+
+    Output(Sink sink, ByteBuffer buffer) {
+      this.sink = sink;
+      this.buffer = buffer;
+    }
+
+    void ensure(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException {
+      // through Buffer, since the covariant ByteBuffer overrides do not exist on Java 8
+      ((Buffer) buffer).flip();
+      buffer = sink.write(buffer);
+    }
+
+    void ascii(char c) throws IOException {
+      ensure(1);
+      buffer.put((byte) c);
+    }
+
+    void bytes(byte[] bytes) throws IOException {
+      int offset = 0;
+      while (offset < bytes.length) {
+        ensure(1);
+        final int length = Math.min(buffer.remaining(), bytes.length - offset);
+        buffer.put(bytes, offset, length);
+        offset += length;
+      }
+    }
+
+    void decimal(long value) throws IOException {
+      if (value == Long.MIN_VALUE) {
+        bytes(LONG_MIN);
+        return;
+      }
+      ensure(20);
+      if (value < 0) {
+        buffer.put((byte) '-');
+        value = -value;
+      }
+      final int start = buffer.position();
+      do {
+        buffer.put((byte) ('0' + value % 10));
+        value /= 10;
+      } while (value > 0);
+      // digits were written least significant first
+      for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+        final byte b = buffer.get(i);
+        buffer.put(i, buffer.get(j));
+        buffer.put(j, b);
+      }
+    }
+
+    void utf8(String value, Escape escape) throws IOException {
+      for (int i = 0; i < value.length(); i++) {
+        final char c = value.charAt(i);
+        ensure(4);
+        if (c < 0x80) {
+          if (escape == Escape.TSV && (c == '\t' || c == '\n' || c == '\r' || c == '\\')) {
+            buffer.put((byte) '\\');
+            buffer.put((byte) (c == '\t' ? 't' : c == '\n' ? 'n' : c == '\r' ? 'r' : '\\'));
+          } else if (escape == Escape.CSV && c == '"') {
+            buffer.put((byte) '"');
+            buffer.put((byte) '"');
+          } else {
+            buffer.put((byte) c);
+          }
+        } else if (c < 0x800) {
+          buffer.put((byte) (0xC0 | (c >> 6)));
+          buffer.put((byte) (0x80 | (c & 0x3F)));
+        } else if (Character.isHighSurrogate(c)
+            && i + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(i + 1))) {
+          final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+          buffer.put((byte) (0xF0 | (codePoint >> 18)));
+          buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+          buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+          buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+        } else if (Character.isSurrogate(c)) {
+          buffer.put((byte) '?'); // unpaired surrogate
+        } else {
+          buffer.put((byte) (0xE0 | (c >> 12)));
+          buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+          buffer.put((byte) (0x80 | (c & 0x3F)));
+        }
+      }
+    }
+
+    void lengthPrefixedUtf8(String value) throws IOException {
+      // reserve the length, and patch it when the string is written, if it fits the buffer
+      final int maxBytes = value.length() * 3 + 4;
+      if (maxBytes <= buffer.capacity()) {
+        ensure(maxBytes);
+        final int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        utf8(value, Escape.NONE);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+      } else {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(4);
+        buffer.putInt(bytes.length);
+        bytes(bytes);
+      }
+    }
+  }
+
+  private interface Sink {
+    /**
+     * Writes the flipped buffer.
+     *
+     * @return a cleared buffer to continue encoding into
+     */
+    ByteBuffer write(ByteBuffer buffer) throws IOException;
+
+    void finish() throws IOException;
+
+    default void abort() {}
+  }
+
+  private static final class ChannelSink implements Sink {
+    private final WritableByteChannel channel;
+
+    ChannelSink(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public ByteBuffer write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      ((Buffer) buffer).clear();
+      return buffer;
+    }
+
+    @Override
+    public void finish() {}
+  }
+
+  private static final class GzipSink implements Sink {
+    private final GZIPOutputStream gzip;
+    private final byte[] chunk = new byte[64 * 1024];
+
+    GzipSink(WritableByteChannel channel, int bufferSize) {
+      try {
+        this.gzip = new GZIPOutputStream(nonClosing(Channels.newOutputStream(channel)), bufferSize);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public ByteBuffer write(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        final int length = Math.min(chunk.length, buffer.remaining());
+        buffer.get(chunk, 0, length);
+        gzip.write(chunk, 0, length);
+      }
+      ((Buffer) buffer).clear();
+      return buffer;
+    }
+
+    @Override
+    public void finish() throws IOException {
+      gzip.finish();
+      gzip.flush();
+    }
+
+    private static OutputStream nonClosing(OutputStream out) {
+      return new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+          out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+          out.flush();
+        }
+      };
+    }
+  }
+
+  /** Double-buffered handoff to a writer thread. */
+  private static final class AsyncSink implements Sink, Runnable {
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final Sink delegate;
+    private final BlockingQueue<ByteBuffer> filled = new ArrayBlockingQueue<>(2);
+    private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(2);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Throwable failure;
+    private volatile boolean aborted;
+
+    AsyncSink(Sink delegate, int bufferSize) {
+      this.delegate = delegate;
+      free.add(ByteBuffer.allocateDirect(bufferSize));
+      free.add(ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final ByteBuffer buffer = filled.take();
+          if (buffer == END) {
+            break;
+          }
+          if (!aborted) {
+            delegate.write(buffer);
+          }
+          ((Buffer) buffer).clear();
+          free.put(buffer);
+        }
+        if (!aborted) {
+          delegate.finish();
+        }
+      } catch (IOException | RuntimeException e) {
+        failure = e;
+      } catch (InterruptedException e) {
+        failure = e;
+        Thread.currentThread().interrupt();
+      } finally {
+        if (failure != null) {
+          free.offer(ByteBuffer.allocate(0)); // unblock the encoder, which checks for failure
+        }
+        done.countDown();
+      }
+    }
+
+    ByteBuffer take() throws IOException {
+      try {
+        final ByteBuffer buffer = free.take();
+        checkFailure();
+        return buffer;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for export writer.", e);
+      }
+    }
+
+    @Override
+    public ByteBuffer write(ByteBuffer buffer) throws IOException {
+      checkFailure();
+      put(buffer);
+      return take();
+    }
+
+    @Override
+    public void finish() throws IOException {
+      put(END);
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for export writer.", e);
+      }
+      checkFailure();
+    }
+
+    @Override
+    public void abort() {
+      aborted = true;
+      // only the encoder puts, so after clearing there is room, even if it was interrupted
+      filled.clear();
+      filled.offer(END);
+    }
+
+    private void put(ByteBuffer buffer) throws IOException {
+      try {
+        filled.put(buffer);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for export writer.", e);
+      }
+    }
+
+    private void checkFailure() throws IOException {
+      if (failure != null) {
+        throw new IOException("Export writer failed.", failure);
+      }
+    }
+  }
+}
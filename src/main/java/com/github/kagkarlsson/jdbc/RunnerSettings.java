@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+/**
+ * Immutable set of optional features enabled for a {@link JdbcRunner}. Carried over to the runners
+ * created for transactions, so that statements behave the same inside and outside of <code>
+ * inTransaction(..)</code>.
+ */
+final class RunnerSettings {
+
+  static final RunnerSettings DEFAULTS = new RunnerSettings();
+
+  private SlowQueryLog slowQueryLog;
+  private boolean lazyTransactions;
+  private boolean lightweightExceptions;
+  private Bulkheads bulkheads;
+  private String statementClass;
+  private ResultLimits resultLimits;
+  private StatementProfiler profiler;
+  private Tracer tracer;
+  private FetchSizeTuner fetchSizeTuner;
+  private SQLExceptionTranslator exceptionTranslator = SQLExceptionTranslator.DEFAULT;
+
+  private RunnerSettings() {}
+
+  private RunnerSettings copy() {
+    RunnerSettings copy = new RunnerSettings();
+    copy.slowQueryLog = slowQueryLog;
+    copy.lazyTransactions = lazyTransactions;
+    copy.lightweightExceptions = lightweightExceptions;
+    copy.bulkheads = bulkheads;
+    copy.statementClass = statementClass;
+    copy.resultLimits = resultLimits;
+    copy.profiler = profiler;
+    copy.tracer = tracer;
+    copy.fetchSizeTuner = fetchSizeTuner;
+    copy.exceptionTranslator = exceptionTranslator;
+    return copy;
+  }
+
+  RunnerSettings withSlowQueryLog(SlowQueryLog slowQueryLog) {
+    RunnerSettings copy = copy();
+    copy.slowQueryLog = slowQueryLog;
+    return copy;
+  }
+
+  RunnerSettings withLazyTransactions(boolean lazyTransactions) {
+    RunnerSettings copy = copy();
+    copy.lazyTransactions = lazyTransactions;
+    return copy;
+  }
+
+  RunnerSettings withLightweightExceptions(boolean lightweightExceptions) {
+    RunnerSettings copy = copy();
+    copy.lightweightExceptions = lightweightExceptions;
+    return copy;
+  }
+
+  RunnerSettings withBulkheads(Bulkheads bulkheads) {
+    RunnerSettings copy = copy();
+    copy.bulkheads = bulkheads;
+    return copy;
+  }
+
+  RunnerSettings withStatementClass(String statementClass) {
+    RunnerSettings copy = copy();
+    copy.statementClass = statementClass;
+    return copy;
+  }
+
+  RunnerSettings withResultLimits(ResultLimits resultLimits) {
+    RunnerSettings copy = copy();
+    copy.resultLimits = resultLimits;
+    return copy;
+  }
+
+  RunnerSettings withProfiler(StatementProfiler profiler) {
+    RunnerSettings copy = copy();
+    copy.profiler = profiler;
+    return copy;
+  }
+
+  RunnerSettings withTracer(Tracer tracer) {
+    RunnerSettings copy = copy();
+    copy.tracer = tracer;
+    return copy;
+  }
+
+  RunnerSettings withFetchSizeTuner(FetchSizeTuner fetchSizeTuner) {
+    RunnerSettings copy = copy();
+    copy.fetchSizeTuner = fetchSizeTuner;
+    return copy;
+  }
+
+  RunnerSettings withExceptionTranslator(SQLExceptionTranslator exceptionTranslator) {
+    RunnerSettings copy = copy();
+    copy.exceptionTranslator = exceptionTranslator;
+    return copy;
+  }
+
+  SlowQueryLog getSlowQueryLog() {
+    return slowQueryLog;
+  }
+
+  boolean isLazyTransactions() {
+    return lazyTransactions;
+  }
+
+  boolean isLightweightExceptions() {
+    return lightweightExceptions;
+  }
+
+  StatementProfiler getProfiler() {
+    return profiler;
+  }
+
+  /**
+   * @return the tracer, or null if tracing is disabled
+   */
+  Tracer getTracer() {
+    return tracer;
+  }
+
+  FetchSizeTuner getFetchSizeTuner() {
+    return fetchSizeTuner;
+  }
+
+  SQLExceptionTranslator getExceptionTranslator() {
+    return exceptionTranslator;
+  }
+
+  ResultLimits getResultLimits() {
+    return resultLimits;
+  }
+
+  /** Whether any enabled feature uses the timestamps of statement executions. */
+  boolean isTimed() {
+    return slowQueryLog != null || profiler != null || tracer != null || resultLimits != null;
+  }
+
+  /**
+   * @return the bulkhead limiting the statement, or null if not limited
+   */
+  Bulkhead bulkheadFor(String sql) {
+    return bulkheads != null ? bulkheads.bulkheadFor(sql, statementClass) : null;
+  }
+}
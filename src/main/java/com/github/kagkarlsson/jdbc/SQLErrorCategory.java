@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Category of a database failure, determined from the SQLState (and for some widely used drivers
+ * the vendor error code) rather than the driver-specific exception type.
+ */
+public enum SQLErrorCategory {
+  DUPLICATE_KEY,
+  FOREIGN_KEY_VIOLATION,
+  /** Other integrity constraint violations, e.g. not-null or check constraints. */
+  INTEGRITY_CONSTRAINT,
+  /** Deadlock or serialization failure, the transaction was rolled back and may be retried. */
+  DEADLOCK,
+  TIMEOUT,
+  CONNECTION_LOST,
+  OTHER;
+
+  // MySQL/MariaDB vendor codes, as they report several categories using SQLState 23000/HY000.
+  // Only consulted together with the matching SQLState, other drivers use these codes for
+  // unrelated errors.
+  private static final int MYSQL_DUPLICATE_KEY = 1062;
+  private static final int MYSQL_FOREIGN_KEY_PARENT = 1451;
+  private static final int MYSQL_FOREIGN_KEY_CHILD = 1452;
+  private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+  public static SQLErrorCategory classify(SQLException e) {
+    final String sqlState = e.getSQLState() != null ? e.getSQLState() : "";
+    final int mysqlIntegrityCode = sqlState.equals("23000") ? e.getErrorCode() : 0;
+
+    if (sqlState.equals("23505") || mysqlIntegrityCode == MYSQL_DUPLICATE_KEY) {
+      return DUPLICATE_KEY;
+    }
+    if (sqlState.equals("23503")
+        || mysqlIntegrityCode == MYSQL_FOREIGN_KEY_PARENT
+        || mysqlIntegrityCode == MYSQL_FOREIGN_KEY_CHILD) {
+      return FOREIGN_KEY_VIOLATION;
+    }
+    if (sqlState.startsWith("23") || e instanceof SQLIntegrityConstraintViolationException) {
+      return INTEGRITY_CONSTRAINT;
+    }
+    // 40001 also covers MySQL deadlocks (1213)
+    if (sqlState.equals("40001")
+        || sqlState.equals("40P01")
+        || e instanceof SQLTransactionRollbackException) {
+      return DEADLOCK;
+    }
+    if (sqlState.equals("57014")
+        || sqlState.equals("HYT00")
+        || sqlState.equals("HYT01")
+        || (sqlState.equals("HY000") && e.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT)
+        || e instanceof SQLTimeoutException) {
+      return TIMEOUT;
+    }
+    if (sqlState.startsWith("08")
+        || e instanceof SQLNonTransientConnectionException
+        || e instanceof SQLTransientConnectionException
+        || e instanceof SQLRecoverableException) {
+      return CONNECTION_LOST;
+    }
+    return OTHER;
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Translates <code>SQLException</code> into the {@link SQLRuntimeException} subtype of its {@link
+ * SQLErrorCategory}. Categories that are normal outcomes for an application (e.g. duplicate keys on
+ * idempotent inserts) can be made lightweight, skipping the cost of capturing a stack trace.
+ */
+public class SQLExceptionTranslator {
+
+  public static final SQLExceptionTranslator DEFAULT =
+      new SQLExceptionTranslator(Collections.emptySet());
+
+  private final Set<SQLErrorCategory> lightweight;
+
+  private SQLExceptionTranslator(Set<SQLErrorCategory> lightweight) {
+    this.lightweight = lightweight;
+  }
+
+  /** Returns a translator creating exceptions without stack trace for the given categories. */
+  public SQLExceptionTranslator withLightweight(SQLErrorCategory... categories) {
+    final Set<SQLErrorCategory> copy = EnumSet.noneOf(SQLErrorCategory.class);
+    copy.addAll(lightweight);
+    copy.addAll(Arrays.asList(categories));
+    return new SQLExceptionTranslator(Collections.unmodifiableSet(copy));
+  }
+
+  public SQLRuntimeException translate(SQLException ex) {
+    final SQLErrorCategory category = SQLErrorCategory.classify(ex);
+    final boolean writableStackTrace = !lightweight.contains(category);
+    switch (category) {
+      case DUPLICATE_KEY:
+        return new DuplicateKey(ex, writableStackTrace);
+      case FOREIGN_KEY_VIOLATION:
+        return new ForeignKeyViolation(ex, writableStackTrace);
+      case INTEGRITY_CONSTRAINT:
+        return new IntegrityConstraintViolation(ex, writableStackTrace);
+      case DEADLOCK:
+        return new DeadlockDetected(ex, writableStackTrace);
+      case TIMEOUT:
+        return new StatementTimeout(ex, writableStackTrace);
+      case CONNECTION_LOST:
+        return new ConnectionLost(ex, writableStackTrace);
+      default:
+        return new SQLRuntimeException(ex);
+    }
+  }
+}
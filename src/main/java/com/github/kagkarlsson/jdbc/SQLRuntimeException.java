@@ -32,4 +32,12 @@ public class SQLRuntimeException extends RuntimeException {
   public SQLRuntimeException(String message, SQLException cause) {
     super(message, cause);
   }
+
+  /**
+   * @param writableStackTrace false to skip capturing the stack trace, for exceptions signalling
+   *     expected outcomes where the cost of <code>fillInStackTrace()</code> is not wanted
+   */
+  protected SQLRuntimeException(String message, Throwable cause, boolean writableStackTrace) {
+    super(message, cause, true, writableStackTrace);
+  }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Supplies the same physical connection for all statements of a session, see {@link
+ * JdbcRunner#inSession(java.util.function.Function)}. Closing the supplied connection is a no-op.
+ * Prepared statements are kept open and reused for the same SQL, with parameters and changed limits
+ * reset when the caller closes them.
+ */
+class SessionConnectionSupplier implements ConnectionSupplier, InvocationHandler {
+  private static final int MAX_CACHED_STATEMENTS = 64;
+
+  private final ConnectionSupplier connectionSupplier;
+  private final Connection physical;
+  private final Connection proxy;
+  private final Map<String, CachedStatement> statements =
+      new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+          if (size() > MAX_CACHED_STATEMENTS) {
+            eldest.getValue().evict();
+            return true;
+          }
+          return false;
+        }
+      };
+
+  SessionConnectionSupplier(ConnectionSupplier connectionSupplier, Connection physical) {
+    this.connectionSupplier = connectionSupplier;
+    this.physical = physical;
+    this.proxy =
+        (Connection)
+            Proxy.newProxyInstance(
+                SessionConnectionSupplier.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                this);
+  }
+
+  @Override
+  public Connection getConnection() {
+    return proxy;
+  }
+
+  @Override
+  public boolean commitWhenAutocommitDisabled() {
+    return connectionSupplier.commitWhenAutocommitDisabled();
+  }
+
+  @Override
+  public boolean isExternallyManagedConnection() {
+    return false;
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "SessionConnection[" + physical + "]";
+      case "close":
+        return null;
+      case "prepareStatement":
+        if (args.length == 1) {
+          return prepareStatement((String) args[0]);
+        }
+        break;
+      default:
+        break;
+    }
+
+    try {
+      return method.invoke(physical, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private PreparedStatement prepareStatement(String sql) throws SQLException {
+    CachedStatement cached = statements.get(sql);
+    if (cached == null) {
+      cached = new CachedStatement(physical.prepareStatement(sql));
+      statements.put(sql, cached);
+    } else if (cached.inUse) {
+      // e.g. same query run from a mapper, re-executing would close the open ResultSet
+      return physical.prepareStatement(sql);
+    }
+    cached.inUse = true;
+    return cached.proxy;
+  }
+
+  /** Closes cached statements and the physical connection. */
+  void close() {
+    for (CachedStatement cached : new ArrayList<>(statements.values())) {
+      cached.evict();
+    }
+    statements.clear();
+    JdbcRunner.nonThrowingClose(physical);
+  }
+
+  private static class CachedStatement implements InvocationHandler {
+    private final PreparedStatement physical;
+    private final PreparedStatement proxy;
+    private final Set<String> modified = new HashSet<>();
+    private boolean inUse;
+    private boolean evicted;
+
+    CachedStatement(PreparedStatement physical) {
+      this.physical = physical;
+      this.proxy =
+          (PreparedStatement)
+              Proxy.newProxyInstance(
+                  SessionConnectionSupplier.class.getClassLoader(),
+                  new Class<?>[] {PreparedStatement.class},
+                  this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        case "close":
+          release();
+          return null;
+        case "isClosed":
+          return !inUse;
+        case "setMaxRows":
+        case "setLargeMaxRows":
+        case "setQueryTimeout":
+        case "setFetchSize":
+        case "addBatch":
+          modified.add(method.getName());
+          break;
+        default:
+          break;
+      }
+
+      try {
+        return method.invoke(physical, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    private void release() throws SQLException {
+      if (!inUse) {
+        return;
+      }
+      inUse = false;
+      if (evicted) {
+        physical.close();
+        return;
+      }
+      physical.clearParameters();
+      if (modified.isEmpty()) {
+        return;
+      }
+      if (modified.contains("setMaxRows") || modified.contains("setLargeMaxRows")) {
+        physical.setMaxRows(0);
+      }
+      if (modified.contains("setQueryTimeout")) {
+        physical.setQueryTimeout(0);
+      }
+      if (modified.contains("setFetchSize")) {
+        physical.setFetchSize(0);
+      }
+      if (modified.contains("addBatch")) {
+        physical.clearBatch();
+      }
+      modified.clear();
+    }
+
+    void evict() {
+      evicted = true;
+      if (!inUse) {
+        JdbcRunner.nonThrowingClose(physical);
+      }
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Opt-in detector for slow statements, enabled using {@link JdbcRunner#withSlowQueryLog}.
+ * Statements taking longer than the threshold are logged with row count and a breakdown of where
+ * the time was spent, and optionally their bound parameters. Logging is rate-limited, so a slow
+ * database cannot turn the logger itself into a bottleneck.
+ *
+ * <p>Parameters may contain personal data or secrets, so they are not logged unless enabled using
+ * {@link #withParameterSampleRate}. They are captured by wrapping the statement passed to the
+ * {@link PreparedStatementSetter}. Since it is not known beforehand whether a statement will be
+ * slow, capturing can be sampled to reduce overhead on hot paths.
+ */
+public class SlowQueryLog {
+  private static final Logger LOG = LoggerFactory.getLogger(SlowQueryLog.class);
+  private static final int MAX_PARAMETER_LENGTH = 100;
+  private static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final long thresholdNanos;
+  private final double parameterSampleRate;
+  private final Set<Integer> redactedParameters;
+  private final int maxLogsPerSecond;
+  private final ConnectionSupplier explainConnections;
+  private final Executor explainExecutor;
+  private final String explainPrefix;
+
+  private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+  private final AtomicInteger logsInWindow = new AtomicInteger();
+  private final AtomicLong suppressed = new AtomicLong();
+  private final AtomicBoolean explainRunning = new AtomicBoolean();
+
+  public SlowQueryLog(Duration threshold) {
+    this(threshold.toNanos(), 0.0, Collections.emptySet(), 10, null, null, null);
+  }
+
+  private SlowQueryLog(
+      long thresholdNanos,
+      double parameterSampleRate,
+      Set<Integer> redactedParameters,
+      int maxLogsPerSecond,
+      ConnectionSupplier explainConnections,
+      Executor explainExecutor,
+      String explainPrefix) {
+    this.thresholdNanos = thresholdNanos;
+    this.parameterSampleRate = parameterSampleRate;
+    this.redactedParameters = redactedParameters;
+    this.maxLogsPerSecond = maxLogsPerSecond;
+    this.explainConnections = explainConnections;
+    this.explainExecutor = explainExecutor;
+    this.explainPrefix = explainPrefix;
+  }
+
+  /**
+   * Fraction of executions (0.0 - 1.0) that should have their parameters captured and logged.
+   * Defaults to 0.0, i.e. parameters are never logged. Use {@link #withRedactedParameters} for
+   * sensitive parameters.
+   */
+  public SlowQueryLog withParameterSampleRate(double parameterSampleRate) {
+    return new SlowQueryLog(
+        thresholdNanos,
+        parameterSampleRate,
+        redactedParameters,
+        maxLogsPerSecond,
+        explainConnections,
+        explainExecutor,
+        explainPrefix);
+  }
+
+  /** Parameters (1-based, as in JDBC) that should never be logged, e.g. passwords or tokens. */
+  public SlowQueryLog withRedactedParameters(int... parameterIndexes) {
+    Set<Integer> redacted = new HashSet<>();
+    for (int parameterIndex : parameterIndexes) {
+      redacted.add(parameterIndex);
+    }
+    return new SlowQueryLog(
+        thresholdNanos,
+        parameterSampleRate,
+        Collections.unmodifiableSet(redacted),
+        maxLogsPerSecond,
+        explainConnections,
+        explainExecutor,
+        explainPrefix);
+  }
+
+  /** Maximum number of slow statements logged per second. Defaults to 10. */
+  public SlowQueryLog withMaxLogsPerSecond(int maxLogsPerSecond) {
+    return new SlowQueryLog(
+        thresholdNanos,
+        parameterSampleRate,
+        redactedParameters,
+        maxLogsPerSecond,
+        explainConnections,
+        explainExecutor,
+        explainPrefix);
+  }
+
+  /**
+   * Also log the execution plan of slow statements. The plan is fetched asynchronously on the
+   * executor, using a separate connection, by running the statement prefixed with <code>
+   * explainPrefix</code> (e.g. <code>"EXPLAIN "</code> for PostgreSQL and MySQL). At most one plan
+   * is fetched at a time, and only for statements whose parameters were captured.
+   */
+  public SlowQueryLog withExplain(
+      ConnectionSupplier explainConnections, Executor explainExecutor, String explainPrefix) {
+    return new SlowQueryLog(
+        thresholdNanos,
+        parameterSampleRate,
+        redactedParameters,
+        maxLogsPerSecond,
+        explainConnections,
+        explainExecutor,
+        explainPrefix);
+  }
+
+  boolean shouldRecordParameters() {
+    return parameterSampleRate >= 1.0
+        || (parameterSampleRate > 0.0
+            && ThreadLocalRandom.current().nextDouble() < parameterSampleRate);
+  }
+
+  void onExecution(Execution execution) {
+    if (execution.getTotalNanos() < thresholdNanos || !tryAcquireLogPermit()) {
+      return;
+    }
+
+    long suppressedSinceLast = suppressed.getAndSet(0);
+    LOG.warn(
+        "Slow statement, took {} ms (threshold {} ms, rows {}{}): {} parameters={} "
+            + "[acquire={} ms, prepare={} ms, bind={} ms, execute={} ms, map={} ms, "
+            + "release={} ms]",
+        millis(execution.getTotalNanos()),
+        millis(thresholdNanos),
+        execution.getRows(),
+        suppressedSinceLast > 0 ? ", " + suppressedSinceLast + " slow statements not logged" : "",
+        execution.getSql(),
+        formatParameters(execution.getParameters()),
+        millis(execution.getAcquireNanos()),
+        millis(execution.getPrepareNanos()),
+        millis(execution.getBindNanos()),
+        millis(execution.getExecuteNanos()),
+        millis(execution.getMapNanos()),
+        millis(execution.getReleaseNanos()),
+        execution.getFailure());
+
+    if (explainExecutor != null) {
+      explainAsync(execution);
+    }
+  }
+
+  private boolean tryAcquireLogPermit() {
+    long now = System.nanoTime();
+    long currentWindow = windowStart.get();
+    if (now - currentWindow >= ONE_SECOND && windowStart.compareAndSet(currentWindow, now)) {
+      logsInWindow.set(0);
+    }
+
+    if (logsInWindow.incrementAndGet() <= maxLogsPerSecond) {
+      return true;
+    }
+    suppressed.incrementAndGet();
+    return false;
+  }
+
+  private void explainAsync(Execution execution) {
+    final Map<Integer, Object> parameters = execution.getParameters();
+    if (parameters == null && execution.getSql().indexOf('?') >= 0) {
+      LOG.debug("Not explaining statement, parameters were not captured.");
+      return;
+    }
+    if (!explainRunning.compareAndSet(false, true)) {
+      LOG.debug("Not explaining statement, already explaining another statement.");
+      return;
+    }
+
+    try {
+      explainExecutor.execute(
+          () -> {
+            try {
+              explain(execution.getSql(), parameters);
+            } catch (RuntimeException e) {
+              LOG.debug("Failed to explain statement: " + execution.getSql(), e);
+            } finally {
+              explainRunning.set(false);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      explainRunning.set(false);
+      LOG.debug("Explain-executor rejected task.", e);
+    }
+  }
+
+  private void explain(String sql, Map<Integer, Object> parameters) {
+    final JdbcRunner jdbc =
+        new JdbcRunner(explainConnections, new ThreadLocalTransactionContextProvider());
+    final ResultSetMapper<String> planLines =
+        rs -> {
+          StringBuilder lines = new StringBuilder();
+          while (rs.next()) {
+            lines.append('\n').append(rs.getString(1));
+          }
+          return lines.toString();
+        };
+    final String plan =
+        jdbc.query(
+            explainPrefix + sql,
+            ps -> {
+              if (parameters != null) {
+                for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+                  ps.setObject(parameter.getKey(), parameter.getValue());
+                }
+              }
+            },
+            planLines);
+    LOG.warn("Execution plan for slow statement: {}{}", sql, plan);
+  }
+
+  private String formatParameters(Map<Integer, Object> parameters) {
+    if (parameters == null) {
+      return "<not captured>";
+    }
+
+    StringBuilder formatted = new StringBuilder("[");
+    for (Map.Entry<Integer, Object> parameter : parameters.entrySet()) {
+      if (formatted.length() > 1) {
+        formatted.append(", ");
+      }
+      formatted.append(parameter.getKey()).append('=');
+      if (redactedParameters.contains(parameter.getKey())) {
+        formatted.append("***");
+      } else {
+        formatted.append(formatValue(parameter.getValue()));
+      }
+    }
+    return formatted.append(']').toString();
+  }
+
+  private static String formatValue(Object value) {
+    if (value == null) {
+      return "null";
+    } else if (value instanceof byte[]) {
+      return "<" + ((byte[]) value).length + " bytes>";
+    } else if (value instanceof InputStream
+        || value instanceof Reader
+        || value instanceof Blob
+        || value instanceof Clob) {
+      return "<" + value.getClass().getSimpleName() + ">";
+    }
+
+    String asString = String.valueOf(value);
+    if (asString.length() > MAX_PARAMETER_LENGTH) {
+      asString = asString.substring(0, MAX_PARAMETER_LENGTH) + "...";
+    }
+    return value instanceof CharSequence ? "'" + asString + "'" : asString;
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+}
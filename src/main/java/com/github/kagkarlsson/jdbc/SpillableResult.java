@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Query result kept in a compact binary format instead of as Java objects, for results that need
+ * random access but may be too large for the heap. Rows are encoded into an in-heap buffer, and
+ * once that is full into memory-mapped segments of a temp file. Rows are decoded lazily on {@link
+ * #get(int)}, so each call returns a new instance.
+ *
+ * <p>Create using {@link #mapper(RowCodec)} and close when done, which deletes the temp file. The
+ * file is not registered for deletion on JVM exit, so a result that is never closed leaves it
+ * behind. The mappings themselves are released when garbage collected. Read-only once mapped, and
+ * safe for concurrent reads.
+ */
+public final class SpillableResult<T> extends AbstractList<T>
+    implements RandomAccess, AutoCloseable {
+
+  private static final int DEFAULT_HEAP_BYTES = 8 * 1024 * 1024;
+  private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+  /** Encodes a row of the <code>ResultSet</code> and decodes it back as <code>T</code>. */
+  public interface RowCodec<T> {
+
+    void encode(ResultSet rs, DataOutput out) throws SQLException, IOException;
+
+    T decode(DataInput in) throws IOException;
+  }
+
+  private final RowCodec<T> codec;
+  private final int heapBytes;
+  private final int segmentBytes;
+  private final Path directory;
+  private final List<ByteBuffer> segments = new ArrayList<>();
+  // per row: segment index in the upper, offset in the lower 32 bits
+  private long[] positions = new long[64];
+  private int[] lengths = new int[64];
+  private int size;
+  private Path file;
+  private FileChannel channel;
+  private long fileSize;
+  private long spilledBytes;
+
+  private SpillableResult(RowCodec<T> codec, int heapBytes, int segmentBytes, Path directory) {
+    this.codec = codec;
+    this.heapBytes = heapBytes;
+    this.segmentBytes = segmentBytes;
+    this.directory = directory;
+    segments.add(ByteBuffer.allocate(Math.min(heapBytes, 4096)));
+  }
+
+  /**
+   * @return a mapper reading the whole result into a <code>SpillableResult</code>, spilling to temp
+   *     files in the default temp directory after 8 MB
+   */
+  public static <T> ResultSetMapper<SpillableResult<T>> mapper(RowCodec<T> codec) {
+    return mapper(codec, DEFAULT_HEAP_BYTES, DEFAULT_SEGMENT_BYTES, null);
+  }
+
+  /**
+   * @param heapBytes size of the in-heap buffer, filled before spilling to disk
+   * @param segmentBytes size of each memory-mapped segment of the temp file
+   * @param directory where to create temp files, or null for the default temp directory
+   */
+  public static <T> ResultSetMapper<SpillableResult<T>> mapper(
+      RowCodec<T> codec, int heapBytes, int segmentBytes, Path directory) {
+    return rs -> {
+      final SpillableResult<T> result =
+          new SpillableResult<>(codec, heapBytes, segmentBytes, directory);
+      try {
+        final ExposedByteArrayOutputStream row = new ExposedByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(row);
+        while (rs.next()) {
+          row.reset();
+          codec.encode(rs, out);
+          out.flush();
+          result.append(row.buffer(), row.size());
+        }
+        return result;
+      } catch (IOException e) {
+        result.close();
+        throw new UncheckedIOException(e);
+      } catch (SQLException | RuntimeException e) {
+        result.close();
+        throw e;
+      }
+    };
+  }
+
+  /**
+   * @return a codec for all columns, decoded as <code>Object[]</code>. Supports numbers, strings,
+   *     booleans, timestamps and byte arrays. Values are widened on decode: integer types
+   *     (including <code>Integer</code>, <code>Short</code> and <code>Byte</code>) are returned as
+   *     <code>Long</code>, <code>Float</code> as <code>Double</code>, and dates and times as <code>
+   *     Timestamp</code>.
+   */
+  public static RowCodec<Object[]> columns() {
+    return COLUMNS;
+  }
+
+  @Override
+  public T get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+    final long position = positions[index];
+    final ByteBuffer row = segments.get((int) (position >>> 32)).duplicate();
+    // through Buffer, since the covariant ByteBuffer overrides do not exist on Java 8
+    ((Buffer) row).position((int) position);
+    ((Buffer) row).limit((int) position + lengths[index]);
+    try {
+      return codec.decode(new DataInputStream(new Lobs.ByteBufferInputStream(row)));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Bytes of encoded rows spilled to disk. The temp file is larger, since it is mapped a whole
+   * segment at a time.
+   */
+  public long getSpilledBytes() {
+    return spilledBytes;
+  }
+
+  @Override
+  public void close() {
+    segments.clear();
+    size = 0;
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      if (file != null) {
+        Files.deleteIfExists(file);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      channel = null;
+      file = null;
+    }
+  }
+
+  private void append(byte[] row, int length) throws IOException {
+    ByteBuffer segment = segments.get(segments.size() - 1);
+    if (segment.remaining() < length) {
+      segment =
+          channel == null && segment.position() + length <= heapBytes
+              ? growHeapBuffer(segment, length)
+              : spill(length);
+    }
+    if (size == positions.length) {
+      positions = Arrays.copyOf(positions, size * 2);
+      lengths = Arrays.copyOf(lengths, size * 2);
+    }
+    positions[size] = ((long) (segments.size() - 1) << 32) | segment.position();
+    lengths[size] = length;
+    segment.put(row, 0, length);
+    if (channel != null) {
+      spilledBytes += length;
+    }
+    size++;
+  }
+
+  private ByteBuffer growHeapBuffer(ByteBuffer heapBuffer, int length) {
+    final int capacity =
+        Math.min(heapBytes, Math.max(heapBuffer.capacity() * 2, heapBuffer.position() + length));
+    final ByteBuffer grown = ByteBuffer.allocate(capacity);
+    ((Buffer) heapBuffer).flip();
+    grown.put(heapBuffer);
+    segments.set(0, grown);
+    return grown;
+  }
+
+  private ByteBuffer spill(int minimumBytes) throws IOException {
+    if (channel == null) {
+      file =
+          directory != null
+              ? Files.createTempFile(directory, "spillable-result", ".bin")
+              : Files.createTempFile("spillable-result", ".bin");
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+    // rows never span segments, a segment is grown to fit an oversized row
+    final int segmentSize = Math.max(segmentBytes, minimumBytes);
+    final ByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, segmentSize);
+    fileSize += segmentSize;
+    segments.add(segment);
+    return segment;
+  }
+
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    byte[] buffer() {
+      return buf;
+    }
+  }
+
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte DOUBLE = 2;
+  private static final byte STRING = 3;
+  private static final byte BYTES = 4;
+  private static final byte DECIMAL = 5;
+  private static final byte BOOLEAN = 6;
+  private static final byte TIMESTAMP = 7;
+
+  private static final RowCodec<Object[]> COLUMNS =
+      new RowCodec<Object[]>() {
+        @Override
+        public void encode(ResultSet rs, DataOutput out) throws SQLException, IOException {
+          final int columns = rs.getMetaData().getColumnCount();
+          out.writeShort(columns);
+          for (int i = 1; i <= columns; i++) {
+            final Object value = rs.getObject(i);
+            if (value == null) {
+              out.writeByte(NULL);
+            } else if (value instanceof Long
+                || value instanceof Integer
+                || value instanceof Short
+                || value instanceof Byte) {
+              out.writeByte(LONG);
+              out.writeLong(((Number) value).longValue());
+            } else if (value instanceof Double || value instanceof Float) {
+              out.writeByte(DOUBLE);
+              out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof BigDecimal) {
+              out.writeByte(DECIMAL);
+              writeBytes(out, value.toString().getBytes(StandardCharsets.UTF_8));
+            } else if (value instanceof Boolean) {
+              out.writeByte(BOOLEAN);
+              out.writeBoolean((Boolean) value);
+            } else if (value instanceof java.util.Date) {
+              final Timestamp timestamp = rs.getTimestamp(i);
+              out.writeByte(TIMESTAMP);
+              out.writeLong(timestamp.getTime());
+              out.writeInt(timestamp.getNanos());
+            } else if (value instanceof byte[]) {
+              out.writeByte(BYTES);
+              writeBytes(out, (byte[]) value);
+            } else {
+              out.writeByte(STRING);
+              writeBytes(out, rs.getString(i).getBytes(StandardCharsets.UTF_8));
+            }
+          }
+        }
+
+        @Override
+        public Object[] decode(DataInput in) throws IOException {
+          final Object[] row = new Object[in.readUnsignedShort()];
+          for (int i = 0; i < row.length; i++) {
+            final byte type = in.readByte();
+            switch (type) {
+              case NULL:
+                break;
+              case LONG:
+                row[i] = in.readLong();
+                break;
+              case DOUBLE:
+                row[i] = in.readDouble();
+                break;
+              case DECIMAL:
+                row[i] = new BigDecimal(new String(readBytes(in), StandardCharsets.UTF_8));
+                break;
+              case BOOLEAN:
+                row[i] = in.readBoolean();
+                break;
+              case TIMESTAMP:
+                final Timestamp timestamp = new Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                row[i] = timestamp;
+                break;
+              case BYTES:
+                row[i] = readBytes(in);
+                break;
+              case STRING:
+                row[i] = new String(readBytes(in), StandardCharsets.UTF_8);
+                break;
+              default:
+                throw new IOException("Unknown column type " + type);
+            }
+          }
+          return row;
+        }
+      };
+
+  private static void writeBytes(DataOutput out, byte[] bytes) throws IOException {
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+/**
+ * Replaces literals in SQL with <code>?</code> and collapses whitespace, so that statements can be
+ * reported without leaking values and grouped regardless of inlined constants.
+ */
+final class SqlNormalizer {
+
+  private SqlNormalizer() {}
+
+  static String normalize(String sql) {
+    final StringBuilder normalized = new StringBuilder(sql.length());
+    final int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      final char c = sql.charAt(i);
+      if (c == '\'') {
+        i = skipQuoted(sql, i);
+        normalized.append('?');
+      } else if (Character.isDigit(c) && !partOfIdentifier(normalized)) {
+        while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+          i++;
+        }
+        normalized.append('?');
+      } else if (Character.isWhitespace(c)) {
+        while (i < length && Character.isWhitespace(sql.charAt(i))) {
+          i++;
+        }
+        if (normalized.length() > 0 && i < length) {
+          normalized.append(' ');
+        }
+      } else {
+        normalized.append(c);
+        i++;
+      }
+    }
+    return normalized.toString();
+  }
+
+  private static int skipQuoted(String sql, int start) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == '\'') {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+          i += 2; // escaped quote
+          continue;
+        }
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean partOfIdentifier(StringBuilder normalized) {
+    if (normalized.length() == 0) {
+      return false;
+    }
+    final char previous = normalized.charAt(normalized.length() - 1);
+    return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$';
+  }
+}
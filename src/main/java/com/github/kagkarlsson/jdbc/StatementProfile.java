@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.util.concurrent.TimeUnit;
+
+/** Aggregated cost of one SQL statement, as tracked by a {@link StatementProfiler}. */
+public class StatementProfile {
+  private final String sql;
+  private final long count;
+  private final long countError;
+  private final long totalNanos;
+  private final long executeNanos;
+  private final long mapNanos;
+  private final long maxNanos;
+  private final long rows;
+  private final long allocatedBytes;
+
+  StatementProfile(
+      String sql,
+      long count,
+      long countError,
+      long totalNanos,
+      long executeNanos,
+      long mapNanos,
+      long maxNanos,
+      long rows,
+      long allocatedBytes) {
+    this.sql = sql;
+    this.count = count;
+    this.countError = countError;
+    this.totalNanos = totalNanos;
+    this.executeNanos = executeNanos;
+    this.mapNanos = mapNanos;
+    this.maxNanos = maxNanos;
+    this.rows = rows;
+    this.allocatedBytes = allocatedBytes;
+  }
+
+  public String getSql() {
+    return sql;
+  }
+
+  /** Number of executions. Might be overestimated by at most {@link #getCountError()}. */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Max overestimation of the count. Non-zero if the statement took over the slot of an evicted
+   * statement, in which case the timings only cover executions since then.
+   */
+  public long getCountError() {
+    return countError;
+  }
+
+  /** Total time, including acquiring connection, preparing and binding parameters. */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /** Time spent in the database executing the statement. */
+  public long getExecuteNanos() {
+    return executeNanos;
+  }
+
+  /** Time spent iterating the ResultSet and mapping rows. */
+  public long getMapNanos() {
+    return mapNanos;
+  }
+
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  /** Bytes allocated by the executing thread, or -1 if not supported by the JVM. */
+  public long getAllocatedBytes() {
+    return allocatedBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d (error %d) total=%dms execute=%dms map=%dms max=%dms rows=%d allocated=%s"
+            + " avgAllocatedPerRow=%s: %s",
+        count,
+        countError,
+        TimeUnit.NANOSECONDS.toMillis(totalNanos),
+        TimeUnit.NANOSECONDS.toMillis(executeNanos),
+        TimeUnit.NANOSECONDS.toMillis(mapNanos),
+        TimeUnit.NANOSECONDS.toMillis(maxNanos),
+        rows,
+        allocatedBytes < 0 ? "n/a" : allocatedBytes + "B",
+        allocatedBytes < 0 || rows <= 0 ? "n/a" : (allocatedBytes / rows) + "B",
+        sql);
+  }
+}
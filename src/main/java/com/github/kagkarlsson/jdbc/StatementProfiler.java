@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Profiler for statements executed by a {@link JdbcRunner}, enabled using {@link
+ * JdbcRunner#withProfiler}. Tracks, per SQL, time spent executing in the database separately from
+ * time spent iterating the ResultSet and mapping rows, as well as row counts and bytes allocated by
+ * the executing thread. Tells whether time goes to the database or to the <code>RowMapper
+ * </code>s.
+ *
+ * <p>Statements are aggregated using the space-saving algorithm, so memory is bounded by the
+ * capacity even with an unbounded number of distinct SQL strings, while still tracking the most
+ * frequent ones.
+ *
+ * <p>Recording an already tracked statement only locks the counters of that statement. Only
+ * statements not yet tracked take the lock for eviction, which picks the least frequent of a small
+ * random sample of the tracked statements rather than scanning all of them, so with a capacity
+ * above 8 the evicted statement is only approximately the least frequent. An execution recorded
+ * concurrently with the eviction of its statement may be lost.
+ */
+public class StatementProfiler implements StatementProfilerMXBean {
+  private static final AllocationMeter ALLOCATION_METER = AllocationMeter.create();
+
+  private static final int EVICTION_SAMPLES = 8;
+
+  private final int capacity;
+  private final ConcurrentHashMap<String, Counters> tracked;
+  // slots of the tracked statements, for sampling eviction candidates. Guarded by itself.
+  private final Counters[] slots;
+  private int used;
+
+  public StatementProfiler(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive.");
+    }
+    this.capacity = capacity;
+    this.tracked = new ConcurrentHashMap<>(capacity * 2);
+    this.slots = new Counters[capacity];
+  }
+
+  void start(Execution execution) {
+    execution.allocationStart(ALLOCATION_METER.allocatedBytes());
+  }
+
+  void record(Execution execution) {
+    final long allocated =
+        execution.getAllocatedAtStart() < 0
+            ? -1
+            : ALLOCATION_METER.allocatedBytes() - execution.getAllocatedAtStart();
+
+    Counters counters = tracked.get(execution.getSql());
+    if (counters == null) {
+      counters = track(execution.getSql(), allocated >= 0);
+    }
+    counters.add(execution, allocated);
+  }
+
+  private Counters track(String sql, boolean measuresAllocations) {
+    synchronized (slots) {
+      Counters counters = tracked.get(sql);
+      if (counters != null) {
+        return counters;
+      }
+      if (used < capacity) {
+        counters = new Counters(sql, measuresAllocations, used, 0);
+        slots[used++] = counters;
+      } else {
+        // space-saving: take over the slot of the least frequent statement, inheriting its count
+        final Counters evicted = sampleLeastFrequent();
+        tracked.remove(evicted.sql);
+        counters = new Counters(sql, measuresAllocations, evicted.slot, evicted.getCount());
+        slots[evicted.slot] = counters;
+      }
+      tracked.put(sql, counters);
+      return counters;
+    }
+  }
+
+  private Counters sampleLeastFrequent() {
+    if (used <= EVICTION_SAMPLES) {
+      Counters min = slots[0];
+      for (int i = 1; i < used; i++) {
+        min = lessFrequent(min, slots[i]);
+      }
+      return min;
+    }
+    final ThreadLocalRandom random = ThreadLocalRandom.current();
+    Counters min = slots[random.nextInt(used)];
+    for (int i = 1; i < EVICTION_SAMPLES; i++) {
+      min = lessFrequent(min, slots[random.nextInt(used)]);
+    }
+    return min;
+  }
+
+  private static Counters lessFrequent(Counters a, Counters b) {
+    return b.getCount() < a.getCount() ? b : a;
+  }
+
+  /** Tracked statements, ordered by total time spent, most expensive first. */
+  public List<StatementProfile> getTopStatements() {
+    final List<StatementProfile> profiles = new ArrayList<>();
+    for (Counters counters : tracked.values()) {
+      profiles.add(counters.toProfile());
+    }
+    profiles.sort(Comparator.comparingLong(StatementProfile::getTotalNanos).reversed());
+    return profiles;
+  }
+
+  @Override
+  public String[] getStatementSummaries() {
+    final List<StatementProfile> profiles = getTopStatements();
+    final String[] summaries = new String[profiles.size()];
+    for (int i = 0; i < summaries.length; i++) {
+      summaries[i] = profiles.get(i).toString();
+    }
+    return summaries;
+  }
+
+  @Override
+  public int getCapacity() {
+    return capacity;
+  }
+
+  @Override
+  public String dump() {
+    final StringBuilder dump = new StringBuilder("Statement profile, most expensive first:");
+    for (String summary : getStatementSummaries()) {
+      dump.append('\n').append(summary);
+    }
+    return dump.toString();
+  }
+
+  @Override
+  public void reset() {
+    synchronized (slots) {
+      tracked.clear();
+      Arrays.fill(slots, null);
+      used = 0;
+    }
+  }
+
+  /** Registers this profiler in the platform MBeanServer. */
+  public void registerMBean(String objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(objectName));
+    } catch (JMException e) {
+      throw new IllegalStateException("Failed to register MBean " + objectName, e);
+    }
+  }
+
+  private static class Counters {
+    private final String sql;
+    private final boolean measuresAllocations;
+    private final int slot;
+    private final long countError;
+    private long count;
+    private long totalNanos;
+    private long executeNanos;
+    private long mapNanos;
+    private long maxNanos;
+    private long rows;
+    private long allocatedBytes;
+
+    Counters(String sql, boolean measuresAllocations, int slot, long inheritedCount) {
+      this.sql = sql;
+      this.measuresAllocations = measuresAllocations;
+      this.slot = slot;
+      this.count = inheritedCount;
+      this.countError = inheritedCount;
+    }
+
+    synchronized long getCount() {
+      return count;
+    }
+
+    synchronized void add(Execution execution, long allocated) {
+      count++;
+      totalNanos += execution.getTotalNanos();
+      executeNanos += execution.getExecuteNanos();
+      mapNanos += execution.getMapNanos();
+      maxNanos = Math.max(maxNanos, execution.getTotalNanos());
+      rows += Math.max(execution.getRows(), 0);
+      allocatedBytes += Math.max(allocated, 0);
+    }
+
+    synchronized StatementProfile toProfile() {
+      return new StatementProfile(
+          sql,
+          count,
+          countError,
+          totalNanos,
+          executeNanos,
+          mapNanos,
+          maxNanos,
+          rows,
+          measuresAllocations ? allocatedBytes : -1);
+    }
+  }
+
+  /** Per-thread allocation counter, if supported by the JVM. */
+  private static class AllocationMeter {
+    private final com.sun.management.ThreadMXBean threadMXBean;
+
+    private AllocationMeter(com.sun.management.ThreadMXBean threadMXBean) {
+      this.threadMXBean = threadMXBean;
+    }
+
+    static AllocationMeter create() {
+      try {
+        final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+          final com.sun.management.ThreadMXBean extended =
+              (com.sun.management.ThreadMXBean) threadMXBean;
+          if (extended.isThreadAllocatedMemorySupported()
+              && extended.isThreadAllocatedMemoryEnabled()) {
+            return new AllocationMeter(extended);
+          }
+        }
+      } catch (LinkageError e) {
+        // com.sun.management not available on this JVM
+      }
+      return new AllocationMeter(null);
+    }
+
+    long allocatedBytes() {
+      return threadMXBean != null
+          ? threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+          : -1;
+    }
+  }
+}
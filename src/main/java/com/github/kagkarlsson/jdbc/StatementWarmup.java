@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Statements to prepare ahead of live traffic, typically right after startup, so that server-side
+ * preparation, driver metadata lookups and JIT-compilation of mappers do not hit the first
+ * requests. Run using {@link JdbcRunner#warmUp(StatementWarmup)}.
+ *
+ * <p>Statements can be registered explicitly, or recorded from a previous run using {@link
+ * #writeStatements(Path, Collection)}, e.g. with the top statements of a {@link StatementProfiler},
+ * and read back using {@link #withStatementsFrom(Path)}. The file contains one statement per line,
+ * with line breaks and backslashes escaped as <code>\n</code>, <code>\r</code> and <code>\\
+ * </code>.
+ */
+public class StatementWarmup {
+  private static final Logger LOG = LoggerFactory.getLogger(StatementWarmup.class);
+
+  private final Map<String, RowMapper<?>> statements;
+  private final int connections;
+  private final boolean describe;
+  private final int mapperIterations;
+
+  public StatementWarmup() {
+    this(Collections.emptyMap(), 1, false, 0);
+  }
+
+  private StatementWarmup(
+      Map<String, RowMapper<?>> statements,
+      int connections,
+      boolean describe,
+      int mapperIterations) {
+    if (connections < 1 || mapperIterations < 0) {
+      throw new IllegalArgumentException("Requires connections >= 1 and mapperIterations >= 0.");
+    }
+    this.statements = statements;
+    this.connections = connections;
+    this.describe = describe;
+    this.mapperIterations = mapperIterations;
+  }
+
+  public StatementWarmup withStatement(String sql) {
+    return withStatement(sql, null);
+  }
+
+  /**
+   * @param rowMapper invoked against a synthetic row (default values for every column) to warm up
+   *     mapping code, see {@link #withMapperIterations(int)}
+   */
+  public StatementWarmup withStatement(String sql, RowMapper<?> rowMapper) {
+    final Map<String, RowMapper<?>> copy = new LinkedHashMap<>(statements);
+    copy.put(sql, rowMapper);
+    return new StatementWarmup(copy, connections, describe, mapperIterations);
+  }
+
+  public StatementWarmup withStatements(Collection<String> sqls) {
+    final Map<String, RowMapper<?>> copy = new LinkedHashMap<>(statements);
+    for (String sql : sqls) {
+      copy.putIfAbsent(sql, null);
+    }
+    return new StatementWarmup(copy, connections, describe, mapperIterations);
+  }
+
+  /** Adds the statements in a file written by {@link #writeStatements(Path, Collection)}. */
+  public StatementWarmup withStatementsFrom(Path file) {
+    try {
+      return withStatements(
+          Files.readAllLines(file, StandardCharsets.UTF_8).stream()
+              .map(String::trim)
+              .filter(line -> !line.isEmpty())
+              .map(StatementWarmup::unescape)
+              .collect(Collectors.toList()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Number of connections to hold concurrently and prepare every statement on. */
+  public StatementWarmup withConnections(int connections) {
+    return new StatementWarmup(statements, connections, describe, mapperIterations);
+  }
+
+  /**
+   * Also fetch result and parameter metadata, forcing drivers that prepare lazily to describe the
+   * statement on the server.
+   */
+  public StatementWarmup withDescribe(boolean describe) {
+    return new StatementWarmup(statements, connections, describe, mapperIterations);
+  }
+
+  /** Invocations of each registered mapper against the synthetic row. Defaults to 0. */
+  public StatementWarmup withMapperIterations(int mapperIterations) {
+    return new StatementWarmup(statements, connections, describe, mapperIterations);
+  }
+
+  /**
+   * Writes statements one per line. Line breaks are escaped rather than joined, since joining lines
+   * would let a <code>--</code> comment swallow the rest of the statement.
+   */
+  public static void writeStatements(Path file, Collection<String> sqls) {
+    try {
+      Files.write(
+          file,
+          sqls.stream().map(sql -> escape(sql.trim())).collect(Collectors.toList()),
+          StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static String escape(String sql) {
+    final StringBuilder escaped = new StringBuilder(sql.length() + 16);
+    for (int i = 0; i < sql.length(); i++) {
+      final char c = sql.charAt(i);
+      if (c == '\\') {
+        escaped.append("\\\\");
+      } else if (c == '\n') {
+        escaped.append("\\n");
+      } else if (c == '\r') {
+        escaped.append("\\r");
+      } else {
+        escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  static String unescape(String line) {
+    final StringBuilder sql = new StringBuilder(line.length());
+    for (int i = 0; i < line.length(); i++) {
+      final char c = line.charAt(i);
+      if (c != '\\' || i == line.length() - 1) {
+        sql.append(c);
+        continue;
+      }
+      final char next = line.charAt(++i);
+      if (next == 'n') {
+        sql.append('\n');
+      } else if (next == 'r') {
+        sql.append('\r');
+      } else if (next == '\\') {
+        sql.append('\\');
+      } else {
+        sql.append(c).append(next);
+      }
+    }
+    return sql.toString();
+  }
+
+  WarmupReport run(List<Connection> connections) {
+    final long started = System.nanoTime();
+    final Map<String, String> failures = new LinkedHashMap<>();
+    int prepared = 0;
+    for (Connection connection : connections) {
+      for (Map.Entry<String, RowMapper<?>> statement : statements.entrySet()) {
+        try {
+          prepare(connection, statement.getKey());
+          prepared++;
+        } catch (SQLException | RuntimeException e) {
+          LOG.debug("Failed to warm up statement: {}", statement.getKey(), e);
+          failures.putIfAbsent(statement.getKey(), String.valueOf(e.getMessage()));
+        }
+      }
+    }
+    final long preparedAt = System.nanoTime();
+
+    long mapperInvocations = 0;
+    if (mapperIterations > 0) {
+      final ResultSet syntheticRow = syntheticRow();
+      for (Map.Entry<String, RowMapper<?>> statement : statements.entrySet()) {
+        if (statement.getValue() == null || failures.containsKey(statement.getKey())) {
+          continue;
+        }
+        try {
+          for (int i = 0; i < mapperIterations; i++) {
+            statement.getValue().map(syntheticRow);
+            mapperInvocations++;
+          }
+        } catch (SQLException | RuntimeException e) {
+          LOG.debug("Mapper failed on synthetic row for statement: {}", statement.getKey(), e);
+        }
+      }
+    }
+
+    final WarmupReport report =
+        new WarmupReport(
+            statements.size(),
+            connections.size(),
+            prepared,
+            mapperInvocations,
+            preparedAt - started,
+            System.nanoTime() - preparedAt,
+            failures);
+    LOG.info("Statement warm-up finished. {}", report);
+    return report;
+  }
+
+  int getConnections() {
+    return connections;
+  }
+
+  private void prepare(Connection connection, String sql) throws SQLException {
+    try (PreparedStatement ps = connection.prepareStatement(sql)) {
+      if (describe) {
+        final ResultSetMetaData metaData = ps.getMetaData();
+        if (metaData != null) {
+          metaData.getColumnCount();
+        }
+        ps.getParameterMetaData().getParameterCount();
+      }
+    }
+  }
+
+  /** A row where every getter returns the default value of its return type. */
+  private static ResultSet syntheticRow() {
+    return (ResultSet)
+        Proxy.newProxyInstance(
+            StatementWarmup.class.getClassLoader(),
+            new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> {
+              final Class<?> type = method.getReturnType();
+              if (type == String.class) {
+                return "";
+              } else if (type == boolean.class) {
+                return method.getName().equals("next");
+              } else if (type == int.class) {
+                return 0;
+              } else if (type == long.class) {
+                return 0L;
+              } else if (type == double.class) {
+                return 0d;
+              } else if (type == float.class) {
+                return 0f;
+              } else if (type == short.class) {
+                return (short) 0;
+              } else if (type == byte.class) {
+                return (byte) 0;
+              }
+              return null;
+            });
+  }
+
+  /** Outcome of a warm-up. */
+  public static class WarmupReport {
+    private final int statements;
+    private final int connections;
+    private final int prepared;
+    private final long mapperInvocations;
+    private final long prepareNanos;
+    private final long mapperNanos;
+    private final Map<String, String> failures;
+
+    WarmupReport(
+        int statements,
+        int connections,
+        int prepared,
+        long mapperInvocations,
+        long prepareNanos,
+        long mapperNanos,
+        Map<String, String> failures) {
+      this.statements = statements;
+      this.connections = connections;
+      this.prepared = prepared;
+      this.mapperInvocations = mapperInvocations;
+      this.prepareNanos = prepareNanos;
+      this.mapperNanos = mapperNanos;
+      this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    public int getStatements() {
+      return statements;
+    }
+
+    public int getConnections() {
+      return connections;
+    }
+
+    /** Number of successful prepares, across all connections. */
+    public int getPrepared() {
+      return prepared;
+    }
+
+    public long getMapperInvocations() {
+      return mapperInvocations;
+    }
+
+    public long getPrepareNanos() {
+      return prepareNanos;
+    }
+
+    public long getMapperNanos() {
+      return mapperNanos;
+    }
+
+    /**
+     * @return error message per statement that failed to prepare
+     */
+    public Map<String, String> getFailures() {
+      return failures;
+    }
+
+    @Override
+    public String toString() {
+      return "statements="
+          + statements
+          + ", connections="
+          + connections
+          + ", prepared="
+          + prepared
+          + ", failed="
+          + failures.size()
+          + ", mapperInvocations="
+          + mapperInvocations
+          + ", prepareMs="
+          + prepareNanos / 1_000_000
+          + ", mapperMs="
+          + mapperNanos / 1_000_000;
+    }
+  }
+}
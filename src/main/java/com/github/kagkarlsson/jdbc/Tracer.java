@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+/**
+ * Minimal tracing SPI, implemented by adapters for a tracing library (e.g. OpenTelemetry). Spans
+ * are opened for transactions and for each executed statement. Statement spans inside <code>
+ * inTransaction(..)</code> are children of the transaction span, which is carried in the {@link
+ * TransactionContext}.
+ */
+public interface Tracer {
+
+  Tracer NOOP = (name, parent) -> Span.NOOP;
+
+  /**
+   * @param parent the enclosing span, or null if the adapter should use its own current context
+   */
+  Span startSpan(String name, Span parent);
+
+  interface Span {
+
+    Span NOOP =
+        new Span() {
+          @Override
+          public void setAttribute(String key, String value) {}
+
+          @Override
+          public void setAttribute(String key, long value) {}
+
+          @Override
+          public void addEvent(String name) {}
+
+          @Override
+          public void recordException(Throwable exception) {}
+
+          @Override
+          public void end() {}
+        };
+
+    void setAttribute(String key, String value);
+
+    void setAttribute(String key, long value);
+
+    void addEvent(String name);
+
+    void recordException(Throwable exception);
+
+    void end();
+  }
+}
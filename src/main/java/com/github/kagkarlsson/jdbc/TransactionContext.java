@@ -14,15 +14,75 @@
 package com.github.kagkarlsson.jdbc;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 
 public class TransactionContext {
   private Connection c;
+  private final Tracer.Span span;
+  private final List<Runnable> afterCommit;
+  private final TransactionOptions options;
+  private final long deadlineNanos;
+  private DeferredWrites deferredWrites;
 
   public TransactionContext(Connection c) {
+    this(c, Tracer.Span.NOOP);
+  }
+
+  public TransactionContext(Connection c, Tracer.Span span) {
+    this(c, span, new ArrayList<>(), TransactionOptions.DEFAULT);
+  }
+
+  TransactionContext(
+      Connection c, Tracer.Span span, List<Runnable> afterCommit, TransactionOptions options) {
     this.c = c;
+    this.span = span;
+    this.afterCommit = afterCommit;
+    this.options = options;
+    this.deadlineNanos =
+        options.getTimeout() != null ? System.nanoTime() + options.getTimeout().toNanos() : 0;
   }
 
   public Connection getConnection() {
     return c;
   }
+
+  /** The span of the transaction, parent of the spans of statements executed in it. */
+  public Tracer.Span getSpan() {
+    return span;
+  }
+
+  public TransactionOptions getOptions() {
+    return options;
+  }
+
+  boolean hasTimeout() {
+    return deadlineNanos != 0;
+  }
+
+  long remainingNanos() {
+    return deadlineNanos - System.nanoTime();
+  }
+
+  /**
+   * Registers a callback to run after the transaction has committed, once the connection is
+   * released. Not run if the transaction rolls back.
+   */
+  public void afterCommit(Runnable callback) {
+    afterCommit.add(callback);
+  }
+
+  DeferredWrites deferredWrites() {
+    if (deferredWrites == null) {
+      deferredWrites = new DeferredWrites();
+    }
+    return deferredWrites;
+  }
+
+  /** Executes writes deferred using <code>JdbcRunner.executeDeferred(..)</code>, if any. */
+  void flushDeferredWrites() {
+    if (deferredWrites != null) {
+      deferredWrites.flush();
+    }
+  }
 }
@@ -15,6 +15,8 @@ package com.github.kagkarlsson.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -23,14 +25,45 @@ public class TransactionManager {
   private static final Logger LOG = LoggerFactory.getLogger(TransactionManager.class);
   private final ConnectionSupplier dataSource;
   private TransactionContextProvider transactionContextProvider;
+  private final boolean lazyConnection;
+  private final Tracer tracer;
 
   public TransactionManager(
       ConnectionSupplier dataSource, TransactionContextProvider transactionContextProvider) {
+    this(dataSource, transactionContextProvider, false);
+  }
+
+  /**
+   * @param lazyConnection if true, the connection is not acquired until it is first used inside the
+   *     transaction, and commit/rollback is skipped if it never was. Reduces pool occupancy for
+   *     transactions that often end up not touching the database (e.g. cache hits, early returns).
+   */
+  public TransactionManager(
+      ConnectionSupplier dataSource,
+      TransactionContextProvider transactionContextProvider,
+      boolean lazyConnection) {
+    this(dataSource, transactionContextProvider, lazyConnection, Tracer.NOOP);
+  }
+
+  /**
+   * @param tracer opens a span for each transaction, with events for commit and rollback
+   */
+  public TransactionManager(
+      ConnectionSupplier dataSource,
+      TransactionContextProvider transactionContextProvider,
+      boolean lazyConnection,
+      Tracer tracer) {
     this.dataSource = dataSource;
     this.transactionContextProvider = transactionContextProvider;
+    this.lazyConnection = lazyConnection;
+    this.tracer = tracer;
   }
 
   public <T> T inTransaction(DoInTransaction<T> doInTransaction) {
+    return inTransaction(TransactionOptions.DEFAULT, doInTransaction);
+  }
+
+  public <T> T inTransaction(TransactionOptions options, DoInTransaction<T> doInTransaction) {
     if (transactionContextProvider.getCurrent() != null) {
       throw new SQLRuntimeException(
           "Cannot start new transaction when there already"
@@ -39,29 +72,70 @@ public class TransactionManager {
               + " Could be extended to support detecting externally managed connections.");
     }
 
-    try (Connection connection = dataSource.getConnection()) {
-      boolean restoreAutocommit = false;
+    final Tracer.Span span = tracer.startSpan("jdbc.transaction", null);
+    if (options.getLabel() != null) {
+      span.setAttribute("db.transaction.label", options.getLabel());
+    }
+    final List<Runnable> afterCommit = new ArrayList<>();
+    final T result;
+    try {
+      result =
+          lazyConnection
+              ? inLazyTransaction(doInTransaction, span, afterCommit, options)
+              : inTransaction(doInTransaction, span, afterCommit, options);
+    } catch (RuntimeException e) {
+      span.recordException(e);
+      throw e;
+    } finally {
+      span.end();
+    }
 
-      if (connection.getAutoCommit()) {
-        connection.setAutoCommit(false);
-        restoreAutocommit = true;
+    for (Runnable callback : afterCommit) {
+      try {
+        callback.run();
+      } catch (RuntimeException e) {
+        LOG.error("After-commit callback failed. Transaction is already committed.", e);
       }
+    }
+    return result;
+  }
+
+  private <T> T inTransaction(
+      DoInTransaction<T> doInTransaction,
+      Tracer.Span span,
+      List<Runnable> afterCommit,
+      TransactionOptions options) {
+    try (Connection connection = dataSource.getConnection()) {
+      TransactionOptions.Applied appliedOptions = TransactionOptions.Applied.NOTHING;
+      boolean restoreAutocommit = false;
 
       try {
+        // inside the try, so that options are restored if disabling autocommit fails
+        appliedOptions = options.apply(connection);
+        if (connection.getAutoCommit()) {
+          connection.setAutoCommit(false);
+          restoreAutocommit = true;
+        }
+
         final T result;
         try {
-          transactionContextProvider.setCurrent(new TransactionContext(connection));
+          final TransactionContext context =
+              new TransactionContext(connection, span, afterCommit, options);
+          transactionContextProvider.setCurrent(context);
           result = doInTransaction.doInTransaction(connection);
+          context.flushDeferredWrites();
         } catch (RuntimeException applicationException) {
+          span.addEvent("rollback");
           throw rollback(connection, applicationException);
         }
 
-        commit(connection); // might throw
+        commit(connection, span); // might throw
         return result;
       } finally {
         if (restoreAutocommit) {
           tryRestoreAutocommit(connection);
         }
+        appliedOptions.restore(connection);
       }
 
     } catch (SQLException openCloseAutocommitException) {
@@ -71,6 +145,69 @@ public class TransactionManager {
     }
   }
 
+  private <T> T inLazyTransaction(
+      DoInTransaction<T> doInTransaction,
+      Tracer.Span span,
+      List<Runnable> afterCommit,
+      TransactionOptions options) {
+    final LazyConnection lazy = new LazyConnection(dataSource, options);
+    RuntimeException failure = null;
+    try {
+      final T result;
+      try {
+        final TransactionContext context =
+            new TransactionContext(lazy.asConnection(), span, afterCommit, options);
+        transactionContextProvider.setCurrent(context);
+        result = doInTransaction.doInTransaction(lazy.asConnection());
+        context.flushDeferredWrites();
+      } catch (RuntimeException applicationException) {
+        if (!lazy.isAcquired()) {
+          throw applicationException;
+        }
+        span.addEvent("rollback");
+        throw rollback(lazy.getPhysical(), applicationException);
+      }
+
+      if (lazy.isAcquired()) {
+        commit(lazy.getPhysical(), span); // might throw
+      } else {
+        LOG.trace("Connection never used in transaction, skipping commit.");
+      }
+      return result;
+    } catch (RuntimeException e) {
+      failure = e;
+      throw e;
+    } finally {
+      transactionContextProvider.removeCurrent();
+      if (lazy.isAcquired()) {
+        release(lazy, failure);
+      }
+    }
+  }
+
+  /**
+   * @param failure exception already propagating, if any. A close failure is added to it as
+   *     suppressed rather than replacing it, like for try-with-resources.
+   */
+  private void release(LazyConnection lazy, RuntimeException failure) {
+    final Connection connection = lazy.getPhysical();
+    try {
+      if (lazy.shouldRestoreAutocommit()) {
+        tryRestoreAutocommit(connection);
+      }
+      lazy.getAppliedOptions().restore(connection);
+    } finally {
+      try {
+        connection.close();
+      } catch (SQLException closeException) {
+        if (failure == null) {
+          throw new SQLRuntimeException(closeException);
+        }
+        failure.addSuppressed(closeException);
+      }
+    }
+  }
+
   private void tryRestoreAutocommit(Connection connection) {
     try {
       connection.setAutoCommit(true);
@@ -82,10 +219,12 @@ public class TransactionManager {
     }
   }
 
-  private void commit(Connection connection) {
+  private void commit(Connection connection, Tracer.Span span) {
     try {
       connection.commit();
+      span.addEvent("commit");
     } catch (SQLException commitException) {
+      span.addEvent("rollback");
       throw rollback(connection, new SQLRuntimeException(commitException));
     }
   }
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) Gustav Karlsson
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.kagkarlsson.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Options for a transaction started by <code>inTransaction(..)</code>. Read-only mode and isolation
+ * level are only changed, and afterwards restored, when they differ from the connection's current
+ * state. The timeout limits the total time of the transaction's statements, by setting each
+ * statement's query timeout to the time remaining. The label is not interpreted, but available in
+ * the {@link TransactionContext} for e.g. routing and instrumentation.
+ */
+public final class TransactionOptions {
+  private static final Logger LOG = LoggerFactory.getLogger(TransactionOptions.class);
+
+  public static final TransactionOptions DEFAULT = new TransactionOptions(null, null, null, null);
+
+  private final Boolean readOnly;
+  private final Integer isolation;
+  private final Duration timeout;
+  private final String label;
+
+  private TransactionOptions(Boolean readOnly, Integer isolation, Duration timeout, String label) {
+    this.readOnly = readOnly;
+    this.isolation = isolation;
+    this.timeout = timeout;
+    this.label = label;
+  }
+
+  public TransactionOptions withReadOnly(boolean readOnly) {
+    return new TransactionOptions(readOnly, isolation, timeout, label);
+  }
+
+  /**
+   * @param isolation one of the <code>Connection.TRANSACTION_*</code> levels
+   */
+  public TransactionOptions withIsolation(int isolation) {
+    return new TransactionOptions(readOnly, isolation, timeout, label);
+  }
+
+  public TransactionOptions withTimeout(Duration timeout) {
+    return new TransactionOptions(readOnly, isolation, timeout, label);
+  }
+
+  public TransactionOptions withLabel(String label) {
+    return new TransactionOptions(readOnly, isolation, timeout, label);
+  }
+
+  /**
+   * @return true/false if the transaction should be read-only or not, null to use the connection's
+   *     current mode
+   */
+  public Boolean getReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * @return the isolation level, or null to use the connection's current level
+   */
+  public Integer getIsolation() {
+    return isolation;
+  }
+
+  /**
+   * @return the timeout, or null if not limited
+   */
+  public Duration getTimeout() {
+    return timeout;
+  }
+
+  public String getLabel() {
+    return label;
+  }
+
+  /**
+   * Applies the options to a connection not yet in a transaction. On failure, whatever was changed
+   * before the failure has been restored.
+   *
+   * @return what to restore once the transaction has ended
+   */
+  Applied apply(Connection connection) throws SQLException {
+    Boolean previousReadOnly = null;
+    Integer previousIsolation = null;
+    if (readOnly != null && connection.isReadOnly() != readOnly) {
+      connection.setReadOnly(readOnly);
+      previousReadOnly = !readOnly;
+    }
+    if (isolation != null) {
+      try {
+        final int current = connection.getTransactionIsolation();
+        if (current != isolation) {
+          connection.setTransactionIsolation(isolation);
+          previousIsolation = current;
+        }
+      } catch (SQLException | RuntimeException e) {
+        try {
+          new Applied(previousReadOnly, null).restoreOrThrow(connection);
+        } catch (SQLException restoreException) {
+          e.addSuppressed(restoreException);
+        }
+        throw e;
+      }
+    }
+    return new Applied(previousReadOnly, previousIsolation);
+  }
+
+  @Override
+  public String toString() {
+    return "TransactionOptions{readOnly="
+        + readOnly
+        + ", isolation="
+        + isolation
+        + ", timeout="
+        + timeout
+        + ", label="
+        + label
+        + "}";
+  }
+
+  static final class Applied {
+    static final Applied NOTHING = new Applied(null, null);
+
+    private final Boolean previousReadOnly;
+    private final Integer previousIsolation;
+
+    private Applied(Boolean previousReadOnly, Integer previousIsolation) {
+      this.previousReadOnly = previousReadOnly;
+      this.previousIsolation = previousIsolation;
+    }
+
+    /**
+     * Restores each setting independently, a failure to restore one does not skip the other. The
+     * first failure is thrown, with later ones suppressed.
+     */
+    void restoreOrThrow(Connection connection) throws SQLException {
+      SQLException failure = null;
+      if (previousIsolation != null) {
+        try {
+          connection.setTransactionIsolation(previousIsolation);
+        } catch (SQLException e) {
+          failure = e;
+        }
+      }
+      if (previousReadOnly != null) {
+        try {
+          connection.setReadOnly(previousReadOnly);
+        } catch (SQLException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    void restore(Connection connection) {
+      try {
+        restoreOrThrow(connection);
+      } catch (SQLException e) {
+        LOG.error(
+            "Failed to restore read-only mode or isolation level for Connection. Not throwing"
+                + " exception since the transaction has already ended. Hopefully the"
+                + " connection-pool will mark the Connection as broken and not reuse.",
+            e);
+      }
+    }
+  }
+}
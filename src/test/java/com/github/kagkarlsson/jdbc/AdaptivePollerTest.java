@@ -0,0 +1,113 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class AdaptivePollerTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute(
+        "create table events ( id INT, handled BOOLEAN DEFAULT FALSE);",
+        PreparedStatementSetter.NOOP);
+  }
+
+  @Test
+  public void should_back_off_when_empty_and_tighten_when_busy() {
+    AdaptivePoller<Integer> poller =
+        new AdaptivePoller<Integer>("poller", () -> null, rows -> {}, 10)
+            .withIntervals(Duration.ofNanos(100), Duration.ofNanos(1000));
+
+    assertThat(poller.nextInterval(100, 0), is(200L));
+    assertThat(poller.nextInterval(800, 0), is(1000L));
+    assertThat(poller.nextInterval(1000, 5), is(500L));
+    assertThat(poller.nextInterval(1000, 10), is(100L));
+  }
+
+  @Test
+  public void should_reject_zero_min_interval() {
+    AdaptivePoller<Integer> poller = new AdaptivePoller<>("poller", () -> null, rows -> {}, 10);
+
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> poller.withIntervals(Duration.ZERO, Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void should_keep_polling_after_poll_fails_with_error() throws Exception {
+    AtomicInteger polls = new AtomicInteger();
+    BlockingQueue<List<Integer>> handled = new LinkedBlockingQueue<>();
+    AdaptivePoller<Integer> poller =
+        new AdaptivePoller<Integer>(
+                "poller",
+                () -> {
+                  if (polls.incrementAndGet() == 1) {
+                    throw new AssertionError("poll failed");
+                  }
+                  return Collections.singletonList(1);
+                },
+                handled::add,
+                10)
+            .withIntervals(Duration.ofMillis(1), Duration.ofMillis(10))
+            .withJitter(0);
+
+    try {
+      poller.start();
+      List<Integer> rows = handled.poll(10, TimeUnit.SECONDS);
+      assertThat(rows.get(0), is(1));
+    } finally {
+      poller.close();
+    }
+  }
+
+  @Test
+  public void should_poll_immediately_when_woken_up_after_commit() throws Exception {
+    BlockingQueue<List<Integer>> handled = new LinkedBlockingQueue<>();
+    AdaptivePoller<Integer> poller =
+        new AdaptivePoller<>(
+                "events-poller",
+                jdbcRunner,
+                "select id from events where handled = false",
+                PreparedStatementSetter.NOOP,
+                rs -> rs.getInt("id"),
+                rows -> {
+                  jdbcRunner.execute(
+                      "update events set handled = true", PreparedStatementSetter.NOOP);
+                  handled.add(rows);
+                },
+                100)
+            .withIntervals(Duration.ofSeconds(30), Duration.ofSeconds(60))
+            .withJitter(0);
+
+    try {
+      poller.start();
+      jdbcRunner.inTransaction(
+          tx -> {
+            tx.execute("insert into events(id) values (?)", ps -> ps.setInt(1, 1));
+            tx.afterCommit(poller::wakeUp);
+            return null;
+          });
+
+      List<Integer> rows = handled.poll(10, TimeUnit.SECONDS);
+      assertThat(rows.get(0), is(1));
+    } finally {
+      poller.close();
+    }
+  }
+}
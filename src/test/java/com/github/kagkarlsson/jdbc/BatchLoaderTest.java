@@ -0,0 +1,104 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class BatchLoaderTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+  private StatementProfiler profiler;
+
+  @BeforeEach
+  public void setUp() {
+    profiler = new StatementProfiler(10);
+    jdbcRunner = new JdbcRunner(database.getDataSource()).withProfiler(profiler);
+    jdbcRunner.execute(
+        "create table table1 ( id INT, name VARCHAR(20));", PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into table1(id, name) values (?, ?)",
+        IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+        (value, ps) -> {
+          ps.setInt(1, value);
+          ps.setString(2, "name" + value);
+        });
+    profiler.reset();
+  }
+
+  @Test
+  public void should_load_queued_keys_in_one_query() {
+    BatchLoader<Integer, String[]> loader = loader();
+
+    CompletableFuture<String[]> first = loader.load(1);
+    CompletableFuture<String[]> second = loader.load(3);
+    CompletableFuture<String[]> missing = loader.load(42);
+    loader.dispatch();
+
+    assertThat(first.join()[1], is("name1"));
+    assertThat(second.join()[1], is("name3"));
+    assertThat(missing.join(), nullValue());
+    assertThat(executions(), is(1L));
+  }
+
+  @Test
+  public void should_split_into_max_batch_size_and_cache_results() {
+    BatchLoader<Integer, String[]> loader = loader().withMaxBatchSize(4);
+
+    Map<Integer, String[]> loaded = loader.loadAll(Arrays.asList(0, 1, 2, 3, 4, 5));
+    assertThat(loaded.size(), is(6));
+    assertThat(loaded.get(5)[1], is("name5"));
+    assertThat(executions(), is(2L));
+
+    assertThat(loader.load(2).join()[1], is("name2"));
+    assertThat(executions(), is(2L));
+  }
+
+  @Test
+  public void should_complete_all_dispatched_futures_when_loading_fails_with_error() {
+    BatchLoader<Integer, Integer> loader =
+        new BatchLoader<>(
+            jdbcRunner,
+            "select id from table1 where id in (" + BatchLoader.KEYS + ")",
+            rs -> {
+              if (rs.getInt("id") == 1) {
+                throw new AssertionError("mapper failed");
+              }
+              return rs.getInt("id");
+            },
+            id -> id);
+
+    List<CompletableFuture<Integer>> futures =
+        Arrays.asList(loader.load(0), loader.load(1), loader.load(2));
+    Assertions.assertThrows(AssertionError.class, loader::dispatch);
+
+    for (CompletableFuture<Integer> future : futures) {
+      assertThat(future.isCompletedExceptionally(), is(true));
+    }
+    // failures are not cached
+    assertThat(loader.loadAll(Arrays.asList(2)).get(2), is(2));
+  }
+
+  private BatchLoader<Integer, String[]> loader() {
+    return new BatchLoader<>(
+        jdbcRunner,
+        "select id, name from table1 where id in (" + BatchLoader.KEYS + ")",
+        rs -> new String[] {String.valueOf(rs.getInt("id")), rs.getString("name")},
+        row -> Integer.valueOf(row[0]));
+  }
+
+  private long executions() {
+    return profiler.getTopStatements().stream().mapToLong(StatementProfile::getCount).sum();
+  }
+}
@@ -0,0 +1,143 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class CircuitBreakingConnectionSupplierTest {
+
+  private static final String SELECT = "select count(*) from table1";
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private final AtomicBoolean down = new AtomicBoolean();
+  private final AtomicInteger acquired = new AtomicInteger();
+  private CircuitBreakingConnectionSupplier breaker;
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    breaker =
+        new CircuitBreakingConnectionSupplier(new FlakyConnectionSupplier())
+            .withFailureRateThreshold(0.5, 4)
+            .withOpenDuration(Duration.ofMillis(200))
+            .withProbes(2);
+    jdbcRunner = new JdbcRunner(breaker, new ThreadLocalTransactionContextProvider());
+    jdbcRunner.execute(
+        "create table table1 ( column1 INT primary key);", PreparedStatementSetter.NOOP);
+  }
+
+  @Test
+  public void should_fail_fast_when_open_and_close_after_successful_probes() throws Exception {
+    jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT);
+    down.set(true);
+    // 4 successful calls so far, acquiring connections and executing statements
+    for (int i = 0; i < 4; i++) {
+      Assertions.assertThrows(
+          SQLRuntimeException.class,
+          () -> jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT));
+    }
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.OPEN));
+
+    final int acquiredWhenOpened = acquired.get();
+    Assertions.assertThrows(
+        CircuitOpen.class,
+        () -> jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT));
+    assertThat(acquired.get(), is(acquiredWhenOpened));
+    assertThat(breaker.getRejectedCount(), is(1L));
+
+    down.set(false);
+    Thread.sleep(250);
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.HALF_OPEN));
+    assertThat(jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(0));
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.HALF_OPEN));
+    assertThat(jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(0));
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.CLOSED));
+  }
+
+  @Test
+  public void should_reopen_when_probe_fails() throws Exception {
+    down.set(true);
+    for (int i = 0; i < 4; i++) {
+      Assertions.assertThrows(
+          SQLRuntimeException.class,
+          () -> jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT));
+    }
+    Thread.sleep(250);
+    Assertions.assertThrows(
+        SQLRuntimeException.class,
+        () -> jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT));
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.OPEN));
+  }
+
+  @Test
+  public void should_grant_new_probes_when_probes_do_not_complete() throws Exception {
+    down.set(true);
+    for (int i = 0; i < 4; i++) {
+      Assertions.assertThrows(
+          SQLRuntimeException.class,
+          () -> jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT));
+    }
+    down.set(false);
+    Thread.sleep(250);
+
+    // probes taken but never closed, e.g. leaked
+    final Connection leaked1 = breaker.getConnection();
+    final Connection leaked2 = breaker.getConnection();
+    Assertions.assertThrows(CircuitOpen.class, breaker::getConnection);
+
+    Thread.sleep(250);
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.HALF_OPEN));
+    assertThat(jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(0));
+    // late completion of a replaced probe does not count
+    leaked1.close();
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.HALF_OPEN));
+    assertThat(jdbcRunner.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(0));
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.CLOSED));
+    leaked2.close();
+  }
+
+  @Test
+  public void should_not_count_constraint_violations_as_failures() {
+    jdbcRunner.execute("insert into table1(column1) values (1)", PreparedStatementSetter.NOOP);
+    for (int i = 0; i < 10; i++) {
+      Assertions.assertThrows(
+          IntegrityConstraintViolation.class,
+          () ->
+              jdbcRunner.execute(
+                  "insert into table1(column1) values (1)", PreparedStatementSetter.NOOP));
+    }
+    assertThat(breaker.getState(), is(CircuitBreakingConnectionSupplier.State.CLOSED));
+  }
+
+  private class FlakyConnectionSupplier implements ConnectionSupplier {
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      acquired.incrementAndGet();
+      if (down.get()) {
+        throw new SQLTransientConnectionException("Database down", "08001");
+      }
+      return database.getDataSource().getConnection();
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+  }
+}
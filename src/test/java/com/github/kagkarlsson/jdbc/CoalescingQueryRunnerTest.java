@@ -0,0 +1,210 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class CoalescingQueryRunnerTest {
+
+  private static final List<Object> NO_PARAMETERS = Collections.emptyList();
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    jdbcRunner.execute("insert into table1(column1) values (?)", ps -> ps.setInt(1, 5));
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void should_share_execution_between_concurrent_identical_queries() throws Exception {
+    CoalescingQueryRunner coalescing = new CoalescingQueryRunner(jdbcRunner);
+    CountDownLatch release = new CountDownLatch(1);
+    ResultSetMapper<Integer> blockingMapper =
+        rs -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          return Mappers.SINGLE_INT.map(rs);
+        };
+
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      results.add(
+          executor.submit(
+              () ->
+                  coalescing.query(
+                      "select column1 from table1 where column1 = ?",
+                      Collections.singletonList(5),
+                      blockingMapper)));
+    }
+    while (coalescing.getCoalescedCount() < 3) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    for (Future<Integer> result : results) {
+      assertThat(result.get(), is(5));
+    }
+    assertThat(coalescing.getExecutionCount(), is(1L));
+  }
+
+  @Test
+  public void should_give_each_joined_caller_its_own_exception() throws Exception {
+    CoalescingQueryRunner coalescing = new CoalescingQueryRunner(jdbcRunner);
+    CountDownLatch release = new CountDownLatch(1);
+    ResultSetMapper<Integer> failingMapper =
+        rs -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          throw new IllegalStateException("mapper failed");
+        };
+
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      results.add(
+          executor.submit(
+              () -> coalescing.query("select 1 from table1", NO_PARAMETERS, failingMapper)));
+    }
+    while (coalescing.getCoalescedCount() < 2) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    List<Throwable> failures = new ArrayList<>();
+    for (Future<Integer> result : results) {
+      failures.add(Assertions.assertThrows(ExecutionException.class, result::get).getCause());
+    }
+    IllegalStateException original =
+        (IllegalStateException)
+            failures.stream().filter(f -> f instanceof IllegalStateException).findFirst().get();
+    List<Throwable> joined =
+        failures.stream().filter(f -> f != original).collect(Collectors.toList());
+    assertThat(joined.size(), is(2));
+    assertThat(joined.get(0) != joined.get(1), is(true));
+    for (Throwable failure : joined) {
+      assertThat(failure instanceof SQLRuntimeException, is(true));
+      assertThat(failure.getCause(), is(original));
+    }
+  }
+
+  @Test
+  public void should_release_joined_callers_when_leader_fails_with_error() throws Exception {
+    CoalescingQueryRunner coalescing = new CoalescingQueryRunner(jdbcRunner);
+    CountDownLatch release = new CountDownLatch(1);
+    ResultSetMapper<Integer> failingMapper =
+        rs -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          throw new AssertionError("mapper failed");
+        };
+
+    Future<Integer> leader =
+        executor.submit(
+            () -> coalescing.query("select 1 from table1", NO_PARAMETERS, failingMapper));
+    while (coalescing.getExecutionCount() < 1) {
+      Thread.sleep(5);
+    }
+    Future<Integer> joined =
+        executor.submit(
+            () -> coalescing.query("select 1 from table1", NO_PARAMETERS, failingMapper));
+    while (coalescing.getCoalescedCount() < 1) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+
+    Throwable leaderFailure =
+        Assertions.assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS))
+            .getCause();
+    assertThat(leaderFailure instanceof AssertionError, is(true));
+    Throwable joinedFailure =
+        Assertions.assertThrows(ExecutionException.class, () -> joined.get(5, TimeUnit.SECONDS))
+            .getCause();
+    assertThat(joinedFailure instanceof SQLRuntimeException, is(true));
+    assertThat(joinedFailure.getCause(), is(leaderFailure));
+  }
+
+  @Test
+  public void should_submit_single_background_refresh_for_concurrent_stale_hits() throws Exception {
+    CoalescingQueryRunner coalescing =
+        new CoalescingQueryRunner(jdbcRunner)
+            .withCache(10, Duration.ZERO, Duration.ofMinutes(1), executor);
+    AtomicBoolean block = new AtomicBoolean();
+    CountDownLatch release = new CountDownLatch(1);
+    ResultSetMapper<Integer> mapper =
+        rs -> {
+          if (block.get()) {
+            try {
+              release.await();
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            }
+          }
+          return Mappers.SINGLE_INT.map(rs);
+        };
+    String sql = "select count(*) from table1";
+
+    assertThat(coalescing.query(sql, NO_PARAMETERS, mapper), is(1));
+    block.set(true);
+    for (int i = 0; i < 5; i++) {
+      assertThat(coalescing.query(sql, NO_PARAMETERS, mapper), is(1));
+    }
+    release.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+
+    assertThat(coalescing.getExecutionCount(), is(2L));
+    assertThat(coalescing.getCoalescedCount(), is(0L));
+    assertThat(coalescing.getCacheHitCount(), is(5L));
+  }
+
+  @Test
+  public void should_serve_fresh_results_from_cache() {
+    CoalescingQueryRunner coalescing =
+        new CoalescingQueryRunner(jdbcRunner)
+            .withCache(10, Duration.ofMinutes(1), Duration.ofMinutes(1), executor);
+    String sql = "select count(*) from table1 where column1 = ?";
+
+    assertThat(coalescing.query(sql, Arrays.asList(5), Mappers.SINGLE_INT), is(1));
+    jdbcRunner.execute("insert into table1(column1) values (?)", ps -> ps.setInt(1, 5));
+    assertThat(coalescing.query(sql, Arrays.asList(5), Mappers.SINGLE_INT), is(1));
+
+    assertThat(coalescing.getExecutionCount(), is(1L));
+    assertThat(coalescing.getCacheHitCount(), is(1L));
+  }
+}
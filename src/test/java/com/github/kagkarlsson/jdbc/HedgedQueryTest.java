@@ -0,0 +1,228 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class HedgedQueryTest {
+
+  private static final String SELECT = "select count(*) from table1";
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private final AtomicLong primaryDelayMillis = new AtomicLong();
+  private final CountDownLatch primaryInterrupted = new CountDownLatch(1);
+  private final CountDownLatch primaryExecuting = new CountDownLatch(1);
+  private final CountDownLatch primaryCancelled = new CountDownLatch(1);
+  private final AtomicInteger primaryExecutions = new AtomicInteger();
+  private volatile boolean stallInExecute;
+  private JdbcRunner primary;
+  private JdbcRunner secondary;
+  private ExecutorService executor;
+  private HedgedQuery hedgedQuery;
+
+  @BeforeEach
+  public void setUp() {
+    secondary = new JdbcRunner(database.getDataSource());
+    secondary.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    secondary.execute("insert into table1(column1) values (1)", PreparedStatementSetter.NOOP);
+
+    primary =
+        new JdbcRunner(
+            new StallingConnectionSupplier(), new ThreadLocalTransactionContextProvider());
+    executor = Executors.newCachedThreadPool();
+    hedgedQuery =
+        new HedgedQuery(primary, secondary, executor)
+            .withHedgeDelay(0.95, Duration.ofMillis(1), Duration.ofMillis(50))
+            .withHedgeBudget(0, 1);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void should_answer_from_secondary_and_skip_execution_of_stalled_primary()
+      throws Exception {
+    primaryDelayMillis.set(1_000);
+
+    final long started = System.nanoTime();
+    assertThat(hedgedQuery.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+    assertThat(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(900), is(true));
+    assertThat(hedgedQuery.getHedgeCount(), is(1L));
+    assertThat(hedgedQuery.getHedgeWinCount(), is(1L));
+
+    // the primary is left to finish preparing, without interrupting the driver
+    executor.shutdown();
+    assertThat(executor.awaitTermination(5, TimeUnit.SECONDS), is(true));
+    assertThat(primaryInterrupted.getCount(), is(1L));
+    assertThat(primaryExecutions.get(), is(0));
+  }
+
+  @Test
+  public void should_cancel_primary_stalled_in_execution_using_statement_cancel() throws Exception {
+    stallInExecute = true;
+    // only answer once the primary is executing, so that it is cancelled mid-execution
+    HedgedQuery hedged =
+        new HedgedQuery(
+                primary,
+                new JdbcRunner(
+                    new AwaitingConnectionSupplier(primaryExecuting),
+                    new ThreadLocalTransactionContextProvider()),
+                executor)
+            .withHedgeDelay(0.95, Duration.ofMillis(1), Duration.ofMillis(50))
+            .withHedgeBudget(0, 1);
+
+    assertThat(hedged.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+    assertThat(hedged.getHedgeWinCount(), is(1L));
+    assertThat(primaryCancelled.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void should_learn_hedge_delay_from_latency_of_winning_attempts() {
+    HedgedQuery learning =
+        new HedgedQuery(primary, secondary, executor)
+            .withHedgeDelay(0.95, Duration.ofMillis(1), Duration.ofMillis(100))
+            .withHedgeBudget(1, 1);
+    primaryDelayMillis.set(10_000);
+
+    // hedged after the max delay, the secondary answers quickly
+    for (int i = 0; i < 20; i++) {
+      assertThat(learning.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+    }
+    assertThat(learning.getHedgeWinCount(), is(20L));
+
+    // the delay now follows the latency of the secondary, not the end-to-end latency
+    final long started = System.nanoTime();
+    assertThat(learning.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+    assertThat(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(50), is(true));
+  }
+
+  @Test
+  public void should_not_hedge_beyond_budget() {
+    primaryDelayMillis.set(10_000);
+    assertThat(hedgedQuery.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+
+    primaryDelayMillis.set(200);
+    assertThat(hedgedQuery.query(SELECT, PreparedStatementSetter.NOOP, Mappers.SINGLE_INT), is(1));
+    assertThat(hedgedQuery.getQueryCount(), is(2L));
+    assertThat(hedgedQuery.getHedgeCount(), is(1L));
+  }
+
+  private class StallingConnectionSupplier implements ConnectionSupplier {
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      final Connection connection = database.getDataSource().getConnection();
+      return (Connection)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                if (method.getName().equals("prepareStatement")) {
+                  try {
+                    Thread.sleep(primaryDelayMillis.get());
+                  } catch (InterruptedException e) {
+                    primaryInterrupted.countDown();
+                    throw new SQLException("Interrupted", e);
+                  }
+                  return counting((PreparedStatement) invoke(method, connection, args));
+                }
+                return invoke(method, connection, args);
+              });
+    }
+
+    /**
+     * Counts executions. When stalling in execute, blocks there, ignoring interrupts, until
+     * cancelled using Statement.cancel().
+     */
+    private PreparedStatement counting(PreparedStatement statement) {
+      final CountDownLatch cancel = new CountDownLatch(1);
+      return (PreparedStatement)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {PreparedStatement.class},
+              (proxy, method, args) -> {
+                if (method.getName().equals("cancel")) {
+                  cancel.countDown();
+                  primaryCancelled.countDown();
+                } else if (method.getName().equals("execute")) {
+                  primaryExecutions.incrementAndGet();
+                  primaryExecuting.countDown();
+                  while (stallInExecute) {
+                    try {
+                      cancel.await();
+                      throw new SQLException("Statement cancelled", "57014");
+                    } catch (InterruptedException e) {
+                      // only Statement.cancel() ends the execution
+                    }
+                  }
+                }
+                return invoke(method, statement, args);
+              });
+    }
+
+    private Object invoke(Method method, Object target, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+  }
+
+  private class AwaitingConnectionSupplier implements ConnectionSupplier {
+    private final CountDownLatch latch;
+
+    AwaitingConnectionSupplier(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      try {
+        latch.await(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new SQLException("Interrupted", e);
+      }
+      return database.getDataSource().getConnection();
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+  }
+}
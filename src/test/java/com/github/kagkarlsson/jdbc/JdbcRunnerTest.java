@@ -1,18 +1,50 @@
 package com.github.kagkarlsson.jdbc;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.hasSize;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import javax.sql.DataSource;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.slf4j.LoggerFactory;
 
 public class JdbcRunnerTest {
 
@@ -125,6 +157,273 @@ public class JdbcRunnerTest {
         });
   }
 
+  @Test
+  public void should_translate_by_sql_state_and_skip_stack_for_lightweight_categories() {
+    jdbcRunner.execute("create table parent ( id INT PRIMARY KEY);", PreparedStatementSetter.NOOP);
+    jdbcRunner.execute(
+        "create table child ( parent_id INT REFERENCES parent(id));", PreparedStatementSetter.NOOP);
+    jdbcRunner.execute("insert into parent(id) values (1)", PreparedStatementSetter.NOOP);
+
+    DuplicateKey duplicateKey =
+        Assertions.assertThrows(
+            DuplicateKey.class,
+            () ->
+                jdbcRunner
+                    .withLightweightExceptions()
+                    .execute("insert into parent(id) values (1)", PreparedStatementSetter.NOOP));
+    assertThat(duplicateKey.getStackTrace().length, is(0));
+
+    ForeignKeyViolation foreignKeyViolation =
+        Assertions.assertThrows(
+            ForeignKeyViolation.class,
+            () ->
+                jdbcRunner.execute(
+                    "insert into child(parent_id) values (2)", PreparedStatementSetter.NOOP));
+    assertThat(foreignKeyViolation.getStackTrace().length > 0, is(true));
+  }
+
+  @Test
+  public void should_only_use_mysql_vendor_codes_with_mysql_sql_states() {
+    assertThat(
+        SQLErrorCategory.classify(new SQLException("dup", "23000", 1062)),
+        is(SQLErrorCategory.DUPLICATE_KEY));
+    assertThat(
+        SQLErrorCategory.classify(new SQLException("fk", "23000", 1452)),
+        is(SQLErrorCategory.FOREIGN_KEY_VIOLATION));
+    assertThat(
+        SQLErrorCategory.classify(new SQLException("lock wait", "HY000", 1205)),
+        is(SQLErrorCategory.TIMEOUT));
+
+    // same codes from another driver mean something else
+    assertThat(
+        SQLErrorCategory.classify(new SQLException("other", "42000", 1062)),
+        is(SQLErrorCategory.OTHER));
+    assertThat(
+        SQLErrorCategory.classify(new SQLException("other", "22001", 1205)),
+        is(SQLErrorCategory.OTHER));
+  }
+
+  @Test
+  public void should_return_expected_failures_from_try_execute() {
+    jdbcRunner.execute(
+        "create table table1 ( column1 INT PRIMARY KEY);", PreparedStatementSetter.NOOP);
+
+    ExecuteResult inserted = jdbcRunner.tryExecute(INSERT, ps -> ps.setInt(1, 1));
+    assertThat(inserted.isSuccess(), is(true));
+    assertThat(inserted.getUpdateCount(), is(1));
+
+    ExecuteResult duplicate = jdbcRunner.tryExecute(INSERT, ps -> ps.setInt(1, 1));
+    assertThat(duplicate.is(SQLErrorCategory.DUPLICATE_KEY), is(true));
+    assertThat(duplicate.getUpdateCount(), is(-1));
+
+    Assertions.assertThrows(
+        SQLRuntimeException.class,
+        () ->
+            jdbcRunner.tryExecute(
+                "insert into missing(column1) values (1)", PreparedStatementSetter.NOOP));
+  }
+
+  @Test
+  public void should_batch_deferred_writes_and_flush_before_reads() {
+    StatementProfiler profiler = new StatementProfiler(10);
+    JdbcRunner profiled = jdbcRunner.withProfiler(profiler);
+    profiled.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+
+    int count =
+        profiled.inTransaction(
+            tx -> {
+              for (int i = 0; i < 3; i++) {
+                final int value = i;
+                tx.executeDeferred(INSERT, ps -> ps.setInt(1, value));
+              }
+              tx.executeDeferred(
+                  "update table1 set column1 = column1 + 10", PreparedStatementSetter.NOOP);
+              tx.executeDeferred(INSERT, ps -> ps.setInt(1, 3));
+              return tx.query(
+                  "select count(*) from table1 where column1 >= 3",
+                  PreparedStatementSetter.NOOP,
+                  Mappers.SINGLE_INT);
+            });
+
+    assertThat(count, is(4));
+    assertThat(
+        profiled.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(4));
+    StatementProfile inserts =
+        profiler.getTopStatements().stream()
+            .filter(profile -> profile.getSql().equals(INSERT))
+            .findFirst()
+            .get();
+    assertThat(inserts.getCount(), is(2L));
+  }
+
+  @Test
+  public void should_report_failed_deferred_write_at_originating_call() {
+    jdbcRunner.execute(
+        "create table table1 ( column1 INT PRIMARY KEY);", PreparedStatementSetter.NOOP);
+
+    DeferredWriteFailed failed = failDeferredDuplicate();
+    assertThat(failed.getCause() instanceof DuplicateKey, is(true));
+    assertThat(failed.getMessage(), containsString("Deferred write #2 failed: " + INSERT));
+    // call sites are only captured with debug logging
+    assertThat(failed.getStackTrace()[0].getMethodName(), not("queueDuplicate"));
+
+    Logger logger = (Logger) LoggerFactory.getLogger(DeferredWrites.class);
+    logger.setLevel(Level.DEBUG);
+    try {
+      failed = failDeferredDuplicate();
+    } finally {
+      logger.setLevel(null);
+    }
+    assertThat(failed.getCause() instanceof DuplicateKey, is(true));
+    assertThat(failed.getStackTrace()[0].getMethodName(), is("queueDuplicate"));
+    assertThat(
+        jdbcRunner.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(0));
+  }
+
+  @Test
+  public void should_fail_commit_when_application_continues_after_failed_deferred_write() {
+    jdbcRunner.execute(
+        "create table table1 ( column1 INT PRIMARY KEY);", PreparedStatementSetter.NOOP);
+
+    DeferredWriteFailed failed =
+        Assertions.assertThrows(
+            DeferredWriteFailed.class,
+            () ->
+                jdbcRunner.inTransaction(
+                    tx -> {
+                      tx.executeDeferred(INSERT, ps -> ps.setInt(1, 1));
+                      tx.executeDeferred(INSERT, ps -> ps.setInt(1, 1));
+                      tx.executeDeferred(
+                          "insert into table1(column1) values (2)", PreparedStatementSetter.NOOP);
+                      try {
+                        tx.query(
+                            "select count(*) from table1",
+                            PreparedStatementSetter.NOOP,
+                            Mappers.SINGLE_INT);
+                      } catch (DeferredWriteFailed ignored) {
+                        // carry on as if the write was optional
+                      }
+                      tx.executeDeferred(INSERT, ps -> ps.setInt(1, 3));
+                      return null;
+                    }));
+
+    assertThat(failed.getMessage(), containsString("rollback-only"));
+    assertThat(failed.getCause() instanceof DeferredWriteFailed, is(true));
+    assertThat(
+        jdbcRunner.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(0));
+  }
+
+  private DeferredWriteFailed failDeferredDuplicate() {
+    return Assertions.assertThrows(
+        DeferredWriteFailed.class,
+        () ->
+            jdbcRunner.inTransaction(
+                tx -> {
+                  tx.executeDeferred(INSERT, ps -> ps.setInt(1, 1));
+                  queueDuplicate(tx);
+                  tx.executeDeferred(INSERT, ps -> ps.setInt(1, 2));
+                  return null;
+                }));
+  }
+
+  private static void queueDuplicate(JdbcRunner tx) {
+    tx.executeDeferred(INSERT, ps -> ps.setInt(1, 1));
+  }
+
+  @Test
+  public void should_limit_statements_to_remaining_transaction_timeout() {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+
+    Assertions.assertThrows(
+        StatementTimeout.class,
+        () ->
+            jdbcRunner.inTransaction(
+                TransactionOptions.DEFAULT.withTimeout(Duration.ofMillis(50)),
+                tx -> {
+                  tx.execute(INSERT, ps -> ps.setInt(1, 1));
+                  try {
+                    Thread.sleep(100);
+                  } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                  }
+                  return tx.execute(INSERT, ps -> ps.setInt(1, 2));
+                }));
+
+    assertThat(
+        jdbcRunner.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(0));
+  }
+
+  @Test
+  public void should_use_one_connection_and_reuse_statements_in_session() throws Exception {
+    AtomicInteger checkouts = new AtomicInteger();
+    AtomicInteger prepares = new AtomicInteger();
+    DataSourceConnectionSupplier dataSourceSupplier =
+        new DataSourceConnectionSupplier(database.getDataSource(), false);
+    ConnectionSupplier counting =
+        new ConnectionSupplier() {
+          @Override
+          public Connection getConnection() throws SQLException {
+            checkouts.incrementAndGet();
+            Connection physical = dataSourceSupplier.getConnection();
+            return (Connection)
+                Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    (proxy, method, args) -> {
+                      if (method.getName().equals("prepareStatement")) {
+                        prepares.incrementAndGet();
+                      }
+                      try {
+                        return method.invoke(physical, args);
+                      } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                      }
+                    });
+          }
+
+          @Override
+          public boolean commitWhenAutocommitDisabled() {
+            return false;
+          }
+
+          @Override
+          public boolean isExternallyManagedConnection() {
+            return false;
+          }
+        };
+    JdbcRunner counted = new JdbcRunner(counting, new ThreadLocalTransactionContextProvider());
+    counted.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    checkouts.set(0);
+    prepares.set(0);
+
+    int count =
+        counted.inSession(
+            session -> {
+              for (int i = 0; i < 10; i++) {
+                final int value = i;
+                session.execute(INSERT, ps -> ps.setInt(1, value));
+              }
+              return session.query(
+                  "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT);
+            });
+
+    assertThat(count, is(10));
+    assertThat(checkouts.get(), is(1));
+    assertThat(prepares.get(), is(2));
+    assertThat(
+        jdbcRunner.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(10));
+  }
+
   @Test
   public void test_in_transction() {
     jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
@@ -170,6 +469,468 @@ public class JdbcRunnerTest {
             });
   }
 
+  @Test
+  public void test_query_for_single_row() {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    jdbcRunner.execute(INSERT, ps -> ps.setInt(1, 1));
+    jdbcRunner.execute(INSERT, ps -> ps.setInt(1, 2));
+    jdbcRunner.execute(INSERT, ps -> ps.setInt(1, 2));
+    final String byValue = "select column1 from table1 where column1 = ?";
+
+    assertThat(
+        jdbcRunner.queryForObject(byValue, ps -> ps.setInt(1, 1), new TableRowMapper()), is(1));
+    assertThat(
+        jdbcRunner.queryForOptional(byValue, ps -> ps.setInt(1, 1), new TableRowMapper()),
+        is(Optional.of(1)));
+    assertThat(
+        jdbcRunner.queryForObject(byValue, ps -> ps.setInt(1, 3), new TableRowMapper()),
+        nullValue());
+    assertThat(
+        jdbcRunner.queryForOptional(byValue, ps -> ps.setInt(1, 3), new TableRowMapper()),
+        is(Optional.empty()));
+
+    Mappers.SingleResultExpected tooMany =
+        Assertions.assertThrows(
+            Mappers.SingleResultExpected.class,
+            () ->
+                jdbcRunner
+                    .withLightweightExceptions()
+                    .queryForOptional(byValue, ps -> ps.setInt(1, 2), new TableRowMapper()));
+    assertThat(tooMany.getStackTrace().length, is(0));
+
+    // the same when mapping with a SingleResultMapper
+    tooMany =
+        Assertions.assertThrows(
+            Mappers.SingleResultExpected.class,
+            () ->
+                jdbcRunner
+                    .withLightweightExceptions()
+                    .query(byValue, ps -> ps.setInt(1, 2), Mappers.SINGLE_INT));
+    assertThat(tooMany.getStackTrace().length, is(0));
+    Mappers.SingleResultExpected none =
+        Assertions.assertThrows(
+            Mappers.SingleResultExpected.class,
+            () -> jdbcRunner.query(byValue, ps -> ps.setInt(1, 3), Mappers.SINGLE_INT));
+    assertThat(none.getStackTrace().length > 0, is(true));
+  }
+
+  @Test
+  public void bulkhead_should_reject_when_class_is_saturated() throws Exception {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    Bulkheads bulkheads =
+        new Bulkheads()
+            .withClass("reports", 1, Duration.ZERO)
+            .withPattern("(?i)select .* from table1.*", "reports");
+    JdbcRunner limited = jdbcRunner.withBulkheads(bulkheads);
+
+    CountDownLatch executing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<List<Integer>> blocking =
+          executor.submit(
+              () ->
+                  limited.query(
+                      "select column1 from table1",
+                      ps -> {
+                        executing.countDown();
+                        awaitUninterruptibly(release);
+                      },
+                      new TableRowMapper()));
+      executing.await();
+
+      Assertions.assertThrows(
+          Bulkhead.BulkheadFull.class,
+          () ->
+              limited.query(
+                  "select * from table1", PreparedStatementSetter.NOOP, new TableRowMapper()));
+      // not matching any pattern, so not limited
+      limited.execute(INSERT, ps -> ps.setInt(1, 1));
+      Assertions.assertThrows(
+          Bulkhead.BulkheadFull.class,
+          () -> limited.withStatementClass("reports").execute(INSERT, ps -> ps.setInt(1, 1)));
+
+      release.countDown();
+      blocking.get();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    Bulkhead reports = bulkheads.getBulkhead("reports");
+    assertThat(reports.getRejectedCount(), is(2L));
+    assertThat(reports.getAcquiredCount(), is(1L));
+    assertThat(reports.getActive(), is(0));
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Test
+  public void should_fail_when_exceeding_result_limits() {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(INSERT, Arrays.asList(1, 2, 3), (value, ps) -> ps.setInt(1, value));
+
+    JdbcRunner rowLimited = jdbcRunner.withResultLimits(new ResultLimits().withMaxRows(2));
+    ResultLimitExceeded tooManyRows =
+        Assertions.assertThrows(
+            ResultLimitExceeded.class,
+            () ->
+                rowLimited.query(
+                    "select * from table1", PreparedStatementSetter.NOOP, new TableRowMapper()));
+    assertThat(tooManyRows.getLimit(), is(ResultLimitExceeded.Limit.ROWS));
+    assertThat(
+        rowLimited.query(
+            "select * from table1 where column1 < 3",
+            PreparedStatementSetter.NOOP,
+            new TableRowMapper()),
+        hasSize(2));
+
+    JdbcRunner sizeLimited =
+        jdbcRunner.withResultLimits(new ResultLimits().withMaxBytes(100, rs -> 40));
+    ResultLimitExceeded tooManyBytes =
+        Assertions.assertThrows(
+            ResultLimitExceeded.class,
+            () ->
+                sizeLimited.query(
+                    "select * from table1", PreparedStatementSetter.NOOP, new TableRowMapper()));
+    assertThat(tooManyBytes.getLimit(), is(ResultLimitExceeded.Limit.BYTES));
+
+    // single-row queries are limited too
+    ResultLimitExceeded singleRowTooLarge =
+        Assertions.assertThrows(
+            ResultLimitExceeded.class,
+            () ->
+                jdbcRunner
+                    .withResultLimits(new ResultLimits().withMaxBytes(10, rs -> 40))
+                    .queryForObject(
+                        "select * from table1 where column1 = 1",
+                        PreparedStatementSetter.NOOP,
+                        new TableRowMapper()));
+    assertThat(singleRowTooLarge.getLimit(), is(ResultLimitExceeded.Limit.BYTES));
+  }
+
+  @Test
+  public void should_cancel_statement_exceeding_time_limit_and_not_after_completion()
+      throws Exception {
+    final CountDownLatch cancelled = new CountDownLatch(1);
+    final AtomicInteger executions = new AtomicInteger();
+    final PreparedStatement statement = mock(PreparedStatement.class);
+    final Connection connection = mock(Connection.class);
+    final DataSource dataSource = mock(DataSource.class);
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.prepareStatement(anyString())).thenReturn(statement);
+    doAnswer(
+            invocation -> {
+              cancelled.countDown();
+              return null;
+            })
+        .when(statement)
+        .cancel();
+    when(statement.getUpdateCount()).thenReturn(1);
+    when(statement.execute())
+        .thenAnswer(
+            invocation -> {
+              if (executions.incrementAndGet() == 1 && cancelled.await(5, TimeUnit.SECONDS)) {
+                throw new SQLException("Statement cancelled", "HY008");
+              }
+              return false;
+            });
+
+    final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+    try {
+      JdbcRunner timeLimited =
+          new JdbcRunner(dataSource)
+              .withResultLimits(new ResultLimits().withTimeout(Duration.ofMillis(50), watchdog));
+
+      ResultLimitExceeded tooSlow =
+          Assertions.assertThrows(
+              ResultLimitExceeded.class,
+              () -> timeLimited.execute("update slow", PreparedStatementSetter.NOOP));
+      assertThat(tooSlow.getLimit(), is(ResultLimitExceeded.Limit.TIME));
+      assertThat(tooSlow.getCause() instanceof SQLRuntimeException, is(true));
+
+      assertThat(timeLimited.execute("update fast", PreparedStatementSetter.NOOP), is(1));
+      Thread.sleep(150);
+      verify(statement, times(1)).cancel();
+      verify(statement, times(2)).close();
+    } finally {
+      watchdog.shutdownNow();
+    }
+  }
+
+  @Test
+  public void profiler_should_stay_bounded_and_keep_hot_statement_under_concurrent_misses()
+      throws Exception {
+    StatementProfiler profiler = new StatementProfiler(20);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        final int thread = t;
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int i = 0; i < 1000; i++) {
+                    profiler.record(new Execution("select hot", false));
+                    profiler.record(new Execution("select " + thread + "-" + i, false));
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    List<StatementProfile> top = profiler.getTopStatements();
+    assertThat(top.size() <= 20, is(true));
+    StatementProfile hot =
+        top.stream().filter(p -> p.getSql().equals("select hot")).findFirst().get();
+    assertThat(hot.getCount() >= 4000, is(true));
+  }
+
+  @Test
+  public void profiler_should_keep_most_frequent_statements() {
+    StatementProfiler profiler = new StatementProfiler(2);
+    JdbcRunner profiled = jdbcRunner.withProfiler(profiler);
+    profiled.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    for (int i = 0; i < 5; i++) {
+      profiled.execute(INSERT, ps -> ps.setInt(1, 1));
+    }
+    profiled.query("select * from table1", PreparedStatementSetter.NOOP, new TableRowMapper());
+    profiled.query("select * from table1", PreparedStatementSetter.NOOP, new TableRowMapper());
+
+    List<StatementProfile> top = profiler.getTopStatements();
+    assertThat(top, hasSize(2));
+    StatementProfile inserts =
+        top.stream().filter(p -> p.getSql().equals(INSERT)).findFirst().get();
+    assertThat(inserts.getCount(), is(5L));
+    assertThat(inserts.getRows(), is(5L));
+    StatementProfile selects =
+        top.stream().filter(p -> p.getSql().startsWith("select")).findFirst().get();
+    // took over the slot of the create table statement
+    assertThat(selects.getCount(), is(3L));
+    assertThat(selects.getCountError(), is(1L));
+    assertThat(selects.getRows(), is(10L));
+  }
+
+  @Test
+  public void fetch_size_tuner_should_reject_invalid_target_and_bounds() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new FetchSizeTuner(10, 0));
+    FetchSizeTuner tuner = new FetchSizeTuner(10, 1_000_000);
+    Assertions.assertThrows(IllegalArgumentException.class, () -> tuner.withBounds(0, 10));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> tuner.withBounds(100, 10));
+  }
+
+  @Test
+  public void profiler_should_require_positive_capacity() {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> new StatementProfiler(0));
+  }
+
+  @Test
+  public void fetch_size_tuner_should_adapt_to_result_sizes() {
+    FetchSizeTuner tuner = new FetchSizeTuner(10, 1_000_000).withBounds(1, 10_000);
+    JdbcRunner tuned = jdbcRunner.withFetchSizeTuner(tuner);
+    tuned.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    tuned.executeBatch(
+        INSERT,
+        IntStream.range(0, 50).boxed().collect(Collectors.toList()),
+        (value, ps) -> ps.setInt(1, value));
+    assertThat(tuner.getTunings(), hasSize(0));
+
+    final String select = "select * from table1";
+    final ResultSetMapper<Integer> fetchSize = rs -> rs.getStatement().getFetchSize();
+    tuned.query(select, PreparedStatementSetter.NOOP, new TableRowMapper());
+    FetchSizeTuner.Tuning tuning = tuner.getTunings().get(0);
+    assertThat(tuning.getExpectedRows(), is(50L));
+    // enough to read all rows, and see the end, in one round trip
+    assertThat(tuning.getFetchSize(), is(51));
+    assertThat(tuned.query(select, PreparedStatementSetter.NOOP, fetchSize), is(51));
+
+    tuned.execute("delete from table1 where column1 >= 10", PreparedStatementSetter.NOOP);
+    tuned.query(select, PreparedStatementSetter.NOOP, new TableRowMapper());
+    // decays towards the smaller results
+    assertThat(tuner.getTunings().get(0).getFetchSize(), is(38));
+
+    final long rowBytes = tuning.getRowBytes();
+    JdbcRunner smallBudget =
+        jdbcRunner.withFetchSizeTuner(new FetchSizeTuner(10, rowBytes * 4).withBounds(1, 100));
+    smallBudget.query(select, PreparedStatementSetter.NOOP, new TableRowMapper());
+    assertThat(smallBudget.query(select, PreparedStatementSetter.NOOP, fetchSize), is(4));
+  }
+
+  @Test
+  public void slow_query_log_should_not_affect_results() {
+    JdbcRunner logging =
+        jdbcRunner.withSlowQueryLog(
+            new SlowQueryLog(Duration.ZERO)
+                .withParameterSampleRate(1.0)
+                .withRedactedParameters(1)
+                .withExplain(
+                    new DataSourceConnectionSupplier(database.getDataSource(), false),
+                    Runnable::run,
+                    "EXPLAIN PLAN FOR "));
+
+    logging.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    assertThat(logging.execute(INSERT, ps -> ps.setInt(1, 1)), is(1));
+    assertThat(
+        logging.query(
+            "select column1 from table1 where column1 = ?",
+            ps -> ps.setInt(1, 1),
+            new TableRowMapper()),
+        hasSize(1));
+    logging.inTransaction(tx -> tx.execute(INSERT, ps -> ps.setInt(1, 2)));
+    assertThat(
+        logging.query(
+            "select count(*) from table1", PreparedStatementSetter.NOOP, Mappers.SINGLE_INT),
+        is(2));
+  }
+
+  @Test
+  public void slow_query_log_should_log_above_threshold_with_redaction_and_rate_limit() {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    final String select =
+        "select column1 from table1 where column1 = ? or cast(column1 as varchar(10)) = ?";
+    final PreparedStatementSetter parameters =
+        ps -> {
+          ps.setInt(1, 42);
+          ps.setString(2, "secret");
+        };
+    ListAppender<ILoggingEvent> appender = new ListAppender<>();
+    appender.start();
+    Logger logger = (Logger) LoggerFactory.getLogger(SlowQueryLog.class);
+    logger.addAppender(appender);
+    try {
+      jdbcRunner
+          .withSlowQueryLog(new SlowQueryLog(Duration.ofHours(1)).withParameterSampleRate(1.0))
+          .query(select, parameters, new TableRowMapper());
+      assertThat(appender.list, hasSize(0));
+
+      jdbcRunner
+          .withSlowQueryLog(new SlowQueryLog(Duration.ZERO))
+          .query(select, parameters, new TableRowMapper());
+      assertThat(appender.list, hasSize(1));
+      String byDefault = appender.list.get(0).getFormattedMessage();
+      assertThat(byDefault, containsString(select + " parameters=<not captured>"));
+      assertThat(byDefault, containsString("map="));
+      assertThat(byDefault, containsString("release="));
+
+      JdbcRunner capturing =
+          jdbcRunner.withSlowQueryLog(
+              new SlowQueryLog(Duration.ZERO)
+                  .withParameterSampleRate(1.0)
+                  .withRedactedParameters(2)
+                  .withMaxLogsPerSecond(2));
+      for (int i = 0; i < 5; i++) {
+        capturing.query(select, parameters, new TableRowMapper());
+      }
+      // rate-limited to 2 per second
+      assertThat(appender.list, hasSize(3));
+      String captured = appender.list.get(1).getFormattedMessage();
+      assertThat(captured, containsString("parameters=[1=42, 2=***]"));
+      assertThat(captured, not(containsString("secret")));
+    } finally {
+      logger.detachAppender(appender);
+    }
+  }
+
+  @Test
+  public void should_trace_statements_as_children_of_transaction() {
+    List<RecordedSpan> spans = new ArrayList<>();
+    JdbcRunner traced =
+        jdbcRunner.withTracer(
+            (name, parent) -> {
+              RecordedSpan span = new RecordedSpan(name, parent);
+              spans.add(span);
+              return span;
+            });
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+
+    traced.inTransaction(
+        tx -> tx.execute("insert into table1(column1) values (42)", PreparedStatementSetter.NOOP));
+
+    assertThat(spans, hasSize(2));
+    RecordedSpan transaction = spans.get(0);
+    RecordedSpan statement = spans.get(1);
+    assertThat(transaction.name, is("jdbc.transaction"));
+    assertThat(transaction.events, is(Arrays.asList("commit")));
+    assertThat(statement.parent, is(transaction));
+    assertThat(
+        statement.attributes.get("db.statement"), is("insert into table1(column1) values (?)"));
+    assertThat(statement.attributes.get("db.rows"), is(1L));
+    assertThat(statement.ended && transaction.ended, is(true));
+  }
+
+  @Test
+  public void should_end_span_and_profile_statement_rejected_by_bulkhead() {
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    List<RecordedSpan> spans = new ArrayList<>();
+    StatementProfiler profiler = new StatementProfiler(10);
+    JdbcRunner limited =
+        jdbcRunner
+            .withBulkheads(new Bulkheads().withClass("none", 0, Duration.ZERO))
+            .withStatementClass("none")
+            .withProfiler(profiler)
+            .withTracer(
+                (name, parent) -> {
+                  RecordedSpan span = new RecordedSpan(name, parent);
+                  spans.add(span);
+                  return span;
+                });
+
+    Assertions.assertThrows(
+        Bulkhead.BulkheadFull.class, () -> limited.execute(INSERT, ps -> ps.setInt(1, 1)));
+
+    assertThat(spans, hasSize(1));
+    assertThat(spans.get(0).ended, is(true));
+    assertThat(spans.get(0).events, is(Arrays.asList("exception")));
+    assertThat(profiler.getTopStatements().get(0).getCount(), is(1L));
+  }
+
+  private static class RecordedSpan implements Tracer.Span {
+    private final String name;
+    private final Tracer.Span parent;
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<String> events = new ArrayList<>();
+    private boolean ended;
+
+    RecordedSpan(String name, Tracer.Span parent) {
+      this.name = name;
+      this.parent = parent;
+    }
+
+    @Override
+    public void setAttribute(String key, String value) {
+      attributes.put(key, value);
+    }
+
+    @Override
+    public void setAttribute(String key, long value) {
+      attributes.put(key, value);
+    }
+
+    @Override
+    public void addEvent(String name) {
+      events.add(name);
+    }
+
+    @Override
+    public void recordException(Throwable exception) {
+      events.add("exception");
+    }
+
+    @Override
+    public void end() {
+      ended = true;
+    }
+  }
+
   private static class TableRowMapper implements RowMapper<Integer> {
     @Override
     public Integer map(ResultSet rs) throws SQLException {
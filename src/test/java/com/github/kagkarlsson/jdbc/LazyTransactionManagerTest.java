@@ -0,0 +1,144 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+public class LazyTransactionManagerTest {
+
+  @Mock private DataSource dataSource;
+  @Mock private Connection connection;
+  private TransactionManager tm;
+  private ThreadLocalTransactionContextProvider txp;
+
+  @BeforeEach
+  public void setUp() {
+    txp = new ThreadLocalTransactionContextProvider();
+    tm = new TransactionManager(new DataSourceConnectionSupplier(dataSource, false), txp, true);
+  }
+
+  @Test
+  public void lazy_should_not_acquire_connection_if_unused() throws SQLException {
+    tm.inTransaction((DoInTransaction<Void>) c -> null);
+
+    verifyNoInteractions(dataSource);
+    verifyNoInteractions(connection);
+    assertThat(txp.getCurrent(), nullValue());
+  }
+
+  @Test
+  public void lazy_should_not_rollback_if_unused() throws SQLException {
+    try {
+      tm.inTransaction(
+          (DoInTransaction<Void>)
+              c -> {
+                throw new SQLRuntimeException();
+              });
+      fail("Should have thrown exception");
+    } catch (SQLRuntimeException e) {
+    }
+
+    verifyNoInteractions(dataSource);
+    verifyNoInteractions(connection);
+    assertThat(txp.getCurrent(), nullValue());
+  }
+
+  @Test
+  public void lazy_should_begin_on_first_use_and_commit() throws SQLException {
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.getAutoCommit()).thenReturn(true);
+    tm.inTransaction(
+        (DoInTransaction<Void>)
+            c -> {
+              try {
+                c.prepareStatement("select 1");
+              } catch (SQLException e) {
+                throw new SQLRuntimeException(e);
+              }
+              return null;
+            });
+
+    verify(connection).getAutoCommit();
+    verify(connection).setAutoCommit(false);
+    verify(connection).prepareStatement("select 1");
+    verify(connection).commit();
+    verify(connection).setAutoCommit(true);
+    verify(connection).close();
+    verifyNoMoreInteractions(connection);
+
+    assertThat(txp.getCurrent(), nullValue());
+  }
+
+  @Test
+  public void lazy_should_restore_partially_applied_options() throws Exception {
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.isReadOnly()).thenReturn(false);
+    when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+    doThrow(new SQLException("unsupported"))
+        .when(connection)
+        .setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+
+    try {
+      tm.inTransaction(
+          TransactionOptions.DEFAULT
+              .withReadOnly(true)
+              .withIsolation(Connection.TRANSACTION_SERIALIZABLE),
+          (DoInTransaction<Void>)
+              c -> {
+                try {
+                  c.prepareStatement("select 1");
+                } catch (SQLException e) {
+                  throw new SQLRuntimeException(e);
+                }
+                return null;
+              });
+      fail("Should have thrown exception");
+    } catch (SQLRuntimeException e) {
+    }
+
+    verify(connection).setReadOnly(true);
+    verify(connection).setReadOnly(false);
+    verify(connection).close();
+    verify(connection, never()).commit();
+    assertThat(txp.getCurrent(), nullValue());
+  }
+
+  @Test
+  public void lazy_should_not_replace_application_exception_when_close_fails() throws Exception {
+    when(dataSource.getConnection()).thenReturn(connection);
+    when(connection.getAutoCommit()).thenReturn(false);
+    final SQLException closeException = new SQLException("close failed");
+    doThrow(closeException).when(connection).close();
+    final SQLRuntimeException applicationException = new SQLRuntimeException("application");
+
+    try {
+      tm.inTransaction(
+          (DoInTransaction<Void>)
+              c -> {
+                try {
+                  c.prepareStatement("select 1");
+                } catch (SQLException e) {
+                  throw new SQLRuntimeException(e);
+                }
+                throw applicationException;
+              });
+      fail("Should have thrown exception");
+    } catch (SQLRuntimeException e) {
+      assertThat(e, is(applicationException));
+      assertThat(e.getSuppressed()[0], is(closeException));
+    }
+    verify(connection).rollback();
+  }
+}
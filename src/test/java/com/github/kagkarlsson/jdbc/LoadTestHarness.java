@@ -0,0 +1,393 @@
+package com.github.kagkarlsson.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.HdrHistogram.Histogram;
+import org.hsqldb.jdbc.JDBCDataSource;
+
+/**
+ * Drives a configurable mix of operations against HSQLDB through a fixed-size connection pool,
+ * sweeping thread counts on platform and (if the JVM supports them) virtual threads, and writes
+ * throughput and latency percentiles as JSON so that runs of different versions can be compared.
+ *
+ * <p>Not run as part of the build. Run with <code>key=value</code> arguments, e.g.
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *   -Dexec.mainClass=com.github.kagkarlsson.jdbc.LoadTestHarness \
+ *   -Dexec.args="threads=1,8,64,256 pool=16 duration=10 mix=QUERY:60,EXECUTE:20,BATCH:10,TRANSACTION:10"
+ * </pre>
+ *
+ * Arguments: <code>threads</code>, <code>pool</code> (connections), <code>duration</code> and
+ * <code>warmup</code> (seconds per thread count), <code>mix</code> (weights per operation), <code>
+ * rows</code> (preloaded rows), <code>url</code> (HSQLDB url, e.g. <code>jdbc:hsqldb:file:/tmp/lt
+ * </code>), <code>virtual</code> (true/false) and <code>report</code> (path of the JSON report).
+ */
+public class LoadTestHarness {
+
+  enum Operation {
+    QUERY,
+    EXECUTE,
+    BATCH,
+    TRANSACTION
+  }
+
+  private static final RowMapper<String> PAYLOAD = rs -> rs.getString(1);
+
+  private final Map<String, String> config;
+  private final int rows;
+  private final Operation[] weightedOperations;
+  private final JdbcRunner jdbcRunner;
+
+  LoadTestHarness(Map<String, String> config, ConnectionSupplier connectionSupplier) {
+    this.config = config;
+    this.rows = Integer.parseInt(config.get("rows"));
+    this.weightedOperations = weightedOperations(config.get("mix"));
+    this.jdbcRunner =
+        new JdbcRunner(connectionSupplier, new ThreadLocalTransactionContextProvider());
+  }
+
+  public static void main(String[] args) throws Exception {
+    final Map<String, String> config = new LinkedHashMap<>();
+    config.put("threads", "1,2,4,8,16,32,64,128,256");
+    config.put("pool", "16");
+    config.put("duration", "5");
+    config.put("warmup", "1");
+    config.put("mix", "QUERY:60,EXECUTE:20,BATCH:10,TRANSACTION:10");
+    config.put("rows", "10000");
+    config.put("url", "jdbc:hsqldb:mem:loadtest");
+    config.put("virtual", "true");
+    config.put("report", "target/load-test-report.json");
+    for (String arg : args) {
+      final String[] keyValue = arg.split("=", 2);
+      if (keyValue.length != 2 || !config.containsKey(keyValue[0])) {
+        throw new IllegalArgumentException("Unknown argument: " + arg + ", known: " + config);
+      }
+      config.put(keyValue[0], keyValue[1]);
+    }
+
+    final JDBCDataSource dataSource = new JDBCDataSource();
+    dataSource.setUrl(config.get("url"));
+    dataSource.setUser("sa");
+    final BlockingPool pool = new BlockingPool(dataSource, Integer.parseInt(config.get("pool")));
+    try {
+      final LoadTestHarness harness = new LoadTestHarness(config, pool);
+      harness.createSchema();
+
+      final List<Map<String, Object>> results = new ArrayList<>();
+      final List<String> threadKinds = new ArrayList<>();
+      threadKinds.add("platform");
+      if (Boolean.parseBoolean(config.get("virtual"))) {
+        if (virtualThreadExecutor() != null) {
+          threadKinds.add("virtual");
+        } else {
+          System.out.println("Virtual threads not supported by this JVM, skipping.");
+        }
+      }
+
+      for (String threadKind : threadKinds) {
+        for (String threads : config.get("threads").split(",")) {
+          final Map<String, Object> result =
+              harness.run(threadKind, Integer.parseInt(threads.trim()));
+          System.out.println(result);
+          results.add(result);
+        }
+      }
+
+      final Path report = Paths.get(config.get("report"));
+      if (report.getParent() != null) {
+        Files.createDirectories(report.getParent());
+      }
+      Files.write(report, harness.report(results).getBytes(StandardCharsets.UTF_8));
+      System.out.println("Report written to " + report.toAbsolutePath());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  void createSchema() {
+    jdbcRunner.execute("drop table load_test if exists", PreparedStatementSetter.NOOP);
+    jdbcRunner.execute(
+        "create table load_test (id INT PRIMARY KEY, payload VARCHAR(100), counter INT)",
+        PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into load_test(id, payload, counter) values (?, ?, 0)",
+        IntStream.range(0, rows).boxed().collect(Collectors.toList()),
+        (id, ps) -> {
+          ps.setInt(1, id);
+          ps.setString(2, "payload-" + id);
+        });
+  }
+
+  Map<String, Object> run(String threadKind, int threads) throws Exception {
+    measure(threadKind, threads, Long.parseLong(config.get("warmup")));
+    return measure(threadKind, threads, Long.parseLong(config.get("duration")));
+  }
+
+  private Map<String, Object> measure(String threadKind, int threads, long seconds)
+      throws Exception {
+    final ExecutorService executor =
+        threadKind.equals("virtual")
+            ? virtualThreadExecutor()
+            : Executors.newFixedThreadPool(threads);
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    final long started = System.nanoTime();
+    final List<Future<Worker>> workers = new ArrayList<>();
+    try {
+      for (int i = 0; i < threads; i++) {
+        workers.add(executor.submit(() -> new Worker().runUntil(deadline)));
+      }
+
+      final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+      final Histogram total = newHistogram();
+      long errors = 0;
+      for (Future<Worker> future : workers) {
+        final Worker worker = future.get();
+        errors += worker.errors;
+        for (Map.Entry<Operation, Histogram> entry : worker.latencies.entrySet()) {
+          latencies.computeIfAbsent(entry.getKey(), k -> newHistogram()).add(entry.getValue());
+          total.add(entry.getValue());
+        }
+      }
+      final double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+      final Map<String, Object> result = new LinkedHashMap<>();
+      result.put("threadKind", threadKind);
+      result.put("threads", threads);
+      result.put("ops", total.getTotalCount());
+      result.put("opsPerSecond", Math.round(total.getTotalCount() / elapsedSeconds));
+      result.put("errors", errors);
+      result.put("latencyMicros", percentiles(total));
+      final Map<String, Object> perOperation = new LinkedHashMap<>();
+      for (Map.Entry<Operation, Histogram> entry : latencies.entrySet()) {
+        perOperation.put(entry.getKey().name(), percentiles(entry.getValue()));
+      }
+      result.put("operations", perOperation);
+      return result;
+    } finally {
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  private class Worker {
+    private final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    private long errors;
+
+    Worker runUntil(long deadline) {
+      final ThreadLocalRandom random = ThreadLocalRandom.current();
+      while (System.nanoTime() < deadline) {
+        final Operation operation = weightedOperations[random.nextInt(weightedOperations.length)];
+        final long started = System.nanoTime();
+        try {
+          execute(operation, random);
+        } catch (RuntimeException e) {
+          errors++;
+          continue;
+        }
+        latencies
+            .computeIfAbsent(operation, k -> newHistogram())
+            .recordValue((System.nanoTime() - started) / 1000);
+      }
+      return this;
+    }
+
+    private void execute(Operation operation, ThreadLocalRandom random) {
+      final int id = random.nextInt(rows);
+      switch (operation) {
+        case QUERY:
+          jdbcRunner.query(
+              "select payload from load_test where id = ?", ps -> ps.setInt(1, id), PAYLOAD);
+          break;
+        case EXECUTE:
+          jdbcRunner.execute(
+              "update load_test set counter = counter + 1 where id = ?", ps -> ps.setInt(1, id));
+          break;
+        case BATCH:
+          jdbcRunner.executeBatch(
+              "update load_test set counter = counter + 1 where id = ?",
+              Arrays.asList(id, (id + 1) % rows, (id + 2) % rows, (id + 3) % rows),
+              (value, ps) -> ps.setInt(1, value));
+          break;
+        case TRANSACTION:
+          jdbcRunner.inTransaction(
+              tx -> {
+                final int counter =
+                    tx.query(
+                        "select counter from load_test where id = ?",
+                        ps -> ps.setInt(1, id),
+                        Mappers.SINGLE_INT);
+                return tx.execute(
+                    "update load_test set counter = ? where id = ?",
+                    ps -> {
+                      ps.setInt(1, counter + 1);
+                      ps.setInt(2, id);
+                    });
+              });
+          break;
+        default:
+          throw new IllegalStateException("Unknown operation " + operation);
+      }
+    }
+  }
+
+  private String report(List<Map<String, Object>> results) {
+    final Map<String, Object> report = new LinkedHashMap<>();
+    report.put("timestamp", Instant.now().toString());
+    report.put("javaVersion", System.getProperty("java.version"));
+    report.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+    report.put("config", config);
+    report.put("results", results);
+    return toJson(report);
+  }
+
+  private static Map<String, Object> percentiles(Histogram histogram) {
+    final Map<String, Object> percentiles = new LinkedHashMap<>();
+    percentiles.put("p50", histogram.getValueAtPercentile(50));
+    percentiles.put("p99", histogram.getValueAtPercentile(99));
+    percentiles.put("p999", histogram.getValueAtPercentile(99.9));
+    percentiles.put("max", histogram.getMaxValue());
+    percentiles.put("mean", Math.round(histogram.getMean()));
+    return percentiles;
+  }
+
+  private static Histogram newHistogram() {
+    // micros, auto-resizing, 3 significant digits
+    return new Histogram(3);
+  }
+
+  private static Operation[] weightedOperations(String mix) {
+    final List<Operation> operations = new ArrayList<>();
+    for (String entry : mix.split(",")) {
+      final String[] operationWeight = entry.trim().split(":");
+      final Operation operation = Operation.valueOf(operationWeight[0].toUpperCase(Locale.ROOT));
+      for (int i = 0; i < Integer.parseInt(operationWeight[1]); i++) {
+        operations.add(operation);
+      }
+    }
+    if (operations.isEmpty()) {
+      throw new IllegalArgumentException("Empty operation mix: " + mix);
+    }
+    return operations.toArray(new Operation[0]);
+  }
+
+  /**
+   * @return an executor starting a virtual thread per task, or null if not supported by the JVM
+   */
+  private static ExecutorService virtualThreadExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static String toJson(Object value) {
+    if (value instanceof Map) {
+      return ((Map<String, Object>) value)
+          .entrySet().stream()
+              .map(e -> toJson(e.getKey()) + ":" + toJson(e.getValue()))
+              .collect(Collectors.joining(",", "{", "}"));
+    } else if (value instanceof List) {
+      return ((List<Object>) value)
+          .stream().map(LoadTestHarness::toJson).collect(Collectors.joining(",", "[", "]"));
+    } else if (value instanceof Number || value instanceof Boolean) {
+      return value.toString();
+    }
+    return "\"" + String.valueOf(value).replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  /** Fixed number of physical connections, callers block until one is returned. */
+  static class BlockingPool implements ConnectionSupplier {
+    private final BlockingQueue<Connection> idle;
+    private final List<Connection> physical = new ArrayList<>();
+
+    BlockingPool(JDBCDataSource dataSource, int size) throws SQLException {
+      this.idle = new ArrayBlockingQueue<>(size);
+      for (int i = 0; i < size; i++) {
+        final Connection connection = dataSource.getConnection();
+        physical.add(connection);
+        idle.add(connection);
+      }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      final Connection connection;
+      try {
+        connection = idle.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted waiting for connection.", e);
+      }
+      connection.setAutoCommit(true);
+      return pooled(connection);
+    }
+
+    private Connection pooled(Connection connection) {
+      final boolean[] closed = {false};
+      return (Connection)
+          Proxy.newProxyInstance(
+              LoadTestHarness.class.getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                if (method.getName().equals("close")) {
+                  if (!closed[0]) {
+                    closed[0] = true;
+                    idle.add(connection);
+                  }
+                  return null;
+                }
+                if (method.getName().equals("isClosed")) {
+                  return closed[0];
+                }
+                try {
+                  return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                  throw e.getCause();
+                }
+              });
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+
+    void shutdown() throws SQLException {
+      for (Connection connection : physical) {
+        connection.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LobsTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  @TempDir public Path tempDir;
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource(), false);
+    jdbcRunner.execute(
+        "create table lobs ( id INT, data BLOB(10M), text CLOB(10M));",
+        PreparedStatementSetter.NOOP);
+  }
+
+  @Test
+  public void should_stream_binary_from_file_and_into_stream() throws Exception {
+    byte[] payload = new byte[300_000];
+    new Random(1).nextBytes(payload);
+    Path file = tempDir.resolve("payload.bin");
+    Files.write(file, payload);
+
+    jdbcRunner.execute(
+        "insert into lobs(id, data) values (?, ?)",
+        ps -> {
+          ps.setInt(1, 1);
+          Lobs.setBinary(ps, 2, file);
+        });
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    long copied =
+        jdbcRunner.queryForObject(
+            "select data from lobs where id = ?",
+            ps -> ps.setInt(1, 1),
+            Lobs.binaryTo("data", out));
+    assertThat(copied, is((long) payload.length));
+    assertThat(Arrays.equals(out.toByteArray(), payload), is(true));
+  }
+
+  @Test
+  public void should_stream_binary_from_channel_and_into_channel() throws Exception {
+    byte[] payload = new byte[100_000];
+    new Random(2).nextBytes(payload);
+
+    jdbcRunner.execute(
+        "insert into lobs(id, data) values (?, ?)",
+        ps -> {
+          ps.setInt(1, 1);
+          Lobs.setBinary(
+              ps, 2, Channels.newChannel(new ByteArrayInputStream(payload)), payload.length);
+        });
+
+    Path target = tempDir.resolve("copy.bin");
+    try (FileChannel channel =
+        FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      jdbcRunner.queryForObject(
+          "select data from lobs where id = ?",
+          ps -> ps.setInt(1, 1),
+          Lobs.binaryTo("data", channel));
+    }
+    assertThat(Arrays.equals(Files.readAllBytes(target), payload), is(true));
+  }
+
+  @Test
+  public void should_stream_characters_and_handle_null() {
+    jdbcRunner.execute(
+        "insert into lobs(id, text) values (?, ?)",
+        ps -> {
+          ps.setInt(1, 1);
+          ps.setString(2, "some text");
+        });
+
+    StringWriter writer = new StringWriter();
+    assertThat(
+        jdbcRunner.queryForObject(
+            "select text from lobs where id = ?",
+            ps -> ps.setInt(1, 1),
+            rs -> Lobs.copyCharacters(rs, "text", writer)),
+        is(9L));
+    assertThat(writer.toString(), is("some text"));
+
+    assertThat(
+        jdbcRunner.queryForObject(
+            "select data from lobs where id = ?",
+            ps -> ps.setInt(1, 1),
+            Lobs.binaryTo("data", new ByteArrayOutputStream())),
+        is(-1L));
+  }
+}
@@ -0,0 +1,191 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class ParallelQueryTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+  private ExecutorService executor;
+  private List<Integer> ids;
+  private final CountDownLatch siblingsExecuting = new CountDownLatch(3);
+  private final CountDownLatch siblingsCancelled = new CountDownLatch(3);
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource(), false);
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    ids = IntStream.range(0, 100).boxed().collect(Collectors.toList());
+    jdbcRunner.executeBatch(
+        "insert into table1(column1) values (?)", ids, (value, ps) -> ps.setInt(1, value));
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void should_merge_sorted_partitions() {
+    List<Integer> merged =
+        new ParallelQuery(jdbcRunner, executor)
+            .query(
+                "select column1 from table1 where mod(column1, ?) = ? order by column1",
+                ParallelQuery.Partitioner.modulo(4),
+                rs -> rs.getInt(1),
+                ParallelQuery.mergeSorted(Comparator.<Integer>naturalOrder()));
+
+    assertThat(merged, is(ids));
+  }
+
+  @Test
+  public void should_concat_range_partitions() {
+    List<Integer> merged =
+        new ParallelQuery(jdbcRunner, executor)
+            .query(
+                "select column1 from table1 where column1 >= ? and column1 < ? order by column1",
+                ParallelQuery.Partitioner.ranges(0, 100, 3),
+                rs -> rs.getInt(1),
+                ParallelQuery.concat());
+
+    assertThat(merged, is(ids));
+  }
+
+  @Test
+  public void should_fail_if_any_partition_fails() throws Exception {
+    JdbcRunner stalling =
+        new JdbcRunner(
+            new SiblingsStallingConnectionSupplier(), new ThreadLocalTransactionContextProvider());
+
+    SQLRuntimeException failure =
+        Assertions.assertThrows(
+            SQLRuntimeException.class,
+            () ->
+                new ParallelQuery(stalling, executor)
+                    .query(
+                        "select column1 from table1 where mod(column1, ?) = ?",
+                        ParallelQuery.Partitioner.modulo(4),
+                        rs -> {
+                          if (rs.getInt(1) == 42) {
+                            throw new SQLRuntimeException("failing partition");
+                          }
+                          return rs.getInt(1);
+                        },
+                        ParallelQuery.concat()));
+
+    assertThat(failure.getMessage(), is("failing partition"));
+    assertThat(siblingsCancelled.await(5, TimeUnit.SECONDS), is(true));
+  }
+
+  @Test
+  public void should_reject_runner_using_single_connection() {
+    jdbcRunner.inTransaction(
+        tx ->
+            Assertions.assertThrows(
+                IllegalArgumentException.class, () -> new ParallelQuery(tx, executor)));
+    jdbcRunner.inSession(
+        session ->
+            Assertions.assertThrows(
+                IllegalArgumentException.class, () -> new ParallelQuery(session, executor)));
+  }
+
+  /**
+   * Partition 2 fails once the other partitions are executing, and they only stop executing when
+   * cancelled using Statement.cancel().
+   */
+  private class SiblingsStallingConnectionSupplier implements ConnectionSupplier {
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      final Connection connection = database.getDataSource().getConnection();
+      return (Connection)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {Connection.class},
+              (proxy, method, args) -> {
+                final Object result = invoke(method, connection, args);
+                return method.getName().equals("prepareStatement")
+                    ? stalling((PreparedStatement) result)
+                    : result;
+              });
+    }
+
+    private PreparedStatement stalling(PreparedStatement statement) {
+      final AtomicInteger partition = new AtomicInteger();
+      final CountDownLatch cancel = new CountDownLatch(1);
+      return (PreparedStatement)
+          Proxy.newProxyInstance(
+              getClass().getClassLoader(),
+              new Class<?>[] {PreparedStatement.class},
+              (proxy, method, args) -> {
+                if (method.getName().equals("setInt") && (int) args[0] == 2) {
+                  partition.set((int) args[1]);
+                } else if (method.getName().equals("cancel")) {
+                  cancel.countDown();
+                  siblingsCancelled.countDown();
+                } else if (method.getName().equals("execute")) {
+                  if (partition.get() == 2) {
+                    siblingsExecuting.await(5, TimeUnit.SECONDS);
+                  } else {
+                    siblingsExecuting.countDown();
+                    awaitUninterruptibly(cancel);
+                    throw new SQLException("Statement cancelled", "57014");
+                  }
+                }
+                return invoke(method, statement, args);
+              });
+    }
+
+    private void awaitUninterruptibly(CountDownLatch latch) {
+      final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (latch.getCount() > 0 && System.nanoTime() < deadline) {
+        try {
+          latch.await(10, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+          // only Statement.cancel() ends the execution
+        }
+      }
+    }
+
+    private Object invoke(Method method, Object target, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+public class QueryPublisherTest {
+  private static final String QUERY = "select column1 from table1 order by column1";
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+  private ExecutorService executor;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource(), false);
+    jdbcRunner.execute("create table table1 ( column1 INT);", PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into table1(column1) values (?)",
+        Arrays.asList(1, 2, 3, 4, 5),
+        (value, ps) -> ps.setInt(1, value));
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void should_emit_rows_as_requested_and_complete() throws InterruptedException {
+    RecordingSubscriber subscriber = new RecordingSubscriber(Integer.MAX_VALUE);
+    publisher().subscribe(subscriber);
+
+    assertThat(subscriber.terminated.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(subscriber.received, is(Arrays.asList(1, 2, 3, 4, 5)));
+    assertThat(subscriber.completed, is(true));
+    assertThat(subscriber.error, nullValue());
+  }
+
+  @Test
+  public void should_stop_emitting_when_cancelled() throws InterruptedException {
+    RecordingSubscriber subscriber = new RecordingSubscriber(2);
+    publisher().subscribe(subscriber);
+
+    assertThat(subscriber.cancelledAfterLimit.await(5, TimeUnit.SECONDS), is(true));
+    // let the executor process the cancellation
+    executor.shutdown();
+    executor.awaitTermination(5, TimeUnit.SECONDS);
+
+    assertThat(subscriber.received, is(Arrays.asList(1, 2)));
+    assertThat(subscriber.completed, is(false));
+    assertThat(subscriber.error, nullValue());
+  }
+
+  @Test
+  public void should_apply_result_limits_and_profiler_of_runner() throws InterruptedException {
+    StatementProfiler profiler = new StatementProfiler(10);
+    JdbcRunner limited =
+        jdbcRunner.withResultLimits(new ResultLimits().withMaxRows(3)).withProfiler(profiler);
+    RecordingSubscriber subscriber = new RecordingSubscriber(Integer.MAX_VALUE);
+    publisher(limited).subscribe(subscriber);
+
+    assertThat(subscriber.terminated.await(5, TimeUnit.SECONDS), is(true));
+    assertThat(subscriber.received, is(Arrays.asList(1, 2, 3)));
+    assertThat(subscriber.error instanceof ResultLimitExceeded, is(true));
+    StatementProfile profile = profiler.getTopStatements().get(0);
+    assertThat(profile.getSql(), is(QUERY));
+    assertThat(profile.getCount(), is(1L));
+  }
+
+  private QueryPublisher<Integer> publisher() {
+    return publisher(jdbcRunner);
+  }
+
+  private QueryPublisher<Integer> publisher(JdbcRunner jdbcRunner) {
+    return new QueryPublisher<>(
+        jdbcRunner, QUERY, PreparedStatementSetter.NOOP, rs -> rs.getInt(1), executor);
+  }
+
+  /** Requests one row at a time, cancelling after <code>limit</code> rows. */
+  private static class RecordingSubscriber implements Subscriber<Integer> {
+    private final int limit;
+    private final List<Integer> received = new ArrayList<>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private final CountDownLatch cancelledAfterLimit = new CountDownLatch(1);
+    private volatile boolean completed;
+    private volatile Throwable error;
+    private Subscription subscription;
+
+    RecordingSubscriber(int limit) {
+      this.limit = limit;
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(1);
+    }
+
+    @Override
+    public void onNext(Integer value) {
+      received.add(value);
+      if (received.size() == limit) {
+        subscription.cancel();
+        cancelledAfterLimit.countDown();
+      } else {
+        subscription.request(1);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      terminated.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+      terminated.countDown();
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+public class QueueClaimerTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute(
+        "create table queue ( id INT PRIMARY KEY, status VARCHAR(10), version INT);",
+        PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into queue(id, status, version) values (?, 'NEW', 0)",
+        IntStream.range(0, 10).boxed().collect(Collectors.toList()),
+        (id, ps) -> ps.setInt(1, id));
+  }
+
+  @Test
+  public void should_claim_optimistically_and_adapt_batch_size() {
+    QueueClaimer<Integer> claimer =
+        new QueueClaimer<>(
+                jdbcRunner,
+                QueueClaimer.Dialect.OPTIMISTIC,
+                "queue",
+                "id",
+                "status = 'NEW'",
+                "status = 'CLAIMED'",
+                rs -> rs.getInt("id"))
+            .withVersionColumn("version")
+            .withBatchSize(1, 4, 8);
+
+    assertThat(claimer.claim(), is(Arrays.asList(0, 1, 2, 3)));
+    assertThat(claimer.getBatchSize(), is(8));
+
+    assertThat(claimer.claim(), is(Arrays.asList(4, 5, 6, 7, 8, 9)));
+    assertThat(claimer.getBatchSize(), is(8));
+
+    assertThat(claimer.claim().isEmpty(), is(true));
+    assertThat(claimer.getBatchSize(), is(4));
+
+    List<Integer> versions =
+        jdbcRunner.query(
+            "select distinct version from queue where status = 'CLAIMED'",
+            PreparedStatementSetter.NOOP,
+            (RowMapper<Integer>) rs -> rs.getInt(1));
+    assertThat(versions, is(Arrays.asList(1)));
+  }
+
+  @Test
+  public void should_fail_optimistic_claim_without_per_statement_update_counts() {
+    JdbcRunner noInfo =
+        new JdbcRunner(
+            new NoInfoBatchConnectionSupplier(), new ThreadLocalTransactionContextProvider());
+    QueueClaimer<Integer> claimer =
+        new QueueClaimer<>(
+                noInfo,
+                QueueClaimer.Dialect.OPTIMISTIC,
+                "queue",
+                "id",
+                "status = 'NEW'",
+                "status = 'CLAIMED'",
+                rs -> rs.getInt("id"))
+            .withVersionColumn("version")
+            .withBatchSize(1, 4, 8);
+
+    Assertions.assertThrows(IllegalStateException.class, claimer::claim);
+    assertThat(claimer.getBatchSize(), is(4));
+    assertThat(
+        jdbcRunner.query(
+            "select count(*) from queue where status = 'NEW'",
+            PreparedStatementSetter.NOOP,
+            Mappers.SINGLE_INT),
+        is(10));
+  }
+
+  @Test
+  public void should_claim_in_single_statement_for_postgresql() {
+    QueueClaimer<Integer> claimer =
+        new QueueClaimer<>(
+                jdbcRunner,
+                QueueClaimer.Dialect.POSTGRESQL,
+                "queue",
+                "id",
+                "status = 'NEW'",
+                "status = 'CLAIMED'",
+                rs -> rs.getInt("id"))
+            .withOrderBy("id desc");
+
+    assertThat(
+        claimer.updateReturningSql(),
+        is(
+            "UPDATE queue SET status = 'CLAIMED' WHERE id IN (SELECT id FROM queue"
+                + " WHERE status = 'NEW' ORDER BY id desc LIMIT ? FOR UPDATE SKIP LOCKED)"
+                + " RETURNING *"));
+  }
+
+  /** Answers batches like drivers rewriting them into a single multi-row statement. */
+  private class NoInfoBatchConnectionSupplier implements ConnectionSupplier {
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      final Connection connection = database.getDataSource().getConnection();
+      return proxy(
+          Connection.class,
+          connection,
+          (method, result) ->
+              method.getName().equals("prepareStatement")
+                  ? proxy(
+                      PreparedStatement.class,
+                      (PreparedStatement) result,
+                      (statementMethod, statementResult) -> {
+                        if (statementMethod.getName().equals("executeBatch")) {
+                          final int[] counts = (int[]) statementResult;
+                          Arrays.fill(counts, Statement.SUCCESS_NO_INFO);
+                        }
+                        return statementResult;
+                      })
+                  : result);
+    }
+
+    @Override
+    public boolean commitWhenAutocommitDisabled() {
+      return false;
+    }
+
+    @Override
+    public boolean isExternallyManagedConnection() {
+      return false;
+    }
+  }
+
+  private static <T> T proxy(
+      Class<T> type, T target, BiFunction<Method, Object, Object> afterInvocation) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            QueueClaimerTest.class.getClassLoader(),
+            new Class<?>[] {type},
+            (proxy, method, args) -> {
+              try {
+                return afterInvocation.apply(method, method.invoke(target, args));
+              } catch (InvocationTargetException e) {
+                throw e.getCause();
+              }
+            }));
+  }
+}
@@ -0,0 +1,247 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ResultSetExporterTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  @TempDir public Path tempDir;
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute(
+        "create table table1 ( id BIGINT, name VARCHAR(100), active BOOLEAN);",
+        PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into table1(id, name, active) values (?, ?, ?)",
+        Arrays.asList(-12L, 0L, 3L, Long.MIN_VALUE),
+        (id, ps) -> {
+          ps.setLong(1, id);
+          ps.setString(2, id == 0 ? null : id == 3 ? "a,\"b\"\tå€😀" : "plain");
+          ps.setBoolean(3, id > 0);
+        });
+  }
+
+  @Test
+  public void should_export_csv_and_tsv() throws Exception {
+    assertThat(
+        export(ResultSetExporter::csv, false),
+        is(
+            "ID,NAME,ACTIVE\n"
+                + "-9223372036854775808,plain,false\n"
+                + "-12,plain,false\n"
+                + "0,,false\n"
+                + "3,\"a,\"\"b\"\"\tå€😀\",true\n"));
+    assertThat(
+        export(c -> ResultSetExporter.tsv(c).withHeader(false), false),
+        is(
+            "-9223372036854775808\tplain\tfalse\n"
+                + "-12\tplain\tfalse\n"
+                + "0\t\\N\tfalse\n"
+                + "3\ta,\"b\"\\tå€😀\ttrue\n"));
+  }
+
+  @Test
+  public void should_export_gzipped_through_async_writer_with_small_buffers() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      String expected = export(ResultSetExporter::csv, false);
+      assertThat(
+          export(
+              c ->
+                  ResultSetExporter.csv(c)
+                      .withBufferSize(8)
+                      .withGzip(true)
+                      .withAsyncWriter(executor),
+              true),
+          is(expected));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void should_distinguish_null_from_empty_string_in_csv() throws Exception {
+    Path file = tempDir.resolve("export.csv");
+    try (FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      jdbcRunner.query(
+          "select name, '' as empty from table1 where id = 0",
+          PreparedStatementSetter.NOOP,
+          ResultSetExporter.csv(channel).withHeader(false));
+    }
+    assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), is(",\"\"\n"));
+  }
+
+  @Test
+  public void should_fail_without_hanging_when_async_writer_fails() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      WritableByteChannel failing =
+          new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+              throw new IOException("Disk full");
+            }
+
+            @Override
+            public boolean isOpen() {
+              return true;
+            }
+
+            @Override
+            public void close() {}
+          };
+      Assertions.assertTimeoutPreemptively(
+          Duration.ofSeconds(10),
+          () ->
+              Assertions.assertThrows(
+                  UncheckedIOException.class,
+                  () ->
+                      jdbcRunner.query(
+                          "select id, name, active from table1",
+                          PreparedStatementSetter.NOOP,
+                          ResultSetExporter.csv(failing)
+                              .withBufferSize(8)
+                              .withAsyncWriter(executor))));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void should_fail_without_hanging_when_async_writer_is_interrupted() {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      WritableByteChannel interrupting =
+          new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+              // interrupts the writer thread, which is the thread of this executor
+              executor.shutdownNow();
+              final int written = src.remaining();
+              src.position(src.limit());
+              return written;
+            }
+
+            @Override
+            public boolean isOpen() {
+              return true;
+            }
+
+            @Override
+            public void close() {}
+          };
+      Assertions.assertTimeoutPreemptively(
+          Duration.ofSeconds(10),
+          () ->
+              Assertions.assertThrows(
+                  UncheckedIOException.class,
+                  () ->
+                      jdbcRunner.query(
+                          "select id, name, active from table1",
+                          PreparedStatementSetter.NOOP,
+                          ResultSetExporter.csv(interrupting)
+                              .withBufferSize(8)
+                              .withAsyncWriter(executor))));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void should_export_binary() throws Exception {
+    Path file = tempDir.resolve("export.bin");
+    try (FileChannel channel =
+        FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+      Long rows =
+          jdbcRunner.query(
+              "select id, name from table1 where id >= 0 order by id",
+              PreparedStatementSetter.NOOP,
+              ResultSetExporter.binary(channel));
+      assertThat(rows, is(2L));
+    }
+
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+      byte[] magic = new byte[4];
+      in.readFully(magic);
+      assertThat(new String(magic, StandardCharsets.US_ASCII), is("MJX1"));
+      assertThat(in.readShort(), is((short) 2));
+      assertThat(readString(in), is("ID"));
+      assertThat(in.readInt(), is(java.sql.Types.BIGINT));
+      assertThat(readString(in), is("NAME"));
+      assertThat(in.readInt(), is(java.sql.Types.VARCHAR));
+
+      assertThat(in.readByte(), is((byte) 1));
+      assertThat(in.readByte(), is((byte) 0));
+      assertThat(in.readLong(), is(0L));
+      assertThat(in.readByte(), is((byte) 1)); // null name
+
+      assertThat(in.readByte(), is((byte) 1));
+      assertThat(in.readByte(), is((byte) 0));
+      assertThat(in.readLong(), is(3L));
+      assertThat(in.readByte(), is((byte) 0));
+      assertThat(readString(in), is("a,\"b\"\tå€😀"));
+
+      assertThat(in.readByte(), is((byte) 0));
+      assertThat(in.read(), is(-1));
+    }
+  }
+
+  private String export(ChannelExporter exporter, boolean gzipped) throws Exception {
+    Path file = Files.createTempFile(tempDir, "export", ".txt");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      Long rows =
+          jdbcRunner.query(
+              "select id, name, active from table1 order by id",
+              PreparedStatementSetter.NOOP,
+              exporter.create(channel));
+      assertThat(rows, is(4L));
+    }
+    try (InputStream in =
+        gzipped ? new GZIPInputStream(Files.newInputStream(file)) : Files.newInputStream(file)) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] chunk = new byte[1024];
+      for (int read; (read = in.read(chunk)) != -1; ) {
+        out.write(chunk, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws Exception {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private interface ChannelExporter {
+    ResultSetExporter create(FileChannel channel);
+  }
+}
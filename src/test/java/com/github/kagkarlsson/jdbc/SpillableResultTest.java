@@ -0,0 +1,105 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillableResultTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  @TempDir public Path tempDir;
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute(
+        "create table table1 ( id INT, name VARCHAR(100), amount DECIMAL(10,2));",
+        PreparedStatementSetter.NOOP);
+    jdbcRunner.executeBatch(
+        "insert into table1(id, name, amount) values (?, ?, ?)",
+        IntStream.range(0, 1000).boxed().collect(Collectors.toList()),
+        (id, ps) -> {
+          ps.setInt(1, id);
+          ps.setString(2, id % 10 == 0 ? null : "name-" + id);
+          ps.setBigDecimal(3, new BigDecimal(id + ".25"));
+        });
+  }
+
+  @Test
+  public void should_spill_to_mapped_segments_and_decode_lazily() throws Exception {
+    SpillableResult<Object[]> result =
+        jdbcRunner.query(
+            "select id, name, amount from table1 order by id",
+            PreparedStatementSetter.NOOP,
+            SpillableResult.mapper(SpillableResult.columns(), 1024, 4096, tempDir));
+
+    try {
+      assertThat(result.size(), is(1000));
+      assertThat(result.getSpilledBytes() > 0, is(true));
+      assertThat(Files.list(tempDir).count(), is(1L));
+
+      Object[] row = result.get(999);
+      assertThat(row[0], is(999L));
+      assertThat(row[1], is("name-999"));
+      assertThat(row[2], is(new BigDecimal("999.25")));
+      assertThat(result.get(10)[1] == null, is(true));
+      assertThat(result.get(0)[0], is(0L));
+    } finally {
+      result.close();
+    }
+    assertThat(Files.list(tempDir).count(), is(0L));
+  }
+
+  @Test
+  public void should_count_encoded_bytes_of_spilled_rows() {
+    try (SpillableResult<Integer> result =
+        jdbcRunner.query(
+            "select id from table1 order by id",
+            PreparedStatementSetter.NOOP,
+            SpillableResult.mapper(new IntCodec(), 1024, 4096, tempDir))) {
+      assertThat(result.size(), is(1000));
+      // 256 rows of 4 bytes fill the heap buffer, the rest is spilled
+      assertThat(result.getSpilledBytes(), is((1000L - 256) * 4));
+      assertThat(result.get(999), is(999));
+    }
+  }
+
+  @Test
+  public void should_keep_small_results_on_heap() {
+    try (SpillableResult<Integer> result =
+        jdbcRunner.query(
+            "select id from table1 where id < 10 order by id",
+            PreparedStatementSetter.NOOP,
+            SpillableResult.mapper(new IntCodec()))) {
+      assertThat(result, is(IntStream.range(0, 10).boxed().collect(Collectors.toList())));
+      assertThat(result.getSpilledBytes(), is(0L));
+    }
+  }
+
+  private static class IntCodec implements SpillableResult.RowCodec<Integer> {
+    @Override
+    public void encode(ResultSet rs, DataOutput out) throws SQLException, IOException {
+      out.writeInt(rs.getInt(1));
+    }
+
+    @Override
+    public Integer decode(DataInput in) throws IOException {
+      return in.readInt();
+    }
+  }
+}
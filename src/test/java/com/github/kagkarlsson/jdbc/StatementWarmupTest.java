@@ -0,0 +1,74 @@
+package com.github.kagkarlsson.jdbc;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StatementWarmupTest {
+
+  @RegisterExtension public HsqlExtension database = new HsqlExtension();
+  @TempDir public Path tempDir;
+  private JdbcRunner jdbcRunner;
+
+  @BeforeEach
+  public void setUp() {
+    jdbcRunner = new JdbcRunner(database.getDataSource());
+    jdbcRunner.execute(
+        "create table table1 ( id INT, name VARCHAR(20));", PreparedStatementSetter.NOOP);
+  }
+
+  @Test
+  public void should_prepare_statements_on_each_connection_and_run_mappers() {
+    StatementWarmup.WarmupReport report =
+        jdbcRunner.warmUp(
+            new StatementWarmup()
+                .withStatement(
+                    "select id, name from table1 where id = ?",
+                    rs -> rs.getInt("id") + rs.getString("name"))
+                .withStatement("insert into table1(id, name) values (?, ?)")
+                .withStatement("select * from missing_table")
+                .withConnections(2)
+                .withDescribe(true)
+                .withMapperIterations(100));
+
+    assertThat(report.getStatements(), is(3));
+    assertThat(report.getPrepared(), is(4));
+    assertThat(report.getFailures().keySet().iterator().next(), is("select * from missing_table"));
+    assertThat(report.getMapperInvocations(), is(100L));
+  }
+
+  @Test
+  public void should_reject_no_connections_and_negative_iterations() {
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> new StatementWarmup().withConnections(0));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> new StatementWarmup().withMapperIterations(-1));
+  }
+
+  @Test
+  public void should_read_back_recorded_statements() {
+    Path file = tempDir.resolve("statements.sql");
+    StatementWarmup.writeStatements(
+        file,
+        Arrays.asList(
+            "select id\n  from table1",
+            "select name -- the name\r\nfrom table1 where name <> '\\n'"));
+
+    StatementWarmup.WarmupReport report =
+        jdbcRunner.warmUp(new StatementWarmup().withStatementsFrom(file));
+
+    assertThat(report.getPrepared(), is(2));
+    assertThat(report.getFailures().isEmpty(), is(true));
+    assertThat(
+        StatementWarmup.unescape(
+            StatementWarmup.escape("select name -- the name\r\nfrom table1 where name <> '\\n'")),
+        is("select name -- the name\r\nfrom table1 where name <> '\\n'"));
+  }
+}
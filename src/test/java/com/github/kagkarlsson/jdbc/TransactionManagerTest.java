@@ -1,5 +1,6 @@
 package com.github.kagkarlsson.jdbc;
 
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -8,6 +9,7 @@ import static org.mockito.Mockito.*;
 import java.sql.Connection;
 import java.sql.SQLException;
 import javax.sql.DataSource;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -42,6 +44,69 @@ public class TransactionManagerTest {
     assertThat(txp.getCurrent(), nullValue());
   }
 
+  @Test
+  public void should_only_change_and_restore_options_differing_from_connection()
+      throws SQLException {
+    when(connection.isReadOnly()).thenReturn(false);
+    when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+
+    tm.inTransaction(
+        TransactionOptions.DEFAULT
+            .withReadOnly(true)
+            .withIsolation(Connection.TRANSACTION_READ_COMMITTED)
+            .withLabel("report"),
+        (DoInTransaction<Void>)
+            c -> {
+              assertThat(txp.getCurrent().getOptions().getLabel(), is("report"));
+              return null;
+            });
+
+    verify(connection).isReadOnly();
+    verify(connection).setReadOnly(true);
+    verify(connection).getTransactionIsolation();
+    verify(connection).getAutoCommit();
+    verify(connection).commit();
+    verify(connection).setReadOnly(false);
+    verify(connection).close();
+    verifyNoMoreInteractions(connection);
+  }
+
+  @Test
+  public void should_restore_options_when_disabling_autocommit_fails() throws SQLException {
+    when(connection.isReadOnly()).thenReturn(false);
+    when(connection.getAutoCommit()).thenReturn(true);
+    doThrow(new SQLException()).when(connection).setAutoCommit(false);
+
+    Assertions.assertThrows(
+        SQLRuntimeException.class,
+        () -> tm.inTransaction(TransactionOptions.DEFAULT.withReadOnly(true), c -> null));
+
+    verify(connection).setReadOnly(true);
+    verify(connection).setReadOnly(false);
+    verify(connection).close();
+    assertThat(txp.getCurrent(), nullValue());
+  }
+
+  @Test
+  public void should_restore_read_only_when_restoring_isolation_fails() throws SQLException {
+    when(connection.isReadOnly()).thenReturn(false);
+    when(connection.getTransactionIsolation()).thenReturn(Connection.TRANSACTION_READ_COMMITTED);
+    doNothing()
+        .doThrow(new SQLException("restore isolation failed"))
+        .when(connection)
+        .setTransactionIsolation(anyInt());
+
+    tm.inTransaction(
+        TransactionOptions.DEFAULT
+            .withReadOnly(true)
+            .withIsolation(Connection.TRANSACTION_SERIALIZABLE),
+        c -> null);
+
+    verify(connection).setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    verify(connection).setReadOnly(false);
+    verify(connection).close();
+  }
+
   @Test
   public void should_rollback_if_exception() throws SQLException {
     try {